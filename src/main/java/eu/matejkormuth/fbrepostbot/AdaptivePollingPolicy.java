@@ -0,0 +1,198 @@
+/**
+ * Facebook Re-post Bot - Bot that checks some pages and copies posts to other pages.
+ * Copyright (c) 2015, Matej Kormuth <http://www.github.com/dobrakmato>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.matejkormuth.fbrepostbot;
+
+import eu.matejkormuth.fbrepostbot.facebook.FacebookPost;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Checks pages according to their observed posting rate. Each page has posting rate
+ * tracked for every hour of day, so pages are checked more often in hours they usually
+ * post in and less often when they are idle. Intervals are kept within configured bounds
+ * and scaled up when all pages together would exceed budget of checks per hour.
+ */
+public class AdaptivePollingPolicy implements PollingPolicy {
+
+    private static final Logger log = LoggerFactory.getLogger(AdaptivePollingPolicy.class);
+
+    // Half-life of observed posts in days. Older posts have less influence on posting rate.
+    private static final double HALF_LIFE_DAYS = 14;
+    // Expected number of new posts found by one check.
+    private static final double POSTS_PER_CHECK = 0.5;
+    private static final long SECONDS_PER_DAY = 24 * 60 * 60;
+
+    private final long minInterval;
+    private final long maxInterval;
+    // Maximum number of checks of all pages per hour, zero means unlimited.
+    private final long checkBudget;
+    private final ZoneId zone = ZoneId.systemDefault();
+
+    private final Map<Long, PostingRate> rates = new ConcurrentHashMap<>();
+    // Last computed intervals of pages, used to enforce check budget.
+    private final Map<Long, Double> intervals = new ConcurrentHashMap<>();
+    private double checksPerHour = 0;
+
+    public AdaptivePollingPolicy(long minInterval, long maxInterval, long checkBudget) {
+        if (minInterval <= 0 || maxInterval < minInterval) {
+            throw new IllegalArgumentException("Invalid check interval bounds: " + minInterval + " - " + maxInterval);
+        }
+
+        this.minInterval = minInterval;
+        this.maxInterval = maxInterval;
+        this.checkBudget = checkBudget;
+    }
+
+    private PostingRate getRate(SourcePage page) {
+        return rates.computeIfAbsent(page.getId(), id -> new PostingRate(now()));
+    }
+
+    private static long now() {
+        return System.currentTimeMillis() / 1000;
+    }
+
+    @Override
+    public void learn(SourcePage page) {
+        PostingRate rate = getRate(page);
+        long now = now();
+        try {
+            page.getCache().forEach(post -> rate.observe(post.getOriginalPost().getCreatedTime(), now));
+        } catch (IOException e) {
+            log.error("Can't learn posting rate of page " + page.getUsername() + " from cache.", e);
+        }
+    }
+
+    @Override
+    public void onChecked(SourcePage page, List<FacebookPost> newPosts) {
+        PostingRate rate = getRate(page);
+        long now = now();
+        for (FacebookPost post : newPosts) {
+            rate.observe(post.getCreatedTime(), now);
+        }
+        rate.setActive(!newPosts.isEmpty());
+    }
+
+    @Override
+    public long nextCheckDelay(SourcePage page) {
+        PostingRate rate = getRate(page);
+        long now = now();
+        int hour = Instant.ofEpochSecond(now).atZone(zone).getHour();
+
+        double postsPerSecond = rate.estimate(hour, now);
+        double interval = postsPerSecond > 0 ? POSTS_PER_CHECK / postsPerSecond : maxInterval;
+
+        // Pages often post more posts in a row, so check sooner after new posts were found.
+        if (rate.isActive()) {
+            interval /= 2;
+        }
+
+        interval = applyBudget(page.getId(), clamp(interval));
+        return Math.round(interval);
+    }
+
+    private double clamp(double interval) {
+        return Math.max(minInterval, Math.min(maxInterval, interval));
+    }
+
+    private synchronized double applyBudget(long pageId, double interval) {
+        Double previous = intervals.put(pageId, interval);
+        checksPerHour += 3600 / interval - (previous == null ? 0 : 3600 / previous);
+
+        if (checkBudget > 0 && checksPerHour > checkBudget) {
+            return clamp(interval * checksPerHour / checkBudget);
+        }
+        return interval;
+    }
+
+    /**
+     * Exponentially decayed number of posts in each hour of day.
+     */
+    private class PostingRate {
+        private final double[] hourly = new double[24];
+        private long decayedAt;
+        private long firstObserved = 0;
+        private volatile boolean active = false;
+
+        private PostingRate(long now) {
+            this.decayedAt = now;
+        }
+
+        private synchronized void observe(long time, long now) {
+            if (time <= 0) {
+                return;
+            }
+
+            decay(now);
+            double ageInDays = Math.max(0, now - time) / (double) SECONDS_PER_DAY;
+            hourly[Instant.ofEpochSecond(time).atZone(zone).getHour()] += Math.pow(0.5, ageInDays / HALF_LIFE_DAYS);
+            firstObserved = firstObserved == 0 ? time : Math.min(firstObserved, time);
+        }
+
+        private void decay(long now) {
+            double days = (now - decayedAt) / (double) SECONDS_PER_DAY;
+            if (days > 0) {
+                double factor = Math.pow(0.5, days / HALF_LIFE_DAYS);
+                for (int i = 0; i < hourly.length; i++) {
+                    hourly[i] *= factor;
+                }
+                decayedAt = now;
+            }
+        }
+
+        /**
+         * Estimates number of posts per second in specified hour of day.
+         */
+        private synchronized double estimate(int hour, long now) {
+            if (firstObserved == 0) {
+                return 0;
+            }
+
+            decay(now);
+            // Number of days covered by observations, limited by how long the decayed history lasts.
+            double days = Math.max(1, Math.min((now - firstObserved) / (double) SECONDS_PER_DAY,
+                    HALF_LIFE_DAYS / Math.log(2)));
+            // Smooth with neighbouring hours, pages do not post in exactly same hour every day.
+            double posts = 0.5 * hourly[hour] + 0.25 * hourly[(hour + 23) % 24] + 0.25 * hourly[(hour + 1) % 24];
+            return posts / days / 3600;
+        }
+
+        private boolean isActive() {
+            return active;
+        }
+
+        private void setActive(boolean active) {
+            this.active = active;
+        }
+    }
+}
@@ -0,0 +1,278 @@
+/**
+ * Facebook Re-post Bot - Bot that checks some pages and copies posts to other pages.
+ * Copyright (c) 2015, Matej Kormuth <http://www.github.com/dobrakmato>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.matejkormuth.fbrepostbot;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.Striped;
+import eu.matejkormuth.fbrepostbot.facebook.AttachmentDownloader;
+import eu.matejkormuth.fbrepostbot.facebook.FacebookException;
+import eu.matejkormuth.fbrepostbot.facebook.FacebookPost;
+import eu.matejkormuth.fbrepostbot.storage.AppendOnlyFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Content-addressed store of attachments in public folder. Each attachment is stored once
+ * under SHA-256 hash of its bytes in {@code objects/ab/cd/<hash>.jpg}, no matter how many
+ * posts (of how many pages) share it.
+ * <p>
+ * Hashes of downloaded facebook objects are remembered, so attachment that is already
+ * stored is not downloaded again. Cached posts reference attachments by hash, attachments
+ * not referenced by any cached post are removed by {@link #collectGarbage(Collection)}.
+ */
+public class AttachmentStore {
+
+    private static final Logger log = LoggerFactory.getLogger(AttachmentStore.class);
+
+    private static final String OBJECTS_DIRECTORY = "objects";
+    private static final String TEMP_DIRECTORY = "tmp";
+    private static final String EXTENSION = ".jpg";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // Unreferenced attachments younger than this may belong to posts that are being cached.
+    private static final long GARBAGE_MIN_AGE = TimeUnit.DAYS.toMillis(1);
+
+    private final PathHelper pathHelper;
+    private final AttachmentDownloader downloader;
+    // Hashes of downloaded facebook objects, persisted in append-only log.
+    private final Map<Long, String> objectHashes = new ConcurrentHashMap<>();
+    private final AppendOnlyFile objectHashLog;
+    // Same object must not be downloaded to the same temporary file concurrently.
+    private final Striped<Lock> objectLocks = Striped.lock(64);
+
+    public AttachmentStore(PathHelper pathHelper, AttachmentDownloader downloader) throws IOException {
+        this.pathHelper = pathHelper;
+        this.downloader = downloader;
+
+        Path objectHashLogPath = pathHelper.getPath("attachments", "objects.log");
+        Files.createDirectories(objectHashLogPath.getParent());
+        if (Files.exists(objectHashLogPath)) {
+            loadObjectHashes(Files.readAllLines(objectHashLogPath, Charsets.UTF_8));
+        }
+        this.objectHashLog = new AppendOnlyFile(objectHashLogPath);
+    }
+
+    private void loadObjectHashes(List<String> lines) {
+        for (String line : lines) {
+            String[] parts = line.split(" ");
+            // Last line may be incomplete after crash.
+            if (parts.length == 2 && parts[1].length() == 64) {
+                objectHashes.put(Long.parseLong(parts[0]), parts[1]);
+            }
+        }
+        log.info("Loaded hashes of {} attachments.", objectHashes.size());
+    }
+
+    /**
+     * Stores attachment of post and sets hash of the attachment to the post. Attachment is
+     * downloaded only if it is not stored yet.
+     *
+     * @param post          post with attachment
+     * @param attachmentUrl URL of attachment
+     * @throws FacebookException when attachment can't be downloaded or stored
+     */
+    public void store(FacebookPost post, String attachmentUrl) throws FacebookException {
+        // Only photos are supported.
+        if (post.getType() != PostType.PHOTO) {
+            return;
+        }
+
+        long objectId = post.getObjectId();
+        Lock lock = objectLocks.get(objectId);
+        lock.lock();
+        try {
+            String hash = objectHashes.get(objectId);
+            if (hash != null && Files.exists(getPath(hash))) {
+                log.info("Attachment {} of post {} is already stored.", objectId, post.getId());
+                post.setAttachmentHash(hash);
+                return;
+            }
+
+            // Download to the same file system, so the file can be atomically moved.
+            String fileName = objectId + EXTENSION;
+            Path temp = getTempPath(pathHelper).resolve(fileName);
+            Path metaPath = pathHelper.getAttachmentMetaPath(fileName);
+            log.info("Downloading attachment {} of post {}...", objectId, post.getId());
+            downloader.download(attachmentUrl, temp, metaPath);
+
+            hash = hash(temp);
+            Path path = getPath(hash);
+            if (Files.exists(path)) {
+                log.info("Attachment {} is the same as already stored {}.", objectId, hash);
+                Files.delete(temp);
+            } else {
+                Files.createDirectories(path.getParent());
+                Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE);
+            }
+            Files.deleteIfExists(metaPath);
+
+            rememberObjectHash(objectId, hash);
+            post.setAttachmentHash(hash);
+        } catch (IOException e) {
+            throw new FacebookException("Can't store attachment " + objectId + ": ", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns directory of attachments being downloaded. It is in public folder, so files
+     * can be atomically moved to their place, but must not be served.
+     *
+     * @param pathHelper path helper
+     * @return directory of incomplete attachments
+     */
+    public static Path getTempPath(PathHelper pathHelper) {
+        return pathHelper.getPublicPath(OBJECTS_DIRECTORY).resolve(TEMP_DIRECTORY);
+    }
+
+    private static String hash(Path path) throws IOException {
+        Hasher hasher = Hashing.sha256().newHasher();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream in = Files.newInputStream(path)) {
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                hasher.putBytes(buffer, 0, read);
+            }
+        }
+        return hasher.hash().toString();
+    }
+
+    private void rememberObjectHash(long objectId, String hash) throws IOException {
+        objectHashes.put(objectId, hash);
+        ByteBuffer line = ByteBuffer.wrap((objectId + " " + hash + "\n").getBytes(Charsets.UTF_8));
+        objectHashLog.sync(objectHashLog.append(line));
+    }
+
+    /**
+     * Returns public URL of attachment of specified post.
+     *
+     * @param post post with attachment
+     * @return public URL of attachment
+     */
+    public String getPublicUrl(FacebookPost post) {
+        String hash = getHash(post);
+        if (hash == null) {
+            // Attachment was downloaded before attachments were content-addressed.
+            return pathHelper.getPublicUrl(PathHelper.NamingConventions.getPhotoName(post.getObjectId()));
+        }
+        return pathHelper.getPublicUrl(OBJECTS_DIRECTORY + "/" + getRelativePath(hash));
+    }
+
+    /**
+     * Returns path to stored attachment of specified post.
+     *
+     * @param post post with attachment
+     * @return path to attachment, which may not exist
+     */
+    public Path getPath(FacebookPost post) {
+        String hash = getHash(post);
+        if (hash == null) {
+            return pathHelper.getPublicPath(PathHelper.NamingConventions.getPhotoName(post.getObjectId()));
+        }
+        return getPath(hash);
+    }
+
+    private String getHash(FacebookPost post) {
+        String hash = post.getAttachmentHash();
+        return hash != null ? hash : objectHashes.get(post.getObjectId());
+    }
+
+    public Path getPath(String hash) {
+        return pathHelper.getPublicPath(OBJECTS_DIRECTORY).resolve(getRelativePath(hash));
+    }
+
+    // Objects are sharded to 65536 directories by first two bytes of their hash.
+    private static String getRelativePath(String hash) {
+        return hash.substring(0, 2) + "/" + hash.substring(2, 4) + "/" + hash + EXTENSION;
+    }
+
+    /**
+     * Counts references to attachments from posts in specified caches and removes
+     * attachments that are not referenced by any post.
+     *
+     * @param caches all page caches
+     * @throws IOException when caches or store can't be read
+     */
+    public void collectGarbage(Collection<PageCache> caches) throws IOException {
+        Map<String, Integer> referenceCounts = new HashMap<>();
+        for (PageCache cache : caches) {
+            cache.forEach(post -> {
+                String hash = post.getOriginalPost().getAttachmentHash();
+                if (hash != null) {
+                    referenceCounts.merge(hash, 1, Integer::sum);
+                }
+            });
+        }
+
+        Path objectsPath = pathHelper.getPublicPath(OBJECTS_DIRECTORY);
+        if (!Files.isDirectory(objectsPath)) {
+            return;
+        }
+
+        long minModifiedTime = System.currentTimeMillis() - GARBAGE_MIN_AGE;
+        int removed = 0;
+        try (DirectoryStream<Path> shards = Files.newDirectoryStream(objectsPath, "??")) {
+            for (Path shard : shards) {
+                try (DirectoryStream<Path> subShards = Files.newDirectoryStream(shard)) {
+                    for (Path subShard : subShards) {
+                        try (DirectoryStream<Path> objects = Files.newDirectoryStream(subShard, "*" + EXTENSION)) {
+                            for (Path object : objects) {
+                                String fileName = object.getFileName().toString();
+                                String hash = fileName.substring(0, fileName.length() - EXTENSION.length());
+                                if (!referenceCounts.containsKey(hash)
+                                        && Files.getLastModifiedTime(object).toMillis() < minModifiedTime) {
+                                    Files.delete(object);
+                                    removed++;
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        log.info("{} attachments are referenced by cached posts, removed {} unreferenced attachments.",
+                referenceCounts.size(), removed);
+    }
+}
@@ -32,6 +32,14 @@ import eu.matejkormuth.fbrepostbot.facebook.AccessToken;
 import eu.matejkormuth.fbrepostbot.facebook.FacebookAPI;
 import eu.matejkormuth.fbrepostbot.facebook.FacebookException;
 import eu.matejkormuth.fbrepostbot.facebook.FacebookPage;
+import eu.matejkormuth.fbrepostbot.facebook.HttpClientSettings;
+import eu.matejkormuth.fbrepostbot.filters.ExpressionParser;
+import eu.matejkormuth.fbrepostbot.filters.Filter;
+import eu.matejkormuth.fbrepostbot.filters.KeywordFilter;
+import eu.matejkormuth.fbrepostbot.storage.LogPostStore;
+import eu.matejkormuth.fbrepostbot.storage.MigrationTool;
+import eu.matejkormuth.fbrepostbot.storage.PostStore;
+import eu.matejkormuth.fbrepostbot.storage.StorageEngine;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -43,7 +51,7 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
 import java.util.*;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
 
 public class Bootstrap {
@@ -60,11 +68,32 @@ public class Bootstrap {
     private EventBus eventBus;
     private PathHelper pathHelper;
     private PageRegistry pageRegistry;
+    private RoutingTable routingTable;
+    private DuplicateDetector duplicateDetector;
+    private AttachmentStore attachmentStore;
+    private FeedPublisher.PublishMode publishMode;
+    private ExecutorService downloadExecutor;
+    private DownloadStage downloadStage;
+    private ExecutorService hashExecutor;
+    private PhotoIndex.Settings photoIndexSettings;
+    private ExecutorService publishExecutor;
+    private PublishQueue.Settings publishQueueSettings;
+    private FeedFetcher.FetchMode feedFetchMode;
+    private SeenPostIndex.Mode seenPostIndexMode;
+    private StorageEngine storageEngine;
+    private StaticFileServer staticFileServer;
+    // Page can be both source and target page, both share one store.
+    private final Map<Long, PostStore> postStores = new HashMap<>();
 
     private static final String MAIN_CONF = "main.conf";
     private static final String SEPARATOR = "->";
     private static final String NO_TARGET = "NO_TARGET";
+    private static final String FILTER = "filter";
+    private static final String COMMENT = "#";
     private static final long DEFAULT_CHECK_INTERVAL = 5 * 60;
+    private static final long COMPACTION_INTERVAL = 6;
+    private static final long ATTACHMENT_COLLECTION_INTERVAL = 24;
+    private static final long METRICS_INTERVAL = 15;
 
     private void shutdown() {
         // TODO: Add way of safe shutdown.
@@ -77,20 +106,26 @@ public class Bootstrap {
         log.info("Booting up...");
 
         // Create objects.
-        scheduler = new Scheduler();
-        eventBus = new EventBus();
         pageRegistry = new PageRegistry();
+        routingTable = new RoutingTable();
 
         // Load access key and connect to facebook.
         try {
             // Load main conf and initialize PathHelper.
             Properties mainConf = initPathHelperAndMainConf();
+            initStaticFileServer(mainConf);
+            duplicateDetector = new DuplicateDetector(DuplicateDetector.Settings.fromProperties(mainConf));
+
+            initScheduler(mainConf);
+            eventBus = new EventBus();
 
             // Init facebook api from access config.
             initFacebookAPI(mainConf);
 
             // Resolve repost mappings.
-            List<String> lines = Files.readAllLines(pathHelper.getRepostConfPath());
+            List<String> lines = new ArrayList<>();
+            List<String> filterLines = new ArrayList<>();
+            readRepostConf(lines, filterLines);
             Set<Long> targetPageIds = new HashSet<>();
             Map<Long, Set<Long>> filterMappings = new HashMap<>();
 
@@ -101,26 +136,25 @@ public class Bootstrap {
             fetchPageAccessTokens(targetPageIds);
 
             // Second pass: build objects.
-            initRepostSecondPass(lines, filterMappings);
+            Map<Long, List<Filter<CachedPost>>> pageFilters = initPageFilters(filterLines);
+            initRepostSecondPass(lines, filterMappings, pageFilters);
+
+            // Finish publishing of posts interrupted by last shutdown.
+            for (TargetPage page : pageRegistry.getTargetPages()) {
+                page.recoverOutbox();
+            }
 
             // Set up scheduling.
+            PageChecker pageChecker = new PageChecker(scheduler, createPollingPolicy(mainConf));
             for (SourcePage page : pageRegistry.getSourcePages()) {
-                // When an exception is thrown in scheduled task it will not be propagated unless we
-                // explicitly call .get() method on ScheduledFuture. The whole execution will stop without
-                // any message. So we call get() to make ScheduledExecutorService propagate exceptions from
-                // task to main thread and stop application.
-                Thread thread = new Thread(() -> {
-                    try {
-                        scheduler.periodic(page::check, page.getCheckInterval(), TimeUnit.SECONDS).get();
-                    } catch (InterruptedException e) {
-                        log.error("ExceptionPropagationThread was interrupted.", e);
-                    } catch (ExecutionException e) {
-                        log.error("Exception in ExceptionPropagationThread: ", e);
-                    }
-                }, "ExceptionPropagationThread-Page-" + page.getUsername());
-                thread.setDaemon(false);
-                thread.start();
+                pageChecker.start(page);
             }
+            scheduler.periodic("Compact-Page-Caches", this::compactPageCaches, COMPACTION_INTERVAL,
+                    TimeUnit.HOURS);
+            scheduler.periodic("Collect-Attachments", this::collectAttachments, ATTACHMENT_COLLECTION_INTERVAL,
+                    TimeUnit.HOURS);
+            scheduler.periodic("Log-Graph-Metrics", facebookAPI.getMetrics()::log, METRICS_INTERVAL,
+                    TimeUnit.MINUTES);
         } catch (Exception e) {
             log.info("Exception occurred during initialization: ", e);
             System.exit(1);
@@ -129,7 +163,168 @@ public class Bootstrap {
         log.info("Application initialized!");
     }
 
-    private void initRepostSecondPass(List<String> lines, Map<Long, Set<Long>> filterMappings)
+    private void initStaticFileServer(Properties mainConf) throws IOException {
+        StaticFileServer.Settings settings = StaticFileServer.Settings.fromProperties(mainConf);
+        if (!settings.isEnabled()) {
+            return;
+        }
+
+        // Serves public folder to Facebook when photos are published by URL.
+        staticFileServer = new StaticFileServer(pathHelper.getPublicPath(), settings);
+        staticFileServer.exclude(AttachmentStore.getTempPath(pathHelper));
+        staticFileServer.setListener((path, status, bytes, duration) ->
+                log.debug("Served {} ({}, {} bytes) in {} ms.", path, status, bytes,
+                        TimeUnit.NANOSECONDS.toMillis(duration)));
+        staticFileServer.start();
+    }
+
+    private void initScheduler(Properties mainConf) {
+        Scheduler.ExecutionMode executionMode = Scheduler.ExecutionMode.valueOf(
+                mainConf.getProperty("executionMode", "platform").toUpperCase());
+        int defaultConcurrency = executionMode == Scheduler.ExecutionMode.VIRTUAL ? 256 :
+                Runtime.getRuntime().availableProcessors();
+        int maxConcurrency = Integer.parseInt(mainConf.getProperty("maxConcurrency",
+                String.valueOf(defaultConcurrency)));
+
+        scheduler = new Scheduler(executionMode, maxConcurrency, Scheduler.DEFAULT_JITTER);
+        scheduler.setFailureHandler((name, cause) ->
+                log.error("Scheduled task " + name + " failed: ", cause));
+
+        // Publishing has its own executor, page checks waiting for full publish
+        // queues must not take all threads from publish queue workers.
+        int maxPublishConcurrency = Integer.parseInt(mainConf.getProperty("maxPublishConcurrency",
+                String.valueOf(defaultConcurrency)));
+        publishExecutor = Scheduler.createExecutorService(executionMode, maxPublishConcurrency);
+        publishQueueSettings = PublishQueue.Settings.fromProperties(mainConf);
+
+        // Attachments are downloaded by their own workers, so slow downloads do not hold page checks.
+        int maxDownloadConcurrency = Integer.parseInt(mainConf.getProperty("maxDownloadConcurrency", "8"));
+        downloadExecutor = Scheduler.createExecutorService(executionMode, maxDownloadConcurrency);
+
+        // Decoding of photos for perceptual hashes is CPU bound, so it runs on few platform threads.
+        photoIndexSettings = PhotoIndex.Settings.fromProperties(mainConf);
+        if (photoIndexSettings.isEnabled()) {
+            int maxHashConcurrency = Integer.parseInt(mainConf.getProperty("maxHashConcurrency",
+                    String.valueOf(Math.max(1, Runtime.getRuntime().availableProcessors() / 2))));
+            hashExecutor = Scheduler.createExecutorService(Scheduler.ExecutionMode.PLATFORM, maxHashConcurrency);
+        }
+    }
+
+    private PageCache createPageCache(FacebookPage facebookPage) throws IOException {
+        PostStore store = postStores.get(facebookPage.getId());
+        if (store == null) {
+            Path pageCachePath = pathHelper.getPageCachePath(facebookPage.getId());
+            store = storageEngine.open(pageCachePath);
+            // Import posts cached as JSON files before log storage was used.
+            if (store instanceof LogPostStore && MigrationTool.needsMigration(pageCachePath)) {
+                MigrationTool.migrate(pageCachePath, (LogPostStore) store);
+            }
+            postStores.put(facebookPage.getId(), store);
+        }
+        return new PageCache(facebookPage, store, seenPostIndexMode);
+    }
+
+    private void compactPageCaches() {
+        for (Map.Entry<Long, PostStore> entry : postStores.entrySet()) {
+            try {
+                entry.getValue().compact();
+            } catch (IOException e) {
+                log.error("Can't compact cache of page " + entry.getKey(), e);
+            }
+        }
+    }
+
+    private void collectAttachments() {
+        List<PageCache> caches = new ArrayList<>();
+        pageRegistry.getSourcePages().forEach(page -> caches.add(page.getCache()));
+        pageRegistry.getTargetPages().forEach(page -> caches.add(page.getCache()));
+        try {
+            attachmentStore.collectGarbage(caches);
+        } catch (IOException e) {
+            log.error("Can't remove unreferenced attachments.", e);
+        }
+    }
+
+    private PollingPolicy createPollingPolicy(Properties mainConf) {
+        String policy = mainConf.getProperty("pollingPolicy", "fixed");
+        if (policy.equalsIgnoreCase("adaptive")) {
+            long minInterval = Long.parseLong(mainConf.getProperty("minCheckInterval", "60"));
+            long maxInterval = Long.parseLong(mainConf.getProperty("maxCheckInterval", "3600"));
+            long checkBudget = Long.parseLong(mainConf.getProperty("checkBudget", "0"));
+            log.info("Using adaptive polling policy with check interval between {} and {} seconds.",
+                    minInterval, maxInterval);
+            return new AdaptivePollingPolicy(minInterval, maxInterval, checkBudget);
+        }
+
+        log.info("Using fixed polling policy.");
+        return new FixedPollingPolicy();
+    }
+
+    private void readRepostConf(List<String> mappingLines, List<String> filterLines) throws IOException {
+        for (String line : Files.readAllLines(pathHelper.getRepostConfPath())) {
+            String trimmed = line.trim();
+            // Skip blank lines and comments.
+            if (trimmed.isEmpty() || trimmed.startsWith(COMMENT)) {
+                continue;
+            }
+
+            if (trimmed.startsWith(FILTER + " ")) {
+                filterLines.add(trimmed);
+            } else {
+                mappingLines.add(trimmed);
+            }
+        }
+    }
+
+    private Map<Long, List<Filter<CachedPost>>> initPageFilters(List<String> filterLines) {
+        Map<Long, List<Filter<CachedPost>>> pageFilters = new HashMap<>();
+        Map<Long, KeywordFilter.Builder> keywordFilters = new HashMap<>();
+        for (String line : filterLines) {
+            // filter {target-page-id} allow|deny {keyword}, {keyword}, ...
+            // filter {target-page-id} expr {expression}
+            // Invalid filter would let through posts it should stop, so it aborts boot.
+            String[] parts = line.split("\\s+", 4);
+            if (parts.length < 4) {
+                throw new IllegalArgumentException("Invalid filter at line: " + line);
+            }
+
+            long targetPageId;
+            try {
+                targetPageId = Long.parseLong(parts[1]);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid target page id at line: " + line, e);
+            }
+
+            KeywordFilter.Builder builder = keywordFilters.computeIfAbsent(targetPageId,
+                    id -> KeywordFilter.builder());
+            List<String> keywords = Arrays.asList(parts[3].split(","));
+            if (parts[2].equalsIgnoreCase("allow")) {
+                builder.allow(keywords);
+            } else if (parts[2].equalsIgnoreCase("deny")) {
+                builder.deny(keywords);
+            } else if (parts[2].equalsIgnoreCase("expr")) {
+                try {
+                    pageFilters.computeIfAbsent(targetPageId, id -> new ArrayList<>())
+                            .add(ExpressionParser.parse(parts[3]));
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("Invalid filter expression at line: " + line, e);
+                }
+            } else {
+                throw new IllegalArgumentException("Unknown filter type " + parts[2] + " at line: " + line);
+            }
+        }
+
+        // Keyword filters scan whole message, so they run after expressions.
+        keywordFilters.forEach((targetPageId, builder) -> {
+            if (!builder.isEmpty()) {
+                pageFilters.computeIfAbsent(targetPageId, id -> new ArrayList<>()).add(builder.build());
+            }
+        });
+        return pageFilters;
+    }
+
+    private void initRepostSecondPass(List<String> lines, Map<Long, Set<Long>> filterMappings,
+                                      Map<Long, List<Filter<CachedPost>>> pageFilters)
             throws IOException, FacebookException {
         for (String line : lines) {
             long sourcePageId = Long.valueOf(line.split(SEPARATOR)[0].trim());
@@ -145,7 +340,7 @@ public class Bootstrap {
                 initSourcePage(sourcePageId);
 
                 // Load target page if not loaded.
-                initTargetPage(filterMappings, targetPageId);
+                initTargetPage(filterMappings, pageFilters, targetPageId);
             } else {
                 // Create only SourcePage as for this mapping, user doesn't
                 // want to repost content from specified source page, only
@@ -157,7 +352,8 @@ public class Bootstrap {
         }
     }
 
-    private void initTargetPage(Map<Long, Set<Long>> filterMappings, long targetPageId)
+    private void initTargetPage(Map<Long, Set<Long>> filterMappings, Map<Long, List<Filter<CachedPost>>> pageFilters,
+                                long targetPageId)
             throws IOException, FacebookException {
         if (!pageRegistry.containsTargetPage(targetPageId)) {
             FacebookPage facebookPage;
@@ -165,14 +361,22 @@ public class Bootstrap {
             facebookPage = loadTargetFacebookPage(targetPageId);
 
             // Create new cache for this page.
-            PageCache pageCache = new PageCache(facebookPage, pathHelper);
+            PageCache pageCache = createPageCache(facebookPage);
             // Create filter.
-            PostFilter pageFilter = new PostFilter(filterMappings.get(targetPageId));
+            PostFilter pageFilter = new PostFilter(pageFilters.getOrDefault(targetPageId, Collections.emptyList()));
             AccessToken pageAccessToken = facebookAPI.getPageAccessToken(targetPageId);
+            PhotoIndex photoIndex = new PhotoIndex(photoIndexSettings, pageCache::forEach);
+            PublishOutbox outbox = new PublishOutbox(pathHelper.getOutboxPath(targetPageId));
 
             TargetPage page = new TargetPage(facebookAPI, eventBus, facebookPage, pageCache, pageFilter,
-                    pathHelper, pageAccessToken);
+                    duplicateDetector, photoIndex, outbox, attachmentStore, publishMode, pageAccessToken,
+                    publishExecutor, publishQueueSettings);
             pageRegistry.add(page);
+
+            // Subscribe page to its source pages.
+            for (long sourcePageId : filterMappings.get(targetPageId)) {
+                routingTable.add(sourcePageId, page);
+            }
         }
     }
 
@@ -207,14 +411,14 @@ public class Bootstrap {
             facebookPage = loadSourceFacebookPage(sourcePageId);
 
             // Create new cache for this page.
-            PageCache pageCache = new PageCache(facebookPage, pathHelper);
+            PageCache pageCache = createPageCache(facebookPage);
 
             // We use main access token for source pages.
             // There are no special permissions needed to be able to read their stream.
             AccessToken pageAccessToken = facebookAPI.getMainAccessToken();
 
-            SourcePage page = new SourcePage(facebookAPI, eventBus, facebookPage, pageCache,
-                    pathHelper, pageAccessToken);
+            SourcePage page = new SourcePage(facebookAPI, eventBus, routingTable, facebookPage, pageCache,
+                    pathHelper, downloadStage, pageAccessToken, feedFetchMode);
             pageRegistry.add(page);
         }
     }
@@ -299,13 +503,22 @@ public class Bootstrap {
         }
 
         String accessToken = accessConf.getProperty("accessToken");
+        HttpClientSettings httpClientSettings = HttpClientSettings.fromProperties(mainConf);
 
         try {
-            facebookAPI = new FacebookAPI(accessToken);
+            facebookAPI = new FacebookAPI(accessToken, httpClientSettings);
         } catch (FacebookException e) {
             log.info("Can't create FacebookAPI (log in to facebook)!", e);
             System.exit(2);
         }
+
+        // Open connections now, so first page checks do not pay for handshakes.
+        facebookAPI.prewarmConnections(httpClientSettings.getPrewarmConnections());
+
+        attachmentStore = new AttachmentStore(pathHelper, facebookAPI.getAttachmentDownloader());
+        downloadStage = new DownloadStage(attachmentStore, downloadExecutor, hashExecutor);
+        // Uploading does not need public folder to be reachable by Facebook.
+        publishMode = FeedPublisher.PublishMode.valueOf(mainConf.getProperty("publishMode", "upload").toUpperCase());
     }
 
     private Properties initPathHelperAndMainConf() throws IOException {
@@ -332,6 +545,13 @@ public class Bootstrap {
         String publicPathUrl = mainConf.getProperty("publicPathUrl");
 
         pathHelper = new PathHelper(dataPath, publicPath, publicPathUrl);
+
+        feedFetchMode = FeedFetcher.FetchMode.valueOf(mainConf.getProperty("feedFetchMode",
+                FeedFetcher.FetchMode.EXPANDED.name()));
+        seenPostIndexMode = SeenPostIndex.Mode.valueOf(mainConf.getProperty("seenPostIndex",
+                SeenPostIndex.Mode.EXACT.name()).toUpperCase());
+        storageEngine = StorageEngine.valueOf(mainConf.getProperty("storageEngine",
+                StorageEngine.LOG.name()).toUpperCase());
         return mainConf;
     }
 }
@@ -30,11 +30,22 @@ import com.google.common.base.Preconditions;
 import eu.matejkormuth.fbrepostbot.facebook.FacebookPost;
 import org.json.JSONObject;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
 public class CachedPost implements JsonSerializable {
     private FacebookPost originalPost;
     private long sourcePageId;
     private long targetPageId;
     private boolean published = false;
+    // Id of post created by publishing this post to target page.
+    private String publishedPostId;
+    // Values computed from post by filters, shared by all target pages. Not serialized.
+    private volatile Map<Object, Object> memo;
+    // Id of earlier post with similar message delivered to target page the post is offered
+    // to, set by duplicate detector. Not serialized.
+    private volatile String duplicateOf;
 
     public CachedPost() {
     }
@@ -76,6 +87,54 @@ public class CachedPost implements JsonSerializable {
         return published;
     }
 
+    public String getPublishedPostId() {
+        return publishedPostId;
+    }
+
+    /**
+     * Marks this post as published to its target page.
+     *
+     * @param publishedPostId id of created post, may be null
+     */
+    public void setPublished(String publishedPostId) {
+        this.published = true;
+        this.publishedPostId = publishedPostId;
+    }
+
+    public boolean isDuplicate() {
+        return duplicateOf != null;
+    }
+
+    public String getDuplicateOf() {
+        return duplicateOf;
+    }
+
+    public void setDuplicateOf(String duplicateOf) {
+        this.duplicateOf = duplicateOf;
+    }
+
+    /**
+     * Returns value computed from this post, computing it on first call with specified key.
+     *
+     * @param key      key of value
+     * @param function computes value
+     * @param <T>      type of value
+     * @return computed value
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T memoize(Object key, Function<CachedPost, T> function) {
+        Map<Object, Object> values = memo;
+        if (values == null) {
+            synchronized (this) {
+                if (memo == null) {
+                    memo = new ConcurrentHashMap<>();
+                }
+                values = memo;
+            }
+        }
+        return (T) values.computeIfAbsent(key, k -> function.apply(this));
+    }
+
     @Override
     public String serialize() {
         JSONObject obj = new JSONObject();
@@ -84,11 +143,19 @@ public class CachedPost implements JsonSerializable {
         obj.put("message", originalPost.getMessage());
         obj.put("type", originalPost.getType().name());
         obj.put("objectId", originalPost.getObjectId());
+        obj.put("createdTime", originalPost.getCreatedTime());
+        obj.put("attachmentHash", originalPost.getAttachmentHash());
+        if (originalPost.getPhotoHash() != null) {
+            obj.put("photoHash", Long.toHexString(originalPost.getPhotoHash()));
+        }
         obj.put("requestedDetails", originalPost.isRequestedDetails());
 
         obj.put("sourcePageId", sourcePageId);
         obj.put("targetPageId", targetPageId);
         obj.put("published", published);
+        if (publishedPostId != null) {
+            obj.put("publishedPostId", publishedPostId);
+        }
 
         return obj.toString(2);
     }
@@ -99,13 +166,20 @@ public class CachedPost implements JsonSerializable {
 
         FacebookPost post = new FacebookPost();
         post.setId(obj.getString("id"));
-        post.setMessage(obj.getString("message"));
+        // Posts without message (for example photo only) have no message key.
+        post.setMessage(obj.optString("message", null));
         post.setType(PostType.valueOf(obj.getString("type")));
         post.setObjectId(obj.getLong("objectId"));
+        post.setCreatedTime(obj.optLong("createdTime", 0));
+        post.setAttachmentHash(obj.optString("attachmentHash", null));
+        if (obj.has("photoHash")) {
+            post.setPhotoHash(Long.parseUnsignedLong(obj.getString("photoHash"), 16));
+        }
         post.setRequestedDetails(obj.getBoolean("requestedDetails"));
 
         this.originalPost = post;
         this.published = obj.getBoolean("published");
+        this.publishedPostId = obj.optString("publishedPostId", null);
         this.sourcePageId = obj.getLong("sourcePageId");
         this.targetPageId = obj.getLong("targetPageId");
     }
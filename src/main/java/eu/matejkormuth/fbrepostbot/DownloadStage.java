@@ -0,0 +1,122 @@
+/**
+ * Facebook Re-post Bot - Bot that checks some pages and copies posts to other pages.
+ * Copyright (c) 2015, Matej Kormuth <http://www.github.com/dobrakmato>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.matejkormuth.fbrepostbot;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import eu.matejkormuth.fbrepostbot.facebook.FacebookException;
+import eu.matejkormuth.fbrepostbot.facebook.FacebookPost;
+import eu.matejkormuth.fbrepostbot.util.DHash;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Downloads attachments of new posts on its own pool of workers. Source pages only
+ * enqueue download jobs, so one page posting many photos does not block checks of
+ * other pages, and attachments of one check are downloaded in parallel.
+ * <p>
+ * Number of concurrent downloads is limited by the executor, number of bytes being
+ * downloaded at once is limited by attachment downloader. Perceptual hashes of downloaded
+ * photos are computed by separate bounded executor, decoding of images does not hold
+ * download workers.
+ */
+public class DownloadStage {
+
+    private static final Logger log = LoggerFactory.getLogger(DownloadStage.class);
+
+    // Number of remembered perceptual hashes of stored attachments.
+    private static final int PHOTO_HASH_CACHE_SIZE = 10000;
+
+    private final AttachmentStore attachmentStore;
+    private final Executor executor;
+    private final Executor hashExecutor;
+    // Perceptual hashes by SHA-256 hash of attachment, so shared attachment is decoded once.
+    private final Cache<String, Long> photoHashes = CacheBuilder.newBuilder()
+            .maximumSize(PHOTO_HASH_CACHE_SIZE)
+            .build();
+
+    /**
+     * @param attachmentStore store of attachments
+     * @param executor        executor downloading attachments
+     * @param hashExecutor    executor computing perceptual hashes of photos, or null to not compute them
+     */
+    public DownloadStage(AttachmentStore attachmentStore, Executor executor, Executor hashExecutor) {
+        this.attachmentStore = attachmentStore;
+        this.executor = executor;
+        this.hashExecutor = hashExecutor;
+    }
+
+    /**
+     * Enqueues download of attachment of specified post.
+     *
+     * @param post          post with attachment
+     * @param attachmentUrl URL of attachment
+     * @return future completed when attachment is stored (and its hash is computed), or
+     * exceptionally with {@link FacebookException} when download fails
+     */
+    public CompletableFuture<FacebookPost> submit(FacebookPost post, String attachmentUrl) {
+        CompletableFuture<FacebookPost> download = CompletableFuture.supplyAsync(() -> {
+            try {
+                attachmentStore.store(post, attachmentUrl);
+                return post;
+            } catch (FacebookException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+
+        if (hashExecutor == null) {
+            return download;
+        }
+        return download.thenApplyAsync(this::computePhotoHash, hashExecutor);
+    }
+
+    private FacebookPost computePhotoHash(FacebookPost post) {
+        String attachmentHash = post.getAttachmentHash();
+        if (post.getType() != PostType.PHOTO || attachmentHash == null) {
+            return post;
+        }
+
+        Long photoHash = photoHashes.getIfPresent(attachmentHash);
+        if (photoHash == null) {
+            try {
+                photoHash = DHash.compute(attachmentStore.getPath(attachmentHash));
+                photoHashes.put(attachmentHash, photoHash);
+            } catch (IOException | RuntimeException e) {
+                // Post without hash is published without photo deduplication.
+                log.warn("Can't compute hash of photo of post " + post.getId(), e);
+                return post;
+            }
+        }
+        post.setPhotoHash(photoHash);
+        return post;
+    }
+}
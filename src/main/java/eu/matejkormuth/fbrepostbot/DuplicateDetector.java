@@ -0,0 +1,274 @@
+/**
+ * Facebook Re-post Bot - Bot that checks some pages and copies posts to other pages.
+ * Copyright (c) 2015, Matej Kormuth <http://www.github.com/dobrakmato>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.matejkormuth.fbrepostbot;
+
+import com.google.common.base.Preconditions;
+import eu.matejkormuth.fbrepostbot.filters.TextFolding;
+import eu.matejkormuth.fbrepostbot.util.SimHash;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finds posts whose message is near-duplicate of message of other recent post delivered
+ * to the same target page from any source page. Messages are compared by Hamming distance
+ * of their SimHash fingerprints.
+ * <p>
+ * Each target page has its own index, so post rejected by filter of one target page or
+ * delivered only to other target pages does not suppress its duplicates. Fingerprint is
+ * split to {@code maxDistance + 1} bands and indexed by each band. Two fingerprints within
+ * max distance share at least one band, so only posts in the same bucket of some band are
+ * compared. Posts are forgotten when they leave the time window.
+ */
+public class DuplicateDetector {
+
+    private static final Logger log = LoggerFactory.getLogger(DuplicateDetector.class);
+    // Key of fingerprint in memo of post, it is computed once for all target pages.
+    private static final Object FINGERPRINT = new Object();
+
+    private final Settings settings;
+    private final int[] bandShifts;
+    private final long[] bandMasks;
+    // Indexes of posts delivered to target pages, by target page id.
+    private final Map<Long, Index> indexes = new ConcurrentHashMap<>();
+
+    public DuplicateDetector(Settings settings) {
+        this.settings = settings;
+
+        int bandCount = settings.getMaxDistance() + 1;
+        this.bandShifts = new int[bandCount];
+        this.bandMasks = new long[bandCount];
+        for (int i = 0; i < bandCount; i++) {
+            int from = i * 64 / bandCount;
+            int to = (i + 1) * 64 / bandCount;
+            this.bandShifts[i] = from;
+            this.bandMasks[i] = to - from == 64 ? -1L : (1L << (to - from)) - 1;
+        }
+    }
+
+    /**
+     * Decides whether post is delivered to target page. Post that is near-duplicate of
+     * recent post delivered to the target page is marked or dropped depending on mode,
+     * then the filter decides. Delivered posts which are not duplicates are added to index
+     * of the target page.
+     *
+     * @param post         newly cached post
+     * @param targetPageId id of target page
+     * @param filter       filter of target page
+     * @return true if post should be published to target page
+     */
+    public boolean deliver(CachedPost post, long targetPageId, PostFilter filter) {
+        if (settings.getMode() == Mode.OFF) {
+            return filter.isRelevant(post);
+        }
+
+        String message = TextFolding.foldedMessage(post);
+        if (SimHash.countWords(message) < settings.getMinWords()) {
+            // Short messages are too similar to be compared.
+            post.setDuplicateOf(null);
+            return filter.isRelevant(post);
+        }
+
+        long fingerprint = post.memoize(FINGERPRINT, p -> SimHash.compute(message));
+        Index index = indexes.computeIfAbsent(targetPageId, id -> new Index());
+        // Filter runs under lock of index, so two duplicates can't be both delivered.
+        synchronized (index) {
+            long now = System.currentTimeMillis();
+            index.expire(now - TimeUnit.HOURS.toMillis(settings.getWindow()));
+
+            String originalId = index.find(fingerprint);
+            if (originalId != null && settings.getMode() == Mode.DROP) {
+                log.info("Post {} is near-duplicate of post {} delivered to page {}, dropping.",
+                        post.getOriginalPost().getId(), originalId, targetPageId);
+                return false;
+            }
+
+            if (originalId != null) {
+                log.info("Post {} is near-duplicate of post {} delivered to page {}.",
+                        post.getOriginalPost().getId(), originalId, targetPageId);
+            }
+            // Mark is set for this target page only, filters are called on this thread.
+            post.setDuplicateOf(originalId);
+            if (!filter.isRelevant(post)) {
+                return false;
+            }
+
+            // Duplicates are not indexed, so window starts at the first occurrence of the story.
+            if (originalId == null) {
+                index.add(new Fingerprint(fingerprint, post.getOriginalPost().getId(), now));
+            }
+            return true;
+        }
+    }
+
+    private long band(long fingerprint, int band) {
+        return (fingerprint >>> bandShifts[band]) & bandMasks[band];
+    }
+
+    public int size() {
+        int size = 0;
+        for (Index index : indexes.values()) {
+            synchronized (index) {
+                size += index.window.size();
+            }
+        }
+        return size;
+    }
+
+    // Posts delivered to one target page. Guarded by itself.
+    private class Index {
+        private final Map<Long, ArrayDeque<Fingerprint>>[] bands;
+        // Indexed fingerprints from oldest to newest.
+        private final ArrayDeque<Fingerprint> window = new ArrayDeque<>();
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private Index() {
+            this.bands = new Map[bandShifts.length];
+            for (int i = 0; i < bands.length; i++) {
+                this.bands[i] = new HashMap<>();
+            }
+        }
+
+        // Returns id of similar post, or null.
+        private String find(long fingerprint) {
+            for (int i = 0; i < bands.length; i++) {
+                ArrayDeque<Fingerprint> bucket = bands[i].get(band(fingerprint, i));
+                if (bucket == null) {
+                    continue;
+                }
+                for (Fingerprint candidate : bucket) {
+                    if (SimHash.distance(fingerprint, candidate.value) <= settings.getMaxDistance()) {
+                        return candidate.postId;
+                    }
+                }
+            }
+            return null;
+        }
+
+        private void add(Fingerprint entry) {
+            window.addLast(entry);
+            for (int i = 0; i < bands.length; i++) {
+                bands[i].computeIfAbsent(band(entry.value, i), k -> new ArrayDeque<>()).addLast(entry);
+            }
+        }
+
+        private void expire(long before) {
+            while (!window.isEmpty() && window.peekFirst().time < before) {
+                Fingerprint entry = window.pollFirst();
+                // Buckets are ordered by time too, so expired entry is first in each of them.
+                for (int i = 0; i < bands.length; i++) {
+                    long key = band(entry.value, i);
+                    ArrayDeque<Fingerprint> bucket = bands[i].get(key);
+                    bucket.pollFirst();
+                    if (bucket.isEmpty()) {
+                        bands[i].remove(key);
+                    }
+                }
+            }
+        }
+    }
+
+    private static class Fingerprint {
+        private final long value;
+        private final String postId;
+        private final long time;
+
+        private Fingerprint(long value, String postId, long time) {
+            this.value = value;
+            this.postId = postId;
+            this.time = time;
+        }
+    }
+
+    public enum Mode {
+        /**
+         * Posts are not checked.
+         */
+        OFF,
+        /**
+         * Duplicates are delivered to target pages marked, so filters can decide.
+         */
+        MARK,
+        /**
+         * Duplicates are not delivered to target pages.
+         */
+        DROP
+    }
+
+    /**
+     * Settings of duplicate detection.
+     */
+    public static class Settings {
+        private Mode mode = Mode.OFF;
+        // Maximum number of different bits of fingerprints of duplicates.
+        private int maxDistance = 6;
+        // How long posts are remembered (in hours).
+        private long window = 24;
+        // Messages with less words are not checked.
+        private int minWords = 5;
+
+        public Settings() {
+        }
+
+        public static Settings fromProperties(Properties properties) {
+            Settings settings = new Settings();
+            settings.mode = Mode.valueOf(properties.getProperty("duplicates.mode",
+                    settings.mode.name()).toUpperCase());
+            settings.maxDistance = Integer.parseInt(properties.getProperty("duplicates.maxDistance",
+                    String.valueOf(settings.maxDistance)));
+            settings.window = Long.parseLong(properties.getProperty("duplicates.window",
+                    String.valueOf(settings.window)));
+            settings.minWords = Integer.parseInt(properties.getProperty("duplicates.minWords",
+                    String.valueOf(settings.minWords)));
+            Preconditions.checkArgument(settings.maxDistance >= 0 && settings.maxDistance < 32,
+                    "duplicates.maxDistance must be between 0 and 31");
+            return settings;
+        }
+
+        public Mode getMode() {
+            return mode;
+        }
+
+        public int getMaxDistance() {
+            return maxDistance;
+        }
+
+        public long getWindow() {
+            return window;
+        }
+
+        public int getMinWords() {
+            return minWords;
+        }
+    }
+}
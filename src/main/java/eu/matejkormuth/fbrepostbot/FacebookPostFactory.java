@@ -36,6 +36,9 @@ public class FacebookPostFactory {
         facebookPost.setId(post.getOriginalPost().getId());
         facebookPost.setObjectId(post.getOriginalPost().getObjectId());
         facebookPost.setType(post.getOriginalPost().getType());
+        facebookPost.setCreatedTime(post.getOriginalPost().getCreatedTime());
+        facebookPost.setAttachmentHash(post.getOriginalPost().getAttachmentHash());
+        facebookPost.setPhotoHash(post.getOriginalPost().getPhotoHash());
         facebookPost.setRequestedDetails(post.getOriginalPost().isRequestedDetails());
 
         if (this.removeText) {
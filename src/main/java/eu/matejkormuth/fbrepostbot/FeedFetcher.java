@@ -26,12 +26,15 @@
  */
 package eu.matejkormuth.fbrepostbot;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.google.common.base.Strings;
 import eu.matejkormuth.fbrepostbot.facebook.*;
-import org.json.JSONArray;
-import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -39,37 +42,210 @@ public class FeedFetcher {
 
     private static final Logger log = LoggerFactory.getLogger(FeedFetcher.class);
 
+    // Fields requested for each post in expanded mode. Attachment source is
+    // requested as nested field, so no additional request is needed.
+    private static final String EXPANDED_FIELDS = "created_time,id,type,message,object_id,attachments{media}";
+    // Number of posts in one page of feed when fetching posts since some time.
+    private static final int PAGE_SIZE = 25;
+    // Format of created_time field, for example 2015-06-02T11:00:00+0000.
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ssZ");
+
     private final FacebookPage page;
     private final FacebookAPI api;
     private final AccessToken pageAccessToken;
+    private final FetchMode fetchMode;
 
     public FeedFetcher(FacebookAPI api, FacebookPage page, AccessToken pageAccessToken) {
+        this(api, page, pageAccessToken, FetchMode.EXPANDED);
+    }
+
+    public FeedFetcher(FacebookAPI api, FacebookPage page, AccessToken pageAccessToken, FetchMode fetchMode) {
         this.api = api;
         this.page = page;
         this.pageAccessToken = pageAccessToken;
+        this.fetchMode = fetchMode;
     }
 
     public List<FacebookPost> fetch(int limit) throws FacebookException {
-        ArrayList<FacebookPost> posts = new ArrayList<>();
-
         // Download feed.
         log.info("Sending request to facebook api...");
-        JSONObject pageFeed = api
+        return readFeedPage(api
+                .createGetRequest(pageAccessToken)
+                .url(page.getId() + "/feed?fields=" + getFields() + "&limit=" + limit)).posts;
+    }
+
+    /**
+     * Fetches all posts created since specified time. Follows pagination if there are
+     * more posts than fit to one page of feed.
+     *
+     * @param since    time in seconds since epoch
+     * @param until    time in seconds since epoch, posts created later are not fetched,
+     *                 0 for no limit
+     * @param maxPages maximum number of feed pages to fetch
+     * @return fetched posts, newest first
+     * @throws FacebookException when request fails
+     */
+    public FetchResult fetchSince(long since, long until, int maxPages) throws FacebookException {
+        FetchResult result = new FetchResult();
+
+        log.info("Sending request to facebook api...");
+        String url = page.getId() + "/feed?fields=" + getFields() + "&since=" + since + "&limit=" + PAGE_SIZE;
+        if (until != 0) {
+            url += "&until=" + until;
+        }
+        FeedPage feedPage = readFeedPage(api
                 .createGetRequest(pageAccessToken)
-                .url(page.getId() + "/feed?fields=created_time,id&limit=" + limit)
-                .send();
-
-        JSONArray data = pageFeed.getJSONArray("data");
-        int length = data.length();
-        for (int i = 0; i < length; i++) {
-            JSONObject postJsonObj = data.getJSONObject(i);
-            log.info("Creating FacebookPost object {}", postJsonObj.getString("id"));
-            FacebookPost post = new FacebookPost();
-            post.setId(postJsonObj.getString("id"));
-            posts.add(post);
+                .url(url));
+        result.posts.addAll(feedPage.posts);
+
+        int pages = 1;
+        // Follow pagination if there was a burst of posts.
+        while (!feedPage.posts.isEmpty() && feedPage.next != null) {
+            if (pages >= maxPages) {
+                log.warn("Feed of page {} has more than {} pages of new posts, older posts were not fetched "
+                        + "and are left for next checks.", page.getUsername(), maxPages);
+                result.complete = false;
+                break;
+            }
+
+            log.info("Fetching next page of feed of page {}...", page.getUsername());
+            feedPage = readFeedPage(api
+                    .createGetRequest(pageAccessToken)
+                    .absoluteUrl(feedPage.next));
+            result.posts.addAll(feedPage.posts);
+            pages++;
+        }
+
+        return result;
+    }
+
+    private String getFields() {
+        return fetchMode == FetchMode.EXPANDED ? EXPANDED_FIELDS : "created_time,id";
+    }
+
+    // Reads posts from response without building tree of whole feed.
+    private FeedPage readFeedPage(Request request) throws FacebookException {
+        return request.send(FeedPage::new, (feedPage, name, parser) -> {
+            switch (name) {
+                case "data":
+                    JsonStreams.forEachElement(parser, element -> feedPage.posts.add(readPost(element)));
+                    return true;
+                case "paging":
+                    feedPage.next = JsonStreams.readText(parser, "next");
+                    return true;
+                default:
+                    return false;
+            }
+        });
+    }
+
+    private FacebookPost readPost(JsonParser parser) throws IOException {
+        FacebookPost post = new FacebookPost();
+        String[] attachmentSource = {null};
+        JsonStreams.forEachField(parser, (name, p) -> {
+            switch (name) {
+                case "id":
+                    post.setId(p.getValueAsString());
+                    return true;
+                case "created_time":
+                    post.setCreatedTime(parseTime(p.getValueAsString()));
+                    return true;
+                case "message":
+                    post.setMessage(p.getValueAsString());
+                    return true;
+                case "object_id":
+                    post.setObjectId(p.getValueAsLong());
+                    return true;
+                case "type":
+                    post.setType(PostType.byFacebookType(p.getValueAsString()));
+                    return true;
+                case "attachments":
+                    // Use source of first attachment if it has an image.
+                    attachmentSource[0] = readFirstAttachmentSource(p);
+                    return true;
+                default:
+                    return false;
+            }
+        });
+
+        log.info("Creating FacebookPost object {}", post.getId());
+        if (Strings.isNullOrEmpty(post.getId()) || post.getCreatedTime() == 0) {
+            throw new IOException("Post in feed of page " + page.getId() + " has no id or created time.");
+        }
+
+        if (fetchMode == FetchMode.EXPANDED) {
+            if (post.getType() == null) {
+                post.setType(PostType.UNSUPPORTED);
+            }
+            if (post.getType() == PostType.PHOTO && attachmentSource[0] != null) {
+                post.setAttachmentSource(attachmentSource[0]);
+            }
+            post.setRequestedDetails(true);
+        }
+        return post;
+    }
+
+    private static String readFirstAttachmentSource(JsonParser parser) throws IOException {
+        String[] source = {null};
+        boolean[] first = {true};
+        JsonStreams.forEachField(parser, (name, p) -> {
+            if (!name.equals("data")) {
+                return false;
+            }
+
+            JsonStreams.forEachElement(p, attachment -> {
+                if (first[0]) {
+                    first[0] = false;
+                    source[0] = JsonStreams.readText(attachment, "media", "image", "src");
+                } else {
+                    attachment.skipChildren();
+                }
+            });
+            return true;
+        });
+        return source[0];
+    }
+
+    private static long parseTime(String time) {
+        return OffsetDateTime.parse(time, TIME_FORMAT).toEpochSecond();
+    }
+
+    // Result of reading one page of feed.
+    private static class FeedPage {
+        private final List<FacebookPost> posts = new ArrayList<>();
+        private String next;
+    }
+
+    /**
+     * Posts fetched since some time.
+     */
+    public static class FetchResult {
+        private final List<FacebookPost> posts = new ArrayList<>();
+        private boolean complete = true;
+
+        /**
+         * @return fetched posts, newest first
+         */
+        public List<FacebookPost> getPosts() {
+            return posts;
         }
 
-        return posts;
+        /**
+         * @return false if older posts were not fetched, because there were too many pages
+         */
+        public boolean isComplete() {
+            return complete;
+        }
     }
 
+    public enum FetchMode {
+        /**
+         * Only ids of posts are fetched, details and attachments are requested separately.
+         */
+        IDS_ONLY,
+        /**
+         * Details and attachment sources are fetched together with the feed.
+         */
+        EXPANDED
+    }
 }
@@ -31,6 +31,13 @@ import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
 public class FeedPublisher {
 
     private static final Logger log = LoggerFactory.getLogger(FeedPublisher.class);
@@ -38,41 +45,122 @@ public class FeedPublisher {
     private final FacebookPage targetPage;
     private final FacebookAPI api;
     private final AccessToken pageAccessToken;
+    private final AttachmentStore attachmentStore;
+    private final PublishMode publishMode;
 
-    public FeedPublisher(FacebookAPI api, FacebookPage targetPage, AccessToken pageAccessToken) {
+    public FeedPublisher(FacebookAPI api, FacebookPage targetPage, AccessToken pageAccessToken,
+                         AttachmentStore attachmentStore, PublishMode publishMode) {
         this.api = api;
         this.targetPage = targetPage;
         this.pageAccessToken = pageAccessToken;
+        this.attachmentStore = attachmentStore;
+        this.publishMode = publishMode;
     }
 
-    public void publish(PathHelper pathHelper, FacebookPost facebookPost) throws FacebookException {
+    /**
+     * Publishes post to target page.
+     *
+     * @param facebookPost post to publish
+     * @return id of created post, or null if post type is not supported
+     * @throws FacebookException when post can't be published
+     */
+    public String publish(FacebookPost facebookPost) throws FacebookException {
         // Different ways of publishing for different post types.
 
         if (facebookPost.getType() == PostType.PHOTO) {
-            // TODO: Add support for uploading photos directly to facebook.
-            publishUploaded(pathHelper, facebookPost);
+            Path photo = attachmentStore.getPath(facebookPost);
+            if (publishMode == PublishMode.UPLOAD && Files.isRegularFile(photo)) {
+                return publishUploaded(facebookPost, photo);
+            } else {
+                return publishLinked(facebookPost);
+            }
         } else {
             log.warn("Post {} has unsupported post type.", facebookPost.getId());
+            return null;
         }
     }
 
-    private void publishUploaded(PathHelper pathHelper, FacebookPost facebookPost) throws FacebookException {
-        // Create status with photo.
-        String publicPhotoUrl = pathHelper.getPublicUrl(
-                PathHelper.NamingConventions.getPhotoName(facebookPost.getObjectId()));
+    /**
+     * Finds posts that are already published among recent posts of target page. Posts
+     * are matched by message, so posts without message are never found. Each published
+     * post matches at most one post.
+     *
+     * @param facebookPosts posts to find
+     * @param limit         number of recent posts of target page to search
+     * @return ids of published posts by ids of found posts
+     * @throws FacebookException when feed of target page can't be fetched
+     */
+    public Map<String, String> findPublished(List<FacebookPost> facebookPosts, int limit) throws FacebookException {
+        Map<String, String> publishedByMessage = new HashMap<>();
+        FeedFetcher feedFetcher = new FeedFetcher(api, targetPage, pageAccessToken, FeedFetcher.FetchMode.EXPANDED);
+        for (FacebookPost published : feedFetcher.fetch(limit)) {
+            if (published.getMessage() != null && !published.getMessage().isEmpty()) {
+                // Feed is newest first, post published last is kept.
+                publishedByMessage.putIfAbsent(published.getMessage(), published.getId());
+            }
+        }
 
-        log.info("Public path to photo: {}", publicPhotoUrl);
+        Map<String, String> found = new HashMap<>();
+        for (FacebookPost facebookPost : facebookPosts) {
+            String message = getMessage(facebookPost);
+            String publishedPostId = message == null ? null : publishedByMessage.remove(message);
+            if (publishedPostId != null) {
+                found.put(facebookPost.getId(), publishedPostId);
+            }
+        }
+        return found;
+    }
 
+    // Photos endpoint returns id of photo and id of post containing it.
+    private static String getPostId(JSONObject result) {
+        return result.optString("post_id", result.optString("id", null));
+    }
+
+    // Message of published post.
+    private static String getMessage(FacebookPost facebookPost) {
         // TODO: Make a way to override post message.
-        String message = facebookPost.getMessage();
+        return facebookPost.getMessage();
+    }
+
+    private String publishUploaded(FacebookPost facebookPost, Path photo) throws FacebookException {
+        log.info("Uploading photo: {}", photo);
 
+        JSONObject result = api
+                .createPostRequest(pageAccessToken)
+                .url(targetPage.getId() + "/photos")
+                .file("source", photo, "image/jpeg")
+                .data("message", getMessage(facebookPost))
+                .send();
+        return getPostId(result);
+    }
+
+    private String publishLinked(FacebookPost facebookPost) throws FacebookException {
+        // Create status with photo.
+        String publicPhotoUrl = attachmentStore.getPublicUrl(facebookPost);
+
+        log.info("Public path to photo: {}", publicPhotoUrl);
+
+        // Request completes after Facebook downloads the photo, so this is whole round-trip.
+        long startTime = System.nanoTime();
         JSONObject result = api
                 .createPostRequest(pageAccessToken)
                 .url(targetPage.getId() + "/photos")
                 .data("url", publicPhotoUrl)
-                .data("message", message)
+                .data("message", getMessage(facebookPost))
                 .send();
+        log.info("Photo {} was published by URL in {} ms.", publicPhotoUrl,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+        return getPostId(result);
+    }
 
-        // Make something with result...
+    public enum PublishMode {
+        /**
+         * Photos are uploaded to Facebook. Photos which are not stored locally are linked.
+         */
+        UPLOAD,
+        /**
+         * Facebook downloads photos from public folder.
+         */
+        URL
     }
 }
@@ -0,0 +1,138 @@
+/**
+ * Facebook Re-post Bot - Bot that checks some pages and copies posts to other pages.
+ * Copyright (c) 2015, Matej Kormuth <http://www.github.com/dobrakmato>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.matejkormuth.fbrepostbot;
+
+import org.json.JSONObject;
+
+/**
+ * High-water mark of feed of source page. Stores creation time of newest post
+ * that was processed, so next check fetches only newer posts.
+ * <p>
+ * When burst of posts did not fit to one check, posts older than the fetched ones
+ * are left in gap, which is fetched by next checks from newest to oldest.
+ */
+public class FeedWatermark implements JsonSerializable {
+    // Creation time of newest processed post in seconds since epoch.
+    private long since;
+    private String lastPostId;
+    // Posts created after gapSince and before gapUntil were not fetched yet. Zero if there is no gap.
+    private long gapSince;
+    private long gapUntil;
+
+    public FeedWatermark() {
+    }
+
+    public boolean isEmpty() {
+        return since == 0;
+    }
+
+    public long getSince() {
+        return since;
+    }
+
+    public String getLastPostId() {
+        return lastPostId;
+    }
+
+    public void update(long since, String lastPostId) {
+        this.since = since;
+        this.lastPostId = lastPostId;
+    }
+
+    public boolean hasGap() {
+        return gapUntil != 0;
+    }
+
+    public long getGapSince() {
+        return gapSince;
+    }
+
+    public long getGapUntil() {
+        return gapUntil;
+    }
+
+    /**
+     * Adds range of posts that were not fetched. Range is merged with existing gap, posts
+     * between them are fetched again, but they are already cached.
+     *
+     * @param since time after which posts were not fetched
+     * @param until time before which posts were not fetched
+     */
+    public void addGap(long since, long until) {
+        if (hasGap()) {
+            this.gapSince = Math.min(this.gapSince, since);
+            this.gapUntil = Math.max(this.gapUntil, until);
+        } else {
+            this.gapSince = since;
+            this.gapUntil = until;
+        }
+    }
+
+    /**
+     * Marks posts of gap created after specified time as fetched. Gap is closed when no
+     * posts are left in it. Gap that was extended since it was fetched is kept.
+     *
+     * @param fetchedUntil end of gap when it was fetched
+     * @param until        time before which posts of gap were not fetched yet
+     */
+    public void narrowGap(long fetchedUntil, long until) {
+        if (gapUntil != fetchedUntil) {
+            return;
+        }
+
+        if (until <= gapSince) {
+            this.gapSince = 0;
+            this.gapUntil = 0;
+        } else {
+            this.gapUntil = Math.min(this.gapUntil, until);
+        }
+    }
+
+    @Override
+    public String serialize() {
+        JSONObject obj = new JSONObject();
+
+        obj.put("since", since);
+        obj.put("lastPostId", lastPostId);
+        if (hasGap()) {
+            obj.put("gapSince", gapSince);
+            obj.put("gapUntil", gapUntil);
+        }
+
+        return obj.toString(2);
+    }
+
+    @Override
+    public void deserialize(String contents) {
+        JSONObject obj = new JSONObject(contents);
+
+        this.since = obj.getLong("since");
+        this.lastPostId = obj.optString("lastPostId", null);
+        this.gapSince = obj.optLong("gapSince", 0);
+        this.gapUntil = obj.optLong("gapUntil", 0);
+    }
+}
@@ -0,0 +1,189 @@
+/**
+ * Facebook Re-post Bot - Bot that checks some pages and copies posts to other pages.
+ * Copyright (c) 2015, Matej Kormuth <http://www.github.com/dobrakmato>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.matejkormuth.fbrepostbot;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hashed timing wheel. Timeouts are hashed to buckets by their deadline and one ticker
+ * thread expires one bucket per tick, so scheduling and cancelling is O(1) regardless of
+ * number of scheduled timeouts. Expired tasks are run by specified executor, not by the
+ * ticker thread.
+ * <p>
+ * When ticker thread is late (for example because of GC pause), missed ticks are processed
+ * one after another and each expired timeout is run exactly once.
+ */
+class HashedTimingWheel {
+
+    private static final Logger log = LoggerFactory.getLogger(HashedTimingWheel.class);
+
+    private final long tickDuration;
+    private final List<Timeout>[] wheel;
+    private final int mask;
+    private final Executor executor;
+    // Timeouts added by other threads, moved to wheel by ticker thread.
+    private final Queue<Timeout> pendingTimeouts = new ConcurrentLinkedQueue<>();
+    private final Thread tickerThread;
+    private final long startTime;
+
+    private volatile boolean running = true;
+    private long tick = 0;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    HashedTimingWheel(Executor executor, long tickDuration, TimeUnit unit, int wheelSize) {
+        if (Integer.bitCount(wheelSize) != 1) {
+            throw new IllegalArgumentException("Wheel size must be power of two: " + wheelSize);
+        }
+
+        this.executor = executor;
+        this.tickDuration = unit.toNanos(tickDuration);
+        this.wheel = new List[wheelSize];
+        for (int i = 0; i < wheelSize; i++) {
+            this.wheel[i] = new ArrayList<>();
+        }
+        this.mask = wheelSize - 1;
+        this.startTime = System.nanoTime();
+
+        this.tickerThread = new Thread(this::run, "TimingWheel-Ticker");
+        this.tickerThread.setDaemon(false);
+        this.tickerThread.start();
+    }
+
+    Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        if (!running) {
+            throw new IllegalStateException("Timing wheel was stopped.");
+        }
+
+        long deadline = System.nanoTime() - startTime + unit.toNanos(Math.max(0, delay));
+        Timeout timeout = new Timeout(task, deadline);
+        pendingTimeouts.add(timeout);
+        return timeout;
+    }
+
+    void stop() {
+        running = false;
+        tickerThread.interrupt();
+    }
+
+    private void run() {
+        while (running) {
+            long now = waitForNextTick();
+            if (now < 0) {
+                continue;
+            }
+
+            transferPendingTimeouts();
+            expireTimeouts(wheel[(int) (tick & mask)], now);
+            tick++;
+        }
+    }
+
+    private long waitForNextTick() {
+        long deadline = tickDuration * (tick + 1);
+        while (true) {
+            long now = System.nanoTime() - startTime;
+            long sleepMillis = TimeUnit.NANOSECONDS.toMillis(deadline - now + 999999);
+            // Late ticks are processed immediately.
+            if (sleepMillis <= 0) {
+                return now;
+            }
+
+            try {
+                Thread.sleep(sleepMillis);
+            } catch (InterruptedException e) {
+                if (!running) {
+                    return -1;
+                }
+            }
+        }
+    }
+
+    private void transferPendingTimeouts() {
+        Timeout timeout;
+        while ((timeout = pendingTimeouts.poll()) != null) {
+            if (timeout.cancelled) {
+                continue;
+            }
+
+            long expiresAtTick = timeout.deadline / tickDuration;
+            timeout.remainingRounds = (expiresAtTick - tick) / wheel.length;
+            // Timeouts that should have already expired go to current bucket.
+            wheel[(int) (Math.max(expiresAtTick, tick) & mask)].add(timeout);
+        }
+    }
+
+    private void expireTimeouts(List<Timeout> bucket, long now) {
+        List<Timeout> remaining = new ArrayList<>(bucket.size());
+        for (Timeout timeout : bucket) {
+            if (timeout.cancelled) {
+                continue;
+            }
+
+            if (timeout.remainingRounds <= 0 && timeout.deadline <= now) {
+                try {
+                    executor.execute(timeout.task);
+                } catch (RejectedExecutionException e) {
+                    log.error("Executor rejected expired task.", e);
+                }
+            } else {
+                timeout.remainingRounds--;
+                remaining.add(timeout);
+            }
+        }
+        bucket.clear();
+        bucket.addAll(remaining);
+    }
+
+    static class Timeout {
+        private final Runnable task;
+        private final long deadline;
+        private long remainingRounds;
+        private volatile boolean cancelled = false;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        void cancel() {
+            this.cancelled = true;
+        }
+
+        boolean isCancelled() {
+            return cancelled;
+        }
+    }
+}
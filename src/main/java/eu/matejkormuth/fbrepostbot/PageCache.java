@@ -26,26 +26,36 @@
  */
 package eu.matejkormuth.fbrepostbot;
 
-import com.google.common.base.Charsets;
 import eu.matejkormuth.fbrepostbot.facebook.FacebookPage;
 import eu.matejkormuth.fbrepostbot.facebook.FacebookPost;
+import eu.matejkormuth.fbrepostbot.storage.PostStore;
+import eu.matejkormuth.fbrepostbot.storage.StorageEngine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.function.Function;
 
 public class PageCache {
 
+    private static final Logger log = LoggerFactory.getLogger(PageCache.class);
+
     private final FacebookPage page;
-    private final CachePathHelper pathHelper;
+    private final PostStore store;
     private final Function<FacebookPost, CachedPost> transformer =
             facebookPost -> new CachedPost(facebookPost, null, null, false);
+    private final SeenPostIndex index;
 
     public PageCache(FacebookPage page, PathHelper pathHelper) {
+        this(page, StorageEngine.JSON.open(pathHelper.getPageCachePath(page.getId())), SeenPostIndex.Mode.NONE);
+    }
+
+    public PageCache(FacebookPage page, PostStore store, SeenPostIndex.Mode indexMode) {
         this.page = page;
-        this.pathHelper = new CachePathHelper(pathHelper.getPageCachePath(page.getId()));
+        this.store = store;
+        this.index = new SeenPostIndex(indexMode, store::forEachId, this::isStored);
     }
 
     public boolean contains(FacebookPost post) {
@@ -53,7 +63,16 @@ public class PageCache {
     }
 
     public boolean contains(String postId) {
-        return Files.exists(pathHelper.getPostPath(postId));
+        return index.contains(postId);
+    }
+
+    private boolean isStored(String postId) {
+        try {
+            return store.contains(postId);
+        } catch (IOException e) {
+            log.error("Can't check presence of post " + postId + " in cache of page " + page.getId(), e);
+            return false;
+        }
     }
 
     // Called from SourcePage
@@ -64,47 +83,48 @@ public class PageCache {
         cachedPost.setSourcePage(sourcePage);
 
         // Save it to cache.
-        String json = cachedPost.serialize();
-        Files.createDirectories(pathHelper.getPostPath(post.getId()).getParent());
-        Files.write(pathHelper.getPostPath(post.getId()), json.getBytes(Charsets.UTF_8));
+        store.put(post.getId(), cachedPost.serialize());
+        index.add(post.getId());
 
         // Return CachedPost object.
         return cachedPost;
     }
 
-    // Called from TargetPage
-    public CachedPost add(FacebookPost post, TargetPage targetPage) throws IOException {
+    // Called from TargetPage when post was published
+    public CachedPost add(FacebookPost post, TargetPage targetPage, String publishedPostId) throws IOException {
         // Create cached post from facebook post.
         CachedPost cachedPost = transformer.apply(post);
-        // Set source page of this post.
+        // Set target page of this post.
         cachedPost.setTargetPage(targetPage);
+        cachedPost.setPublished(publishedPostId);
 
         // Save it to cache.
-        String json = cachedPost.serialize();
-        Files.createDirectories(pathHelper.getPostPath(post.getId()).getParent());
-        Files.write(pathHelper.getPostPath(post.getId()), json.getBytes(Charsets.UTF_8));
+        store.put(post.getId(), cachedPost.serialize());
+        index.add(post.getId());
 
         // Return CachedPost object.
         return cachedPost;
     }
 
-    public CachePathHelper getPathHelper() {
-        return pathHelper;
+    /**
+     * Reads all posts stored in this cache. Posts cached before creation time was stored
+     * get time they were stored at instead.
+     *
+     * @param consumer consumer of cached posts
+     * @throws IOException when cache can't be read
+     */
+    public void forEach(Consumer<CachedPost> consumer) throws IOException {
+        store.forEach((postId, contents, storedTime) -> {
+            CachedPost cachedPost = new CachedPost();
+            cachedPost.deserialize(contents);
+            if (cachedPost.getOriginalPost().getCreatedTime() == 0) {
+                cachedPost.getOriginalPost().setCreatedTime(TimeUnit.MILLISECONDS.toSeconds(storedTime));
+            }
+            consumer.accept(cachedPost);
+        });
     }
 
-    public static class CachePathHelper {
-        private final Path basePath;
-
-        public CachePathHelper(Path pageCachePath) {
-            this.basePath = pageCachePath;
-        }
-
-        public Path getPath(String first, String... more) {
-            return this.basePath.resolve(Paths.get(first, more));
-        }
-
-        public Path getPostPath(String postId) {
-            return getPath("posts", postId + ".json");
-        }
+    public PostStore getStore() {
+        return store;
     }
 }
@@ -0,0 +1,91 @@
+/**
+ * Facebook Re-post Bot - Bot that checks some pages and copies posts to other pages.
+ * Copyright (c) 2015, Matej Kormuth <http://www.github.com/dobrakmato>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.matejkormuth.fbrepostbot;
+
+import eu.matejkormuth.fbrepostbot.facebook.FacebookPost;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically checks source pages. Delay before each next check is decided
+ * by polling policy.
+ */
+public class PageChecker {
+
+    private static final Logger log = LoggerFactory.getLogger(PageChecker.class);
+
+    // Delay before first check of each page in seconds.
+    private static final long INITIAL_DELAY = 5;
+    // First checks of pages are spread over this many seconds, so they don't all run at once.
+    private static final long STARTUP_SPREAD = 60;
+
+    private final Scheduler scheduler;
+    private final PollingPolicy pollingPolicy;
+
+    public PageChecker(Scheduler scheduler, PollingPolicy pollingPolicy) {
+        this.scheduler = scheduler;
+        this.pollingPolicy = pollingPolicy;
+    }
+
+    public void start(SourcePage page) {
+        long delay = INITIAL_DELAY + ThreadLocalRandom.current().nextLong(STARTUP_SPREAD);
+        scheduler.delay(getTaskName(page), () -> {
+            // Learn on scheduler thread, reading caches of all pages would slow down boot.
+            try {
+                pollingPolicy.learn(page);
+            } catch (RuntimeException e) {
+                // Page is still checked, policy just starts without history.
+                log.error("Can't learn posting rate of page " + page.getUsername() + ".", e);
+            }
+            check(page);
+        }, delay, TimeUnit.SECONDS);
+    }
+
+    private String getTaskName(SourcePage page) {
+        return "Check-Page-" + page.getUsername();
+    }
+
+    // Exceptions are reported by scheduler's failure handler.
+    private void check(SourcePage page) {
+        try {
+            List<FacebookPost> newPosts = page.check();
+            pollingPolicy.onChecked(page, newPosts);
+        } finally {
+            long delay = pollingPolicy.nextCheckDelay(page);
+            // Give target pages time to publish queued posts.
+            if (page.takeBackpressure()) {
+                delay *= 2;
+            }
+            log.info("Next check of page {} in {} seconds.", page.getUsername(), delay);
+            scheduler.delay(getTaskName(page), () -> check(page), delay, TimeUnit.SECONDS);
+        }
+    }
+}
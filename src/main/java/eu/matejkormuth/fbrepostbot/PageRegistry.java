@@ -26,51 +26,101 @@
  */
 package eu.matejkormuth.fbrepostbot;
 
-import java.util.ArrayList;
+import eu.matejkormuth.fbrepostbot.util.LongObjectHashMap;
+
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 
+/**
+ * Registry of source and target pages with lookup by id and by username. Pages can be
+ * iterated while other threads add pages, iteration uses snapshot of pages which is
+ * replaced when pages are added.
+ */
 public class PageRegistry {
-    private List<SourcePage> sourcePageList;
-    private List<TargetPage> targetPageList;
+    private final LongObjectHashMap<SourcePage> sourcePages = new LongObjectHashMap<>();
+    private final LongObjectHashMap<TargetPage> targetPages = new LongObjectHashMap<>();
+    private final Map<String, SourcePage> sourcePagesByUsername = new HashMap<>();
+    private final Map<String, TargetPage> targetPagesByUsername = new HashMap<>();
+
+    // Snapshots are created lazily, so adding many pages at boot does not copy them each time.
+    private volatile Collection<SourcePage> sourcePageSnapshot;
+    private volatile Collection<TargetPage> targetPageSnapshot;
 
     public PageRegistry() {
-        sourcePageList = new ArrayList<>();
-        targetPageList = new ArrayList<>();
     }
 
-    public void add(SourcePage page) {
-        sourcePageList.add(page);
+    public synchronized void add(SourcePage page) {
+        sourcePages.put(page.getId(), page);
+        if (page.getUsername() != null) {
+            sourcePagesByUsername.put(page.getUsername().toLowerCase(Locale.ROOT), page);
+        }
+        sourcePageSnapshot = null;
     }
 
-    public void add(TargetPage page) {
-        targetPageList.add(page);
+    public synchronized void add(TargetPage page) {
+        targetPages.put(page.getId(), page);
+        if (page.getUsername() != null) {
+            targetPagesByUsername.put(page.getUsername().toLowerCase(Locale.ROOT), page);
+        }
+        targetPageSnapshot = null;
     }
 
     public Collection<SourcePage> getSourcePages() {
-        return Collections.unmodifiableCollection(sourcePageList);
+        Collection<SourcePage> snapshot = sourcePageSnapshot;
+        if (snapshot == null) {
+            synchronized (this) {
+                if (sourcePageSnapshot == null) {
+                    sourcePageSnapshot = snapshot(sourcePages);
+                }
+                snapshot = sourcePageSnapshot;
+            }
+        }
+        return snapshot;
     }
 
     public Collection<TargetPage> getTargetPages() {
-        return Collections.unmodifiableCollection(targetPageList);
-    }
-
-    public boolean containsSourcePage(long sourcePageId) {
-        for (SourcePage p : sourcePageList) {
-            if (p.getId() == sourcePageId) {
-                return true;
+        Collection<TargetPage> snapshot = targetPageSnapshot;
+        if (snapshot == null) {
+            synchronized (this) {
+                if (targetPageSnapshot == null) {
+                    targetPageSnapshot = snapshot(targetPages);
+                }
+                snapshot = targetPageSnapshot;
             }
         }
-        return false;
+        return snapshot;
     }
 
-    public boolean containsTargetPage(long targetPageId) {
-        for (TargetPage p : targetPageList) {
-            if (p.getId() == targetPageId) {
-                return true;
-            }
-        }
-        return false;
+    private static <T> Collection<T> snapshot(LongObjectHashMap<T> pages) {
+        List<T> list = pages.values();
+        return Collections.unmodifiableCollection(list);
+    }
+
+    public synchronized SourcePage getSourcePage(long sourcePageId) {
+        return sourcePages.get(sourcePageId);
+    }
+
+    public synchronized TargetPage getTargetPage(long targetPageId) {
+        return targetPages.get(targetPageId);
+    }
+
+    public synchronized SourcePage getSourcePage(String username) {
+        return sourcePagesByUsername.get(username.toLowerCase(Locale.ROOT));
+    }
+
+    public synchronized TargetPage getTargetPage(String username) {
+        return targetPagesByUsername.get(username.toLowerCase(Locale.ROOT));
+    }
+
+    public synchronized boolean containsSourcePage(long sourcePageId) {
+        return sourcePages.containsKey(sourcePageId);
+    }
+
+    public synchronized boolean containsTargetPage(long targetPageId) {
+        return targetPages.containsKey(targetPageId);
     }
 }
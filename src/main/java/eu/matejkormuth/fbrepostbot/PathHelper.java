@@ -90,6 +90,10 @@ public class PathHelper {
         return Paths.get(first, more);
     }
 
+    public Path getPublicPath() {
+        return publicPath;
+    }
+
     public Path getPublicPath(String first) {
         return publicPath.resolve(first);
     }
@@ -106,6 +110,18 @@ public class PathHelper {
         return getPath("pages", String.valueOf(targetPageId), "page.json");
     }
 
+    public Path getWatermarkJsonPath(long sourcePageId) {
+        return getPath("pages", String.valueOf(sourcePageId), "watermark.json");
+    }
+
+    public Path getOutboxPath(long targetPageId) {
+        return getPath("pages", String.valueOf(targetPageId), "outbox.log");
+    }
+
+    public Path getAttachmentMetaPath(String fileName) {
+        return getPath("attachments", fileName + ".properties");
+    }
+
     public static class NamingConventions {
         public static final String REPOST_CONF_FILENAME = "repost.conf";
         public static final String ACCESS_CONF_FILENAME = "access.conf";
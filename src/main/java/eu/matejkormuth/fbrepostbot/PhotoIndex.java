@@ -0,0 +1,198 @@
+/**
+ * Facebook Re-post Bot - Bot that checks some pages and copies posts to other pages.
+ * Copyright (c) 2015, Matej Kormuth <http://www.github.com/dobrakmato>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.matejkormuth.fbrepostbot;
+
+import eu.matejkormuth.fbrepostbot.facebook.FacebookPost;
+import eu.matejkormuth.fbrepostbot.util.BKTree;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Index of perceptual hashes of photos recently published to one target page, so the same
+ * photo uploaded by different source pages (under different object ids) is published only
+ * once. Hashes are kept in BK-tree and found by Hamming distance.
+ * <p>
+ * Index is loaded lazily from posts of target page cache on first lookup. Hashes older
+ * than the window are ignored and removed when the tree is rebuilt.
+ */
+public class PhotoIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(PhotoIndex.class);
+
+    // Tree is not rebuilt while it is smaller than this.
+    private static final int MIN_REBUILD_SIZE = 64;
+
+    private final Settings settings;
+    private final PostLoader loader;
+
+    private boolean loaded = false;
+    private BKTree<Entry> tree = new BKTree<>();
+    // Tree is rebuilt without expired hashes when it reaches this size.
+    private int rebuildSize = MIN_REBUILD_SIZE;
+
+    /**
+     * @param settings settings
+     * @param loader   loader of posts already published to target page
+     */
+    public PhotoIndex(Settings settings, PostLoader loader) {
+        this.settings = settings;
+        this.loader = loader;
+    }
+
+    /**
+     * Finds recently published post with photo similar to photo of specified post.
+     *
+     * @param post post to be published
+     * @return id of similar post, or null when there is none
+     */
+    public synchronized String findSimilar(FacebookPost post) {
+        if (!settings.isEnabled() || post.getPhotoHash() == null) {
+            return null;
+        }
+        ensureLoaded();
+
+        long minTime = minTime();
+        Entry entry = tree.find(post.getPhotoHash(), settings.getMaxDistance(), e -> e.time >= minTime);
+        return entry == null ? null : entry.postId;
+    }
+
+    /**
+     * Adds photo of published post to index.
+     *
+     * @param post published post
+     */
+    public synchronized void add(FacebookPost post) {
+        if (!settings.isEnabled() || post.getPhotoHash() == null) {
+            return;
+        }
+        ensureLoaded();
+
+        tree.put(post.getPhotoHash(), new Entry(post.getId(), System.currentTimeMillis()));
+        if (tree.size() >= rebuildSize) {
+            rebuild();
+        }
+    }
+
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+
+        // Loaded posts are dated by creation time of original post, publish time is not stored.
+        loaded = true;
+        try {
+            long minTime = minTime();
+            loader.forEachPost(cachedPost -> {
+                FacebookPost post = cachedPost.getOriginalPost();
+                long time = TimeUnit.SECONDS.toMillis(post.getCreatedTime());
+                if (post.getPhotoHash() != null && time >= minTime) {
+                    tree.put(post.getPhotoHash(), new Entry(post.getId(), time));
+                }
+            });
+            rebuild();
+            log.debug("Loaded {} photo hashes to index.", tree.size());
+        } catch (IOException e) {
+            log.error("Can't load photo hashes of published posts.", e);
+        }
+    }
+
+    private void rebuild() {
+        long minTime = minTime();
+        BKTree<Entry> rebuilt = new BKTree<>();
+        tree.forEach((hash, entry) -> {
+            if (entry.time >= minTime) {
+                rebuilt.put(hash, entry);
+            }
+        });
+        tree = rebuilt;
+        rebuildSize = Math.max(MIN_REBUILD_SIZE, tree.size() * 2);
+    }
+
+    private long minTime() {
+        return System.currentTimeMillis() - TimeUnit.HOURS.toMillis(settings.getWindow());
+    }
+
+    private static class Entry {
+        private final String postId;
+        private final long time;
+
+        private Entry(String postId, long time) {
+            this.postId = postId;
+            this.time = time;
+        }
+    }
+
+    /**
+     * Loads all posts published to target page.
+     */
+    @FunctionalInterface
+    public interface PostLoader {
+        void forEachPost(Consumer<CachedPost> consumer) throws IOException;
+    }
+
+    /**
+     * Settings of photo deduplication.
+     */
+    public static class Settings {
+        private boolean enabled = true;
+        // Maximum number of different bits of hashes of the same photo.
+        private int maxDistance = 6;
+        // How long are published photos remembered (in hours).
+        private long window = 72;
+
+        public Settings() {
+        }
+
+        public static Settings fromProperties(Properties properties) {
+            Settings settings = new Settings();
+            settings.enabled = Boolean.parseBoolean(properties.getProperty("photoDuplicates.enabled",
+                    String.valueOf(settings.enabled)));
+            settings.maxDistance = Integer.parseInt(properties.getProperty("photoDuplicates.maxDistance",
+                    String.valueOf(settings.maxDistance)));
+            settings.window = Long.parseLong(properties.getProperty("photoDuplicates.window",
+                    String.valueOf(settings.window)));
+            return settings;
+        }
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public int getMaxDistance() {
+            return maxDistance;
+        }
+
+        public long getWindow() {
+            return window;
+        }
+    }
+}
@@ -26,21 +26,35 @@
  */
 package eu.matejkormuth.fbrepostbot;
 
-import java.util.Collection;
+import eu.matejkormuth.fbrepostbot.filters.Filter;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Decides which posts of subscribed source pages are published to target page. Source
+ * pages are matched by {@link RoutingTable}, post is relevant when it is valid for all
+ * filters of target page.
+ */
 public class PostFilter {
 
-    private Collection<Long> sourcePageIdList;
+    private final List<Filter<CachedPost>> filters;
 
-    public PostFilter(Collection<Long> sourcePageIds) {
-        sourcePageIdList = sourcePageIds;
+    public PostFilter() {
+        this(Collections.emptyList());
     }
 
-    public boolean isRelevant(CachedPost incomingPost) {
-        return checkSources(incomingPost);
+    public PostFilter(List<Filter<CachedPost>> filters) {
+        this.filters = new ArrayList<>(filters);
     }
 
-    private boolean checkSources(CachedPost incomingPost) {
-        return sourcePageIdList.contains(incomingPost.getSourcePageId());
+    public boolean isRelevant(CachedPost incomingPost) {
+        for (Filter<CachedPost> filter : filters) {
+            if (!filter.isValid(incomingPost)) {
+                return false;
+            }
+        }
+        return true;
     }
 }
@@ -0,0 +1,284 @@
+/**
+ * Facebook Re-post Bot - Bot that checks some pages and copies posts to other pages.
+ * Copyright (c) 2015, Matej Kormuth <http://www.github.com/dobrakmato>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.matejkormuth.fbrepostbot;
+
+import com.google.common.base.Charsets;
+import eu.matejkormuth.fbrepostbot.storage.AppendOnlyFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead log of posts being published to one target page. Post is durably recorded
+ * as pending when it is queued for publishing and marked as done (with id of published
+ * post) or failed (skipped or dropped) afterwards, so posts interrupted by crash can be
+ * finished at boot. Source post id is the idempotency key of entry.
+ * <p>
+ * Record format: payload length (int), CRC32 of payload (int) and payload consisting of
+ * record type (byte), length of key (unsigned short), key and body (both UTF-8). Body of
+ * pending record is serialized post, body of done record is id of published post.
+ * Incomplete or corrupted record at end of file (after crash) is discarded.
+ * <p>
+ * File is truncated when nothing is pending and it grew over {@link #COMPACTION_SIZE}.
+ */
+public class PublishOutbox implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(PublishOutbox.class);
+
+    private static final int HEADER_SIZE = 8;
+    // Record type and length of key.
+    private static final int PAYLOAD_PREFIX_SIZE = 3;
+    private static final byte PENDING = 1;
+    private static final byte DONE = 2;
+    private static final byte FAILED = 3;
+    // Outbox without pending entries is truncated when it is larger than this.
+    static final long COMPACTION_SIZE = 64 * 1024;
+
+    private final AppendOnlyFile file;
+    // Entries found when outbox was opened, until outbox is truncated.
+    private final List<Entry> recovered = new ArrayList<>();
+    // Posts being published by key.
+    private final Map<String, CachedPost> pending = new LinkedHashMap<>();
+
+    public PublishOutbox(Path path) throws IOException {
+        Files.createDirectories(path.getParent());
+        this.file = new AppendOnlyFile(path);
+        load();
+    }
+
+    private void load() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) file.size());
+        file.read(buffer, 0);
+        buffer.flip();
+
+        Map<String, Entry> entries = new LinkedHashMap<>();
+        int position = 0;
+        while (position + HEADER_SIZE <= buffer.limit()) {
+            int length = buffer.getInt(position);
+            int checksum = buffer.getInt(position + 4);
+            if (length < PAYLOAD_PREFIX_SIZE || position + HEADER_SIZE + length > buffer.limit()) {
+                break;
+            }
+
+            CRC32 crc = new CRC32();
+            crc.update(buffer.array(), position + HEADER_SIZE, length);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+
+            readRecord(buffer, position + HEADER_SIZE, length, entries);
+            position += HEADER_SIZE + length;
+        }
+
+        if (position < buffer.limit()) {
+            log.warn("Discarding {} bytes of incomplete record at end of {}.", buffer.limit() - position,
+                    file.getPath());
+            file.truncate(position);
+        }
+
+        for (Entry entry : entries.values()) {
+            if (entry.state == State.PENDING) {
+                pending.put(entry.getKey(), entry.post);
+            }
+            if (entry.state != State.FAILED) {
+                recovered.add(entry);
+            }
+        }
+        if (!recovered.isEmpty()) {
+            log.info("Found {} unfinished posts in {}.", pending.size(), file.getPath());
+        }
+    }
+
+    private static void readRecord(ByteBuffer buffer, int offset, int length, Map<String, Entry> entries) {
+        byte type = buffer.get(offset);
+        int keyLength = buffer.getShort(offset + 1) & 0xFFFF;
+        String key = new String(buffer.array(), offset + PAYLOAD_PREFIX_SIZE, keyLength, Charsets.UTF_8);
+        int bodyOffset = offset + PAYLOAD_PREFIX_SIZE + keyLength;
+        String body = new String(buffer.array(), bodyOffset, offset + length - bodyOffset, Charsets.UTF_8);
+
+        if (type == PENDING) {
+            CachedPost post = new CachedPost();
+            post.deserialize(body);
+            entries.put(key, new Entry(post));
+            return;
+        }
+
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            entry.state = type == DONE ? State.DONE : State.FAILED;
+            entry.publishedPostId = body.isEmpty() ? null : body;
+        }
+    }
+
+    /**
+     * Returns entries that were pending or done (but possibly not cached) when outbox
+     * was opened. Failed entries are not returned.
+     *
+     * @return recovered entries
+     */
+    public synchronized List<Entry> getRecovered() {
+        return new ArrayList<>(recovered);
+    }
+
+    /**
+     * Durably records that post is going to be published. Post already pending is not
+     * recorded again.
+     *
+     * @param post post of source page
+     * @throws IOException when record can't be stored
+     */
+    public void begin(CachedPost post) throws IOException {
+        long end;
+        synchronized (this) {
+            String key = post.getOriginalPost().getId();
+            if (pending.containsKey(key)) {
+                return;
+            }
+
+            if (pending.isEmpty() && file.size() > COMPACTION_SIZE) {
+                // Nothing is pending, so no record is needed anymore.
+                file.truncate(0);
+                recovered.clear();
+            }
+
+            pending.put(key, post);
+            end = append(PENDING, key, post.serialize());
+        }
+        file.sync(end);
+    }
+
+    /**
+     * Durably records that post was published.
+     *
+     * @param key             source post id
+     * @param publishedPostId id of published post, may be null
+     * @throws IOException when record can't be stored
+     */
+    public void complete(String key, String publishedPostId) throws IOException {
+        finish(key, DONE, publishedPostId);
+    }
+
+    /**
+     * Durably records that pending post was not published and should not be retried.
+     *
+     * @param key source post id
+     * @throws IOException when record can't be stored
+     */
+    public void abort(String key) throws IOException {
+        finish(key, FAILED, null);
+    }
+
+    private void finish(String key, byte type, String body) throws IOException {
+        long end;
+        synchronized (this) {
+            if (pending.remove(key) == null) {
+                return;
+            }
+            end = append(type, key, body == null ? "" : body);
+        }
+        file.sync(end);
+    }
+
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    private long append(byte type, String key, String body) throws IOException {
+        byte[] keyBytes = key.getBytes(Charsets.UTF_8);
+        byte[] bodyBytes = body.getBytes(Charsets.UTF_8);
+        int length = PAYLOAD_PREFIX_SIZE + keyBytes.length + bodyBytes.length;
+
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + length);
+        buffer.putInt(length);
+        buffer.putInt(0);
+        buffer.put(type);
+        buffer.putShort((short) keyBytes.length);
+        buffer.put(keyBytes);
+        buffer.put(bodyBytes);
+
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), HEADER_SIZE, length);
+        buffer.putInt(4, (int) crc.getValue());
+        buffer.flip();
+        return file.append(buffer);
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    enum State {
+        PENDING,
+        DONE,
+        FAILED
+    }
+
+    /**
+     * Post recovered from outbox.
+     */
+    public static class Entry {
+        private final CachedPost post;
+        private State state = State.PENDING;
+        private String publishedPostId;
+
+        private Entry(CachedPost post) {
+            this.post = post;
+        }
+
+        public String getKey() {
+            return post.getOriginalPost().getId();
+        }
+
+        public CachedPost getPost() {
+            return post;
+        }
+
+        /**
+         * Returns whether post was published before crash. Such post may not be cached yet.
+         *
+         * @return true if post was published
+         */
+        public boolean isDone() {
+            return state == State.DONE;
+        }
+
+        public String getPublishedPostId() {
+            return publishedPostId;
+        }
+    }
+}
@@ -0,0 +1,195 @@
+/**
+ * Facebook Re-post Bot - Bot that checks some pages and copies posts to other pages.
+ * Copyright (c) 2015, Matej Kormuth <http://www.github.com/dobrakmato>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.matejkormuth.fbrepostbot;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Bounded queue of posts waiting to be published to one target page. Posts are published
+ * one after another by a worker running on shared executor, so each target page publishes
+ * independently of other target pages and of source pages.
+ */
+public class PublishQueue {
+
+    private static final Logger log = LoggerFactory.getLogger(PublishQueue.class);
+
+    private final String name;
+    private final BlockingQueue<CachedPost> queue;
+    private final Settings settings;
+    private final Executor executor;
+    private final Consumer<CachedPost> publisher;
+    private final Consumer<CachedPost> dropHandler;
+    // Whether worker is running or scheduled to run.
+    private final AtomicBoolean draining = new AtomicBoolean(false);
+
+    /**
+     * @param name        name of queue used in log
+     * @param settings    settings of queue
+     * @param executor    executor running workers of queue
+     * @param publisher   publishes posts taken from queue
+     * @param dropHandler called with posts dropped because queue was full
+     */
+    public PublishQueue(String name, Settings settings, Executor executor, Consumer<CachedPost> publisher,
+                        Consumer<CachedPost> dropHandler) {
+        this.name = name;
+        this.queue = new ArrayBlockingQueue<>(settings.getCapacity());
+        this.settings = settings;
+        this.executor = executor;
+        this.publisher = publisher;
+        this.dropHandler = dropHandler;
+    }
+
+    /**
+     * Adds post to queue. When queue is full, overflow policy decides what happens.
+     *
+     * @param post post to publish
+     * @return false if queue is full (post was dropped or had to wait), true otherwise
+     */
+    public boolean offer(CachedPost post) {
+        boolean accepted = queue.offer(post);
+        boolean saturated = !accepted;
+
+        if (!accepted) {
+            switch (settings.getOverflowPolicy()) {
+                case BLOCK:
+                    // Block caller (source page) until there is space in queue.
+                    try {
+                        accepted = queue.offer(post, settings.getBlockTimeout(), TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    break;
+                case DROP_OLDEST:
+                    CachedPost dropped = queue.poll();
+                    if (dropped != null) {
+                        log.warn("Publish queue of {} is full, dropping oldest post {}.", name,
+                                dropped.getOriginalPost().getId());
+                        dropHandler.accept(dropped);
+                    }
+                    accepted = queue.offer(post);
+                    break;
+                case DROP_NEWEST:
+                    break;
+            }
+
+            if (!accepted) {
+                log.warn("Publish queue of {} is full, dropping post {}.", name, post.getOriginalPost().getId());
+                dropHandler.accept(post);
+            }
+        }
+
+        scheduleDrain();
+        return !saturated;
+    }
+
+    public int size() {
+        return queue.size();
+    }
+
+    private void scheduleDrain() {
+        if (!queue.isEmpty() && draining.compareAndSet(false, true)) {
+            executor.execute(this::drain);
+        }
+    }
+
+    private void drain() {
+        try {
+            CachedPost post;
+            while ((post = queue.poll()) != null) {
+                try {
+                    publisher.accept(post);
+                } catch (RuntimeException e) {
+                    log.error("Exception while publishing post " + post.getOriginalPost().getId() + " to " + name, e);
+                }
+            }
+        } finally {
+            draining.set(false);
+            // Post could be added after the loop ended but before flag was cleared.
+            scheduleDrain();
+        }
+    }
+
+    public enum OverflowPolicy {
+        /**
+         * Source page waits until there is space in queue (at most block timeout).
+         */
+        BLOCK,
+        /**
+         * Incoming post is dropped.
+         */
+        DROP_NEWEST,
+        /**
+         * Oldest post in queue is dropped.
+         */
+        DROP_OLDEST
+    }
+
+    /**
+     * Settings of publish queues of target pages.
+     */
+    public static class Settings {
+        private int capacity = 100;
+        private OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+        // Maximum time source page waits for space in queue (in seconds).
+        private long blockTimeout = 30;
+
+        public Settings() {
+        }
+
+        public static Settings fromProperties(Properties properties) {
+            Settings settings = new Settings();
+            settings.capacity = Integer.parseInt(properties.getProperty("publishQueue.capacity",
+                    String.valueOf(settings.capacity)));
+            settings.overflowPolicy = OverflowPolicy.valueOf(properties.getProperty("publishQueue.overflowPolicy",
+                    settings.overflowPolicy.name()).toUpperCase());
+            settings.blockTimeout = Long.parseLong(properties.getProperty("publishQueue.blockTimeout",
+                    String.valueOf(settings.blockTimeout)));
+            return settings;
+        }
+
+        public int getCapacity() {
+            return capacity;
+        }
+
+        public OverflowPolicy getOverflowPolicy() {
+            return overflowPolicy;
+        }
+
+        public long getBlockTimeout() {
+            return blockTimeout;
+        }
+    }
+}
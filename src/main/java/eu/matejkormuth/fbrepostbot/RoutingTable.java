@@ -0,0 +1,78 @@
+/**
+ * Facebook Re-post Bot - Bot that checks some pages and copies posts to other pages.
+ * Copyright (c) 2015, Matej Kormuth <http://www.github.com/dobrakmato>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.matejkormuth.fbrepostbot;
+
+import eu.matejkormuth.fbrepostbot.util.LongObjectHashMap;
+
+import java.util.Arrays;
+
+/**
+ * Maps source pages to target pages subscribed to them, so new post of source page is
+ * delivered only to its target pages instead of being broadcast to all of them.
+ * <p>
+ * Table is filled during boot, before pages are checked, and only read afterwards.
+ */
+public class RoutingTable {
+
+    private static final TargetPage[] NO_TARGETS = new TargetPage[0];
+
+    private final LongObjectHashMap<TargetPage[]> routes = new LongObjectHashMap<>();
+
+    /**
+     * Subscribes target page to posts of source page.
+     *
+     * @param sourcePageId id of source page
+     * @param target       target page
+     */
+    public void add(long sourcePageId, TargetPage target) {
+        TargetPage[] targets = routes.get(sourcePageId);
+        if (targets == null) {
+            routes.put(sourcePageId, new TargetPage[]{target});
+            return;
+        }
+
+        for (TargetPage existing : targets) {
+            if (existing == target) {
+                return;
+            }
+        }
+        targets = Arrays.copyOf(targets, targets.length + 1);
+        targets[targets.length - 1] = target;
+        routes.put(sourcePageId, targets);
+    }
+
+    /**
+     * Returns target pages subscribed to source page. Returned array must not be modified.
+     *
+     * @param sourcePageId id of source page
+     * @return target pages, empty array if there are none
+     */
+    public TargetPage[] getTargets(long sourcePageId) {
+        TargetPage[] targets = routes.get(sourcePageId);
+        return targets != null ? targets : NO_TARGETS;
+    }
+}
@@ -29,33 +29,196 @@ package eu.matejkormuth.fbrepostbot;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 
+/**
+ * Schedules tasks on hashed timing wheel and runs them on pool of worker threads. Delays
+ * are randomized by jitter, so tasks scheduled with the same delay do not all run at once.
+ * Periodic tasks are scheduled with fixed delay after previous run finished, so a pause of
+ * the application never causes burst of repeated runs.
+ */
 public class Scheduler {
 
     private static final Logger log = LoggerFactory.getLogger(Scheduler.class);
 
-    private ScheduledExecutorService executorService;
+    // Resolution of the timing wheel.
+    private static final long TICK_DURATION_MILLIS = 100;
+    private static final int WHEEL_SIZE = 1024;
+    // Default maximum relative deviation of delays.
+    public static final double DEFAULT_JITTER = 0.1;
+
+    private final ExecutorService executorService;
+    private final HashedTimingWheel timingWheel;
+    private final double jitter;
+    private volatile FailureHandler failureHandler = (name, cause) ->
+            log.error("Exception in scheduled task " + name + ": ", cause);
 
     public Scheduler() {
-        int availableProcessors = Runtime.getRuntime().availableProcessors();
-        log.info("Creating scheduler with {} threads.", availableProcessors);
-        this.executorService = Executors.newScheduledThreadPool(availableProcessors);
+        this(ExecutionMode.PLATFORM, Runtime.getRuntime().availableProcessors(), DEFAULT_JITTER);
+    }
+
+    public Scheduler(ExecutionMode executionMode, int maxConcurrency, double jitter) {
+        this.executorService = createExecutorService(executionMode, maxConcurrency);
+        this.timingWheel = new HashedTimingWheel(executorService, TICK_DURATION_MILLIS, TimeUnit.MILLISECONDS,
+                WHEEL_SIZE);
+        this.jitter = jitter;
+    }
+
+    /**
+     * Creates executor running tasks on platform or virtual threads.
+     *
+     * @param executionMode  type of threads
+     * @param maxConcurrency maximum number of tasks running at once
+     * @return new executor
+     */
+    public static ExecutorService createExecutorService(ExecutionMode executionMode, int maxConcurrency) {
+        if (executionMode == ExecutionMode.VIRTUAL) {
+            if (VirtualThreadExecutor.isSupported()) {
+                log.info("Creating executor with virtual threads, at most {} tasks at once.", maxConcurrency);
+                return new VirtualThreadExecutor(maxConcurrency);
+            }
+            log.warn("Virtual threads are not supported by this JVM, using platform threads.");
+        }
+
+        log.info("Creating executor with {} threads.", maxConcurrency);
+        return Executors.newFixedThreadPool(maxConcurrency);
     }
 
     public void shutdown() {
         log.info("Shutting down scheduler...");
+        this.timingWheel.stop();
         this.executorService.shutdown();
     }
 
-    public ScheduledFuture<?> periodic(Runnable command, long period, TimeUnit timeUnit) {
-        return this.executorService.scheduleAtFixedRate(command, TimeUnit.SECONDS.convert(5, timeUnit), period, timeUnit);
+    /**
+     * Sets callback invoked when scheduled task throws an exception.
+     *
+     * @param failureHandler failure handler
+     */
+    public void setFailureHandler(FailureHandler failureHandler) {
+        this.failureHandler = failureHandler;
+    }
+
+    public Task periodic(Runnable command, long period, TimeUnit timeUnit) {
+        return periodic("periodic", command, period, timeUnit);
+    }
+
+    public Task periodic(String name, Runnable command, long period, TimeUnit timeUnit) {
+        PeriodicTask task = new PeriodicTask(name, command, period, timeUnit);
+        // First run is spread over whole period.
+        task.schedule(ThreadLocalRandom.current().nextLong(timeUnit.toMillis(period) + 1), TimeUnit.MILLISECONDS);
+        return task;
+    }
+
+    public Task delay(Runnable command, long delay, TimeUnit timeUnit) {
+        return delay("delayed", command, delay, timeUnit);
+    }
+
+    public Task delay(String name, Runnable command, long delay, TimeUnit timeUnit) {
+        HashedTimingWheel.Timeout timeout = timingWheel.schedule(() -> run(name, command),
+                jittered(timeUnit.toMillis(delay)), TimeUnit.MILLISECONDS);
+        return new Task() {
+            @Override
+            public void cancel() {
+                timeout.cancel();
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return timeout.isCancelled();
+            }
+        };
+    }
+
+    private long jittered(long delayMillis) {
+        if (jitter <= 0 || delayMillis <= 0) {
+            return delayMillis;
+        }
+
+        double deviation = (ThreadLocalRandom.current().nextDouble() * 2 - 1) * jitter;
+        return Math.round(delayMillis * (1 + deviation));
+    }
+
+    private void run(String name, Runnable command) {
+        try {
+            command.run();
+        } catch (Throwable t) {
+            failureHandler.onFailure(name, t);
+        }
     }
 
-    public ScheduledFuture<?> delay(Runnable command, long delay, TimeUnit timeUnit) {
-        return this.executorService.schedule(command, delay, timeUnit);
+    public enum ExecutionMode {
+        /**
+         * Tasks run on fixed pool of platform threads.
+         */
+        PLATFORM,
+        /**
+         * Each task runs on its own virtual thread (requires Java 21).
+         */
+        VIRTUAL
+    }
+
+    /**
+     * Handle of scheduled task.
+     */
+    public interface Task {
+        void cancel();
+
+        boolean isCancelled();
+    }
+
+    /**
+     * Callback invoked when scheduled task fails.
+     */
+    @FunctionalInterface
+    public interface FailureHandler {
+        void onFailure(String taskName, Throwable cause);
+    }
+
+    private class PeriodicTask implements Task {
+        private final String name;
+        private final Runnable command;
+        private final long period;
+        private final TimeUnit timeUnit;
+        private volatile HashedTimingWheel.Timeout timeout;
+        private volatile boolean cancelled = false;
+
+        private PeriodicTask(String name, Runnable command, long period, TimeUnit timeUnit) {
+            this.name = name;
+            this.command = command;
+            this.period = period;
+            this.timeUnit = timeUnit;
+        }
+
+        private void schedule(long delay, TimeUnit unit) {
+            timeout = timingWheel.schedule(this::runAndReschedule, delay, unit);
+        }
+
+        private void runAndReschedule() {
+            try {
+                run(name, command);
+            } finally {
+                if (!cancelled) {
+                    schedule(jittered(timeUnit.toMillis(period)), TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            HashedTimingWheel.Timeout current = timeout;
+            if (current != null) {
+                current.cancel();
+            }
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
     }
 }
@@ -0,0 +1,200 @@
+/**
+ * Facebook Re-post Bot - Bot that checks some pages and copies posts to other pages.
+ * Copyright (c) 2015, Matej Kormuth <http://www.github.com/dobrakmato>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.matejkormuth.fbrepostbot;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import eu.matejkormuth.fbrepostbot.util.LongPairHashSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * In-memory index of ids of posts stored in page cache, so checking whether post is
+ * cached does not touch the storage. Index is loaded lazily on first lookup and kept in
+ * sync by page cache.
+ * <p>
+ * Post ids in format {@code pageid_postid} are stored as pair of primitive longs, other
+ * ids are stored as strings. In bloom mode only Bloom filter is kept in memory and
+ * positive answers are confirmed by the storage.
+ */
+public class SeenPostIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(SeenPostIndex.class);
+
+    // Minimal number of ids Bloom filter is created for.
+    private static final int MIN_BLOOM_CAPACITY = 10000;
+    private static final double BLOOM_FALSE_POSITIVE_PROBABILITY = 0.01;
+
+    private final Mode mode;
+    private final IdLoader loader;
+    private final Predicate<String> storageCheck;
+
+    private boolean loaded = false;
+    // Exact mode.
+    private LongPairHashSet numericIds;
+    private Set<String> otherIds;
+    // Bloom mode.
+    private BloomFilter<CharSequence> bloomFilter;
+    private int bloomCapacity;
+    private int bloomSize;
+
+    /**
+     * @param mode         mode of index
+     * @param loader       loader of all ids present in storage
+     * @param storageCheck checks presence of id in storage
+     */
+    public SeenPostIndex(Mode mode, IdLoader loader, Predicate<String> storageCheck) {
+        this.mode = mode;
+        this.loader = loader;
+        this.storageCheck = storageCheck;
+    }
+
+    public synchronized boolean contains(String postId) {
+        if (mode == Mode.NONE || !ensureLoaded()) {
+            return storageCheck.test(postId);
+        }
+
+        if (mode == Mode.BLOOM) {
+            // Bloom filter has no false negatives, only positives must be confirmed.
+            return bloomFilter.mightContain(postId) && storageCheck.test(postId);
+        }
+
+        long[] pair = parse(postId);
+        if (pair != null) {
+            return numericIds.contains(pair[0], pair[1]);
+        }
+        return otherIds.contains(postId);
+    }
+
+    public synchronized void add(String postId) {
+        if (mode == Mode.NONE || !loaded) {
+            // Id will be read from storage when index is loaded.
+            return;
+        }
+
+        if (mode == Mode.BLOOM) {
+            bloomFilter.put(postId);
+            // Rebuild bloom filter when it is too full to keep its false positive probability.
+            if (++bloomSize > bloomCapacity) {
+                loaded = false;
+            }
+            return;
+        }
+
+        addExact(postId);
+    }
+
+    private void addExact(String postId) {
+        long[] pair = parse(postId);
+        if (pair != null) {
+            numericIds.add(pair[0], pair[1]);
+        } else {
+            otherIds.add(postId);
+        }
+    }
+
+    private boolean ensureLoaded() {
+        if (loaded) {
+            return true;
+        }
+
+        try {
+            List<String> ids = new ArrayList<>();
+            loader.forEachId(ids::add);
+
+            if (mode == Mode.BLOOM) {
+                bloomCapacity = Math.max(MIN_BLOOM_CAPACITY, ids.size() * 2);
+                bloomFilter = BloomFilter.create(Funnels.stringFunnel(Charsets.UTF_8), bloomCapacity,
+                        BLOOM_FALSE_POSITIVE_PROBABILITY);
+                ids.forEach(bloomFilter::put);
+                bloomSize = ids.size();
+            } else {
+                numericIds = new LongPairHashSet(ids.size());
+                otherIds = new HashSet<>();
+                ids.forEach(this::addExact);
+            }
+
+            loaded = true;
+            log.debug("Loaded {} post ids to index.", ids.size());
+            return true;
+        } catch (IOException e) {
+            log.error("Can't load post index, checking storage instead.", e);
+            return false;
+        }
+    }
+
+    // Parses pageid_postid to pair of longs, returns null for other formats.
+    private static long[] parse(String postId) {
+        int separator = postId.indexOf('_');
+        if (separator <= 0 || separator == postId.length() - 1) {
+            return null;
+        }
+
+        try {
+            long pageId = Long.parseLong(postId.substring(0, separator));
+            long id = Long.parseLong(postId.substring(separator + 1));
+            if (pageId == 0 && id == 0) {
+                return null;
+            }
+            return new long[]{pageId, id};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    public enum Mode {
+        /**
+         * Every lookup checks the storage.
+         */
+        NONE,
+        /**
+         * All ids are kept in memory.
+         */
+        EXACT,
+        /**
+         * Only Bloom filter is kept in memory, positive lookups are confirmed by the storage.
+         */
+        BLOOM
+    }
+
+    /**
+     * Loads all post ids present in storage.
+     */
+    @FunctionalInterface
+    public interface IdLoader {
+        void forEachId(Consumer<String> consumer) throws IOException;
+    }
+}
@@ -26,6 +26,7 @@
  */
 package eu.matejkormuth.fbrepostbot;
 
+import com.google.common.base.Charsets;
 import com.google.common.eventbus.EventBus;
 import eu.matejkormuth.fbrepostbot.events.IncomingPostEvent;
 import eu.matejkormuth.fbrepostbot.facebook.*;
@@ -33,7 +34,18 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
 public class SourcePage {
 
@@ -41,75 +53,289 @@ public class SourcePage {
 
     private final FacebookAPI api;
     private final EventBus eventBus;
+    private final RoutingTable routingTable;
     private final FacebookPage page;
     private final FeedFetcher feedFetcher;
     private final PageCache cache;
     private final PathHelper pathHelper;
+    private final DownloadStage downloadStage;
     private final AccessToken pageAccessToken;
+    private final FeedWatermark watermark;
+    // Whether some target page could not keep up with posts since last check.
+    private final AtomicBoolean backpressure = new AtomicBoolean(false);
+    // Posts which are being downloaded, so next check does not download them again.
+    private final Set<String> pendingPosts = ConcurrentHashMap.newKeySet();
 
-    public SourcePage(FacebookAPI api, EventBus eventBus, FacebookPage page, PageCache pageCache, PathHelper pathHelper, AccessToken pageAccessToken) {
+    // Number of posts fetched when page has no watermark yet.
+    private static final int INITIAL_LIMIT = 4;
+    // Maximum number of feed pages fetched during one check.
+    private static final int MAX_FEED_PAGES = 10;
+
+    public SourcePage(FacebookAPI api, EventBus eventBus, RoutingTable routingTable, FacebookPage page,
+                      PageCache pageCache, PathHelper pathHelper, DownloadStage downloadStage,
+                      AccessToken pageAccessToken, FeedFetcher.FetchMode fetchMode) {
         this.eventBus = eventBus;
+        this.routingTable = routingTable;
         this.api = api;
         this.page = page;
         this.cache = pageCache;
         this.pathHelper = pathHelper;
-        this.feedFetcher = new FeedFetcher(api, page, pageAccessToken);
+        this.downloadStage = downloadStage;
+        this.feedFetcher = new FeedFetcher(api, page, pageAccessToken, fetchMode);
         this.pageAccessToken = pageAccessToken;
+        this.watermark = loadWatermark();
     }
 
-    public void check() {
-        int limit = 4;
+    private FeedWatermark loadWatermark() {
+        FeedWatermark feedWatermark = new FeedWatermark();
+        Path path = pathHelper.getWatermarkJsonPath(getId());
+        if (Files.exists(path)) {
+            try {
+                feedWatermark.deserialize(new String(Files.readAllBytes(path), Charsets.UTF_8));
+                log.info("Page {} will be checked for posts since {}.", getId(), feedWatermark.getSince());
+            } catch (IOException e) {
+                log.error("Can't load watermark of page " + getId() + ", fetching last posts instead.", e);
+            }
+        }
+        return feedWatermark;
+    }
 
-        log.info("Fetching last {} posts from page {}.", limit, page.getUsername());
+    private void saveWatermark() {
+        try {
+            Path path = pathHelper.getWatermarkJsonPath(getId());
+            Files.createDirectories(path.getParent());
+            Files.write(path, watermark.serialize().getBytes(Charsets.UTF_8));
+        } catch (IOException e) {
+            log.error("Can't save watermark of page " + page.getUsername(), e);
+        }
+    }
+
+    /**
+     * Checks feed of this page and enqueues download of new posts. Posts are cached and
+     * dispatched when their attachments are downloaded.
+     *
+     * @return list of new posts found during this check
+     */
+    public List<FacebookPost> check() {
         // Fetch all posts and offer them to cache.
         try {
-            List<FacebookPost> postList = this.feedFetcher.fetch(limit);
+            if (watermark.isEmpty()) {
+                log.info("Fetching last {} posts from page {}.", INITIAL_LIMIT, page.getUsername());
+                List<FacebookPost> postList = this.feedFetcher.fetch(INITIAL_LIMIT);
+
+                log.info("Caching downloaded posts...");
+                return offerToCache(postList, failedPosts -> updateWatermark(0, postList, true, failedPosts));
+            }
+
+            long since = watermark.getSince();
+            log.info("Fetching posts since {} from page {}.", since, page.getUsername());
+            FeedFetcher.FetchResult result = this.feedFetcher.fetchSince(since, 0, MAX_FEED_PAGES);
+
             log.info("Caching downloaded posts...");
-            postList.forEach(this::offerToCache);
+            List<FacebookPost> newPosts = new ArrayList<>(offerToCache(result.getPosts(), failedPosts ->
+                    updateWatermark(since, result.getPosts(), result.isComplete(), failedPosts)));
+
+            if (watermark.hasGap()) {
+                newPosts.addAll(checkGap());
+            }
+            return newPosts;
         } catch (FacebookException e) {
-            log.error("Can't fetch last " + limit + " posts from page " + page.getUsername(), e);
+            log.error("Can't fetch posts from page " + page.getUsername(), e);
+            return Collections.emptyList();
         }
     }
 
-    private void offerToCache(FacebookPost post) {
-        if (!this.cache.contains(post)) {
-            log.info("Post {} does not exists in cache, downloading...", post.getId());
-            // Request additional details about post if it's new.
-            if (!post.hasDetails()) {
-                try {
-                    log.info("Fetching details about post {}...", post.getId());
-                    post.fetchDetails(api, pageAccessToken);
-                } catch (FacebookException e) {
-                    log.error("Can't fetch details about post " + post.getId() + " of page " + page.getUsername() + "!", e);
-                    return;
-                }
+    // Fetches posts left from burst that did not fit to earlier check.
+    private List<FacebookPost> checkGap() throws FacebookException {
+        long gapSince = watermark.getGapSince();
+        long gapUntil = watermark.getGapUntil();
+        log.info("Fetching posts between {} and {} from page {}.", gapSince, gapUntil, page.getUsername());
+        FeedFetcher.FetchResult result = this.feedFetcher.fetchSince(gapSince, gapUntil, MAX_FEED_PAGES);
 
+        return offerToCache(result.getPosts(), failedPosts -> {
+            // Posts older than the fetched ones and failed posts are fetched by next check.
+            long until = result.isComplete() ? gapSince : getOldestTime(result.getPosts()) + 1;
+            for (FacebookPost post : failedPosts) {
+                until = Math.max(until, post.getCreatedTime() + 1);
+            }
+            synchronized (this) {
+                watermark.narrowGap(gapUntil, until);
+                saveWatermark();
+            }
+        });
+    }
 
-                // Also fetch attachment, if post has one.
-                if (post.hasAttachment()) {
-                    try {
-                        // Fetch and save (cache) attachment.
-                        log.info("Fetching attachment of post {}...", post.getId());
-                        post.fetchAttachment(pathHelper, api, pageAccessToken);
-                    } catch (FacebookException e) {
-                        log.error("Can't fetch attachment of post " + post.getId() + " of page " + page.getUsername() + "!", e);
-                        return;
-                    }
+    private static long getOldestTime(List<FacebookPost> postList) {
+        long oldest = Long.MAX_VALUE;
+        for (FacebookPost post : postList) {
+            oldest = Math.min(oldest, post.getCreatedTime());
+        }
+        return oldest;
+    }
+
+    private synchronized void updateWatermark(long fetchedSince, List<FacebookPost> postList, boolean complete,
+                                              List<FacebookPost> failedPosts) {
+        FacebookPost newest = null;
+        for (FacebookPost post : postList) {
+            if (newest == null || post.getCreatedTime() > newest.getCreatedTime()) {
+                newest = post;
+            }
+        }
+
+        if (newest == null) {
+            return;
+        }
+
+        if (!complete) {
+            // Older posts of burst were not fetched, they are fetched from gap by next checks.
+            // Posts created in the same second as oldest fetched post may be missing too.
+            watermark.addGap(fetchedSince, getOldestTime(postList) + 1);
+        }
+
+        // Do not move watermark past posts that failed, so they are retried next check.
+        long since = newest.getCreatedTime();
+        for (FacebookPost post : failedPosts) {
+            since = Math.min(since, post.getCreatedTime() - 1);
+        }
+
+        if (since > watermark.getSince()) {
+            watermark.update(since, newest.getId());
+            saveWatermark();
+        } else if (!complete) {
+            saveWatermark();
+        }
+    }
+
+    // Returns list of new posts. Watermark is updated when all of them are cached.
+    private List<FacebookPost> offerToCache(List<FacebookPost> postList,
+                                            Consumer<List<FacebookPost>> updateWatermark) {
+        List<FacebookPost> newPosts = new ArrayList<>();
+        // Posts that are not cached yet, watermark must not move past them.
+        List<FacebookPost> unfinishedPosts = new ArrayList<>();
+        for (FacebookPost post : postList) {
+            if (this.cache.contains(post)) {
+                log.info("Post {} is already cached.", post.getId());
+            } else if (!pendingPosts.add(post.getId())) {
+                log.info("Post {} is still being downloaded.", post.getId());
+                unfinishedPosts.add(post);
+            } else {
+                log.info("Post {} does not exists in cache, downloading...", post.getId());
+                newPosts.add(post);
+            }
+        }
+
+        // Request additional details about new posts in one batch, then
+        // request attachment sources of posts that have one in another batch.
+        List<FacebookPost> detailedPosts = fetchDetails(newPosts);
+        Map<FacebookPost, CompletableFuture<Boolean>> jobs = enqueueDownloads(detailedPosts);
+
+        for (FacebookPost post : newPosts) {
+            if (!jobs.containsKey(post)) {
+                pendingPosts.remove(post.getId());
+                unfinishedPosts.add(post);
+            }
+        }
+
+        // Watermark is updated even when some job failed with exception, its post counts as failed.
+        CompletableFuture.allOf(jobs.values().toArray(new CompletableFuture<?>[0])).whenComplete((ignored, e) -> {
+            List<FacebookPost> failedPosts = new ArrayList<>(unfinishedPosts);
+            jobs.forEach((post, job) -> {
+                if (job.isCompletedExceptionally() || !job.join()) {
+                    failedPosts.add(post);
                 }
+            });
+            updateWatermark.accept(failedPosts);
+        });
+        return newPosts;
+    }
+
+    private List<FacebookPost> fetchDetails(List<FacebookPost> posts) {
+        BatchRequest batch = api.createBatchRequest(pageAccessToken);
+        Map<FacebookPost, CompletableFuture<Void>> details = new LinkedHashMap<>();
+        for (FacebookPost post : posts) {
+            if (!post.hasDetails()) {
+                log.info("Fetching details about post {}...", post.getId());
+                details.put(post, post.requestDetails(batch));
             }
+        }
+        batch.execute();
 
-            // Add FacebookPost to cache.
+        List<FacebookPost> detailedPosts = new ArrayList<>();
+        for (FacebookPost post : posts) {
             try {
-                CachedPost cachedPost = this.cache.add(post, this);
-                log.info("Post {} from page {} cached successfully!", post.getId(), page.getUsername());
+                if (details.containsKey(post)) {
+                    BatchRequest.await(details.get(post));
+                }
+                detailedPosts.add(post);
+            } catch (FacebookException e) {
+                log.error("Can't fetch details about post " + post.getId() + " of page " + page.getUsername() + "!", e);
+            }
+        }
+        return detailedPosts;
+    }
 
-                // Dispatch event about this post.
-                eventBus.post(new IncomingPostEvent(cachedPost));
-            } catch (IOException e) {
-                log.error("Can't save (cache) post " + post.getId() + " from page " + page.getUsername(), e);
+    // Returns futures completed with whether post was cached.
+    private Map<FacebookPost, CompletableFuture<Boolean>> enqueueDownloads(List<FacebookPost> posts) {
+        BatchRequest batch = api.createBatchRequest(pageAccessToken);
+        Map<FacebookPost, CompletableFuture<String>> attachments = new LinkedHashMap<>();
+        for (FacebookPost post : posts) {
+            if (post.hasAttachment()) {
+                log.info("Fetching attachment of post {}...", post.getId());
+                // Posts fetched with expanded fields already know their attachment source.
+                attachments.put(post, post.requestAttachment(batch));
+            }
+        }
+        batch.execute();
+
+        Map<FacebookPost, CompletableFuture<Boolean>> jobs = new LinkedHashMap<>();
+        for (FacebookPost post : posts) {
+            CompletableFuture<Boolean> job;
+            if (attachments.containsKey(post)) {
+                // Post is cached by download worker when its attachment is stored.
+                job = attachments.get(post)
+                        .thenCompose(attachmentUrl -> downloadStage.submit(post, attachmentUrl))
+                        .handle((downloadedPost, e) -> {
+                            if (e != null) {
+                                log.error("Can't fetch attachment of post " + post.getId() + " of page "
+                                        + page.getUsername() + "!", e.getCause() != null ? e.getCause() : e);
+                                return false;
+                            }
+                            return addToCache(post);
+                        });
+            } else {
+                job = CompletableFuture.completedFuture(addToCache(post));
+            }
+            jobs.put(post, job.whenComplete((cached, e) -> pendingPosts.remove(post.getId())));
+        }
+        return jobs;
+    }
+
+    private boolean addToCache(FacebookPost post) {
+        // Add FacebookPost to cache.
+        try {
+            CachedPost cachedPost = this.cache.add(post, this);
+            log.info("Post {} from page {} cached successfully!", post.getId(), page.getUsername());
+
+            // Deliver post only to target pages subscribed to this page.
+            boolean saturated = false;
+            for (TargetPage target : routingTable.getTargets(getId())) {
+                saturated |= !target.offer(cachedPost);
+            }
+
+            // Dispatch event about this post.
+            IncomingPostEvent event = new IncomingPostEvent(cachedPost);
+            eventBus.post(event);
+            if (saturated || event.isBackpressure()) {
+                log.warn("Target pages of page {} can't keep up with new posts.", page.getUsername());
+                backpressure.set(true);
             }
-        } else {
-            log.info("Post {} is already cached.", post.getId());
+            return true;
+        } catch (IOException e) {
+            log.error("Can't save (cache) post " + post.getId() + " from page " + page.getUsername(), e);
+            return false;
+        } catch (RuntimeException e) {
+            log.error("Can't deliver post " + post.getId() + " from page " + page.getUsername(), e);
+            return false;
         }
     }
 
@@ -121,6 +347,20 @@ public class SourcePage {
         return this.page.getId();
     }
 
+    /**
+     * Returns whether some target page could not keep up with posts of this page since
+     * last call of this method.
+     *
+     * @return true if there was backpressure
+     */
+    public boolean takeBackpressure() {
+        return backpressure.getAndSet(false);
+    }
+
+    public PageCache getCache() {
+        return cache;
+    }
+
     public long getCheckInterval() {
         return page.getCheckInterval();
     }
@@ -0,0 +1,723 @@
+/**
+ * Facebook Re-post Bot - Bot that checks some pages and copies posts to other pages.
+ * Copyright (c) 2015, Matej Kormuth <http://www.github.com/dobrakmato>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.matejkormuth.fbrepostbot;
+
+import com.google.common.base.Charsets;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Small HTTP server serving files from public folder, so Facebook can download photos
+ * published by URL without separate web server. All connections are handled by one
+ * thread using non-blocking channels. Files are sent with {@link FileChannel#transferTo},
+ * so their contents are not copied to memory, except small hot files which are kept in
+ * LRU cache.
+ * <p>
+ * Only GET and HEAD requests are supported, with single byte ranges and conditional
+ * requests (ETag and Last-Modified).
+ */
+public class StaticFileServer {
+
+    private static final Logger log = LoggerFactory.getLogger(StaticFileServer.class);
+
+    private static final int MAX_HEADER_SIZE = 8192;
+    private static final long IDLE_TIMEOUT = TimeUnit.SECONDS.toNanos(30);
+    private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter
+            .ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US)
+            .withZone(ZoneOffset.UTC);
+    private static final Map<String, String> CONTENT_TYPES = new HashMap<>();
+
+    static {
+        CONTENT_TYPES.put("jpg", "image/jpeg");
+        CONTENT_TYPES.put("jpeg", "image/jpeg");
+        CONTENT_TYPES.put("png", "image/png");
+        CONTENT_TYPES.put("gif", "image/gif");
+        CONTENT_TYPES.put("html", "text/html; charset=utf-8");
+        CONTENT_TYPES.put("txt", "text/plain; charset=utf-8");
+        CONTENT_TYPES.put("json", "application/json");
+    }
+
+    private final Path root;
+    private final Settings settings;
+    private final FileCache cache;
+    // Directories under root which are not served.
+    private final List<Path> excluded = new ArrayList<>();
+    private Listener listener = (path, status, bytes, duration) -> {
+    };
+
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private volatile boolean running = false;
+
+    public StaticFileServer(Path root, Settings settings) {
+        this.root = root.toAbsolutePath().normalize();
+        this.settings = settings;
+        this.cache = new FileCache(settings.getCacheSize());
+    }
+
+    /**
+     * Sets listener notified about each served request, for example to measure how long
+     * it took Facebook to download published photo.
+     *
+     * @param listener listener of served requests
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Excludes directory under root from serving, for example directory of incomplete
+     * downloads. Must be called before the server is started.
+     *
+     * @param directory excluded directory
+     */
+    public void exclude(Path directory) {
+        excluded.add(directory.toAbsolutePath().normalize());
+    }
+
+    public void start() throws IOException {
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(settings.getBindAddress(), settings.getPort()));
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+        running = true;
+        Thread thread = new Thread(this::run, "StaticFileServer");
+        thread.setDaemon(true);
+        thread.start();
+        log.info("Serving {} on {}.", root, serverChannel.getLocalAddress());
+    }
+
+    public void stop() {
+        running = false;
+        selector.wakeup();
+    }
+
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    private void run() {
+        try {
+            while (running) {
+                selector.select(1000);
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    handle(key);
+                }
+                closeIdleConnections();
+            }
+        } catch (IOException e) {
+            log.error("Static file server failed.", e);
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                close(key);
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                log.error("Can't close selector.", e);
+            }
+        }
+    }
+
+    private void handle(SelectionKey key) {
+        try {
+            if (!key.isValid()) {
+                return;
+            }
+
+            if (key.isAcceptable()) {
+                SocketChannel channel = serverChannel.accept();
+                if (channel != null) {
+                    channel.configureBlocking(false);
+                    SelectionKey connectionKey = channel.register(selector, SelectionKey.OP_READ);
+                    connectionKey.attach(new Connection(channel, connectionKey));
+                }
+                return;
+            }
+
+            Connection connection = (Connection) key.attachment();
+            if (key.isReadable()) {
+                connection.read();
+            }
+            if (key.isValid() && key.isWritable()) {
+                connection.write();
+            }
+        } catch (IOException e) {
+            log.debug("Connection failed: {}", e.getMessage());
+            close(key);
+        } catch (RuntimeException e) {
+            // Bad request must not stop the selector loop serving other connections.
+            log.error("Unexpected error while handling connection.", e);
+            close(key);
+        }
+    }
+
+    private void closeIdleConnections() {
+        long now = System.nanoTime();
+        for (SelectionKey key : new ArrayList<>(selector.keys())) {
+            Object attachment = key.attachment();
+            if (attachment instanceof Connection && now - ((Connection) attachment).lastActivity > IDLE_TIMEOUT) {
+                close(key);
+            }
+        }
+    }
+
+    private static void close(SelectionKey key) {
+        key.cancel();
+        try {
+            if (key.attachment() instanceof Connection) {
+                ((Connection) key.attachment()).closeFile();
+            }
+            key.channel().close();
+        } catch (IOException e) {
+            log.debug("Can't close connection: {}", e.getMessage());
+        }
+    }
+
+    // Resolves request target to file in root, null if it points outside of root or to excluded directory.
+    private Path resolve(String target) {
+        String path;
+        try {
+            path = new URI(target).getPath();
+        } catch (URISyntaxException e) {
+            return null;
+        }
+        if (path == null || !path.startsWith("/")) {
+            return null;
+        }
+
+        Path file;
+        try {
+            file = root.resolve(path.substring(1)).normalize();
+        } catch (InvalidPathException e) {
+            // For example NUL character decoded from %00.
+            return null;
+        }
+        if (!file.startsWith(root)) {
+            return null;
+        }
+        for (Path directory : excluded) {
+            if (file.startsWith(directory)) {
+                return null;
+            }
+        }
+        return file;
+    }
+
+    private static String getContentType(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String contentType = dot >= 0 ? CONTENT_TYPES.get(name.substring(dot + 1).toLowerCase()) : null;
+        return contentType != null ? contentType : "application/octet-stream";
+    }
+
+    private static long parseDate(String value) {
+        try {
+            return ZonedDateTime.parse(value, HTTP_DATE).toEpochSecond();
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+
+    // Weak comparison of entity tags used by If-None-Match, list of tags or * is accepted.
+    private static boolean matchesETag(String header, String eTag) {
+        if (header.trim().equals("*")) {
+            return true;
+        }
+        for (String tag : header.split(",")) {
+            tag = tag.trim();
+            // Weak tag matches the same opaque tag.
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals(eTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * One client connection. Requests are read until end of headers, then response is written
+     * and connection waits for next request.
+     */
+    private class Connection {
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private final ByteBuffer input = ByteBuffer.allocate(MAX_HEADER_SIZE);
+        private long lastActivity = System.nanoTime();
+
+        // Response being written.
+        private ByteBuffer head;
+        private ByteBuffer body;
+        private FileChannel file;
+        private long filePosition;
+        private long fileEnd;
+        private boolean keepAlive;
+        private boolean headRequest;
+        // Served request, reported to listener.
+        private String path;
+        private int status;
+        private long bodyLength;
+        private long startTime;
+
+        private Connection(SocketChannel channel, SelectionKey key) {
+            this.channel = channel;
+            this.key = key;
+        }
+
+        private void read() throws IOException {
+            if (channel.read(input) < 0) {
+                close(key);
+                return;
+            }
+            lastActivity = System.nanoTime();
+            processInput();
+        }
+
+        private void processInput() throws IOException {
+            int end = findHeaderEnd();
+            if (end < 0) {
+                if (!input.hasRemaining()) {
+                    keepAlive = false;
+                    headRequest = false;
+                    path = "";
+                    startTime = System.nanoTime();
+                    respondError(431, "Request Header Fields Too Large");
+                }
+                return;
+            }
+
+            String header = new String(input.array(), 0, end, Charsets.ISO_8859_1);
+            headRequest = header.startsWith("HEAD ");
+            // Keep pipelined requests for later.
+            input.flip();
+            input.position(end + 4);
+            input.compact();
+
+            startTime = System.nanoTime();
+            respond(header);
+        }
+
+        private int findHeaderEnd() {
+            byte[] data = input.array();
+            for (int i = 0; i + 3 < input.position(); i++) {
+                if (data[i] == '\r' && data[i + 1] == '\n' && data[i + 2] == '\r' && data[i + 3] == '\n') {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private void respond(String header) throws IOException {
+            String[] lines = header.split("\r\n");
+            String[] requestLine = lines[0].split(" ");
+            if (requestLine.length != 3 || !requestLine[2].startsWith("HTTP/1.")) {
+                keepAlive = false;
+                path = lines[0];
+                respondError(400, "Bad Request");
+                return;
+            }
+
+            Map<String, String> headers = new HashMap<>();
+            for (int i = 1; i < lines.length; i++) {
+                int colon = lines[i].indexOf(':');
+                if (colon > 0) {
+                    headers.put(lines[i].substring(0, colon).trim().toLowerCase(), lines[i].substring(colon + 1).trim());
+                }
+            }
+
+            String method = requestLine[0];
+            String connection = headers.getOrDefault("connection", "").toLowerCase();
+            keepAlive = requestLine[2].equals("HTTP/1.1") ? !connection.equals("close") : connection.equals("keep-alive");
+            path = requestLine[1];
+
+            if (!method.equals("GET") && !method.equals("HEAD")) {
+                respondError(405, "Method Not Allowed", "Allow: GET, HEAD\r\n");
+                return;
+            }
+
+            Path file = resolve(requestLine[1]);
+            BasicFileAttributes attributes;
+            try {
+                attributes = file != null ? Files.readAttributes(file, BasicFileAttributes.class) : null;
+            } catch (NoSuchFileException e) {
+                attributes = null;
+            }
+            if (attributes == null || !attributes.isRegularFile()) {
+                respondError(404, "Not Found");
+                return;
+            }
+
+            long size = attributes.size();
+            long lastModified = attributes.lastModifiedTime().to(TimeUnit.SECONDS);
+            String eTag = "\"" + Long.toHexString(size) + "-" + Long.toHexString(attributes.lastModifiedTime()
+                    .toMillis()) + "\"";
+            String validators = "ETag: " + eTag + "\r\nLast-Modified: "
+                    + HTTP_DATE.format(Instant.ofEpochSecond(lastModified)) + "\r\n";
+
+            if (isNotModified(headers, eTag, lastModified)) {
+                startResponse(304, "Not Modified", validators, -1);
+                finishHead();
+                return;
+            }
+
+            long start = 0;
+            long end = size - 1;
+            String range = headers.get("range");
+            if (range != null && isRangeValid(headers.get("if-range"), eTag, lastModified)) {
+                long[] bounds = parseRange(range, size);
+                if (bounds != null && bounds.length == 0) {
+                    respondError(416, "Range Not Satisfiable", "Content-Range: bytes */" + size + "\r\n");
+                    return;
+                }
+                if (bounds != null) {
+                    start = bounds[0];
+                    end = bounds[1];
+                }
+            }
+
+            long length = end - start + 1;
+            boolean partial = length != size;
+            String extraHeaders = validators + "Content-Type: " + getContentType(file) + "\r\n"
+                    + "Accept-Ranges: bytes\r\n"
+                    + (partial ? "Content-Range: bytes " + start + "-" + end + "/" + size + "\r\n" : "");
+            startResponse(partial ? 206 : 200, partial ? "Partial Content" : "OK", extraHeaders, length);
+
+            if (!headRequest && length > 0) {
+                ByteBuffer cached = size <= settings.getCacheMaxFileSize()
+                        ? cache.get(file, size, attributes.lastModifiedTime().toMillis()) : null;
+                if (cached != null) {
+                    body = cached.duplicate();
+                    body.position((int) start);
+                    body.limit((int) (end + 1));
+                } else {
+                    this.file = FileChannel.open(file, StandardOpenOption.READ);
+                    filePosition = start;
+                    fileEnd = end + 1;
+                }
+                bodyLength = length;
+            }
+            finishHead();
+        }
+
+        private boolean isNotModified(Map<String, String> headers, String eTag, long lastModified) {
+            String ifNoneMatch = headers.get("if-none-match");
+            if (ifNoneMatch != null) {
+                return matchesETag(ifNoneMatch, eTag);
+            }
+
+            String ifModifiedSince = headers.get("if-modified-since");
+            if (ifModifiedSince != null) {
+                long since = parseDate(ifModifiedSince);
+                return since >= 0 && lastModified <= since;
+            }
+            return false;
+        }
+
+        // Range is applied only if resource was not changed since client got its validator.
+        private boolean isRangeValid(String ifRange, String eTag, long lastModified) {
+            if (ifRange == null) {
+                return true;
+            }
+            if (ifRange.startsWith("\"")) {
+                return ifRange.equals(eTag);
+            }
+            return parseDate(ifRange) == lastModified;
+        }
+
+        // Returns inclusive bounds, empty array if range is not satisfiable and null if it
+        // is not supported (multiple ranges) or malformed, then whole file is sent.
+        private long[] parseRange(String range, long size) {
+            if (!range.startsWith("bytes=") || range.contains(",")) {
+                return null;
+            }
+
+            String spec = range.substring(6).trim();
+            int dash = spec.indexOf('-');
+            if (dash < 0) {
+                return null;
+            }
+
+            try {
+                if (dash == 0) {
+                    // Suffix range, last n bytes.
+                    long suffix = Long.parseLong(spec.substring(1));
+                    if (suffix == 0 || size == 0) {
+                        return new long[0];
+                    }
+                    return new long[]{Math.max(0, size - suffix), size - 1};
+                }
+
+                long start = Long.parseLong(spec.substring(0, dash));
+                long end = dash == spec.length() - 1 ? size - 1 : Long.parseLong(spec.substring(dash + 1));
+                if (start >= size) {
+                    return new long[0];
+                }
+                if (end < start) {
+                    return null;
+                }
+                return new long[]{start, Math.min(end, size - 1)};
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        private void respondError(int status, String reason) throws IOException {
+            respondError(status, reason, "");
+        }
+
+        private void respondError(int status, String reason, String extraHeaders) throws IOException {
+            byte[] message = (status + " " + reason + "\n").getBytes(Charsets.UTF_8);
+            startResponse(status, reason, extraHeaders + "Content-Type: text/plain; charset=utf-8\r\n",
+                    message.length);
+            if (!headRequest) {
+                body = ByteBuffer.wrap(message);
+                bodyLength = message.length;
+            }
+            finishHead();
+        }
+
+        private void startResponse(int status, String reason, String extraHeaders, long contentLength) {
+            this.status = status;
+            this.bodyLength = 0;
+            head = ByteBuffer.wrap(("HTTP/1.1 " + status + " " + reason + "\r\n"
+                    + "Date: " + HTTP_DATE.format(Instant.now()) + "\r\n"
+                    + extraHeaders
+                    + (contentLength >= 0 ? "Content-Length: " + contentLength + "\r\n" : "")
+                    + "Connection: " + (keepAlive ? "keep-alive" : "close") + "\r\n"
+                    + "\r\n").getBytes(Charsets.ISO_8859_1));
+        }
+
+        private void finishHead() throws IOException {
+            // Do not read next request until this response is written.
+            key.interestOps(SelectionKey.OP_WRITE);
+            write();
+        }
+
+        private void write() throws IOException {
+            lastActivity = System.nanoTime();
+            if (head.hasRemaining()) {
+                channel.write(head);
+                if (head.hasRemaining()) {
+                    return;
+                }
+            }
+
+            if (body != null) {
+                channel.write(body);
+                if (body.hasRemaining()) {
+                    return;
+                }
+            } else if (file != null) {
+                filePosition += file.transferTo(filePosition, fileEnd - filePosition, channel);
+                if (filePosition < fileEnd) {
+                    return;
+                }
+            }
+
+            completeResponse();
+        }
+
+        private void completeResponse() throws IOException {
+            closeFile();
+            body = null;
+            listener.served(path, status, bodyLength, System.nanoTime() - startTime);
+
+            if (!keepAlive) {
+                close(key);
+                return;
+            }
+
+            key.interestOps(SelectionKey.OP_READ);
+            // Client may have already sent next request.
+            if (input.position() > 0) {
+                processInput();
+            }
+        }
+
+        private void closeFile() throws IOException {
+            if (file != null) {
+                file.close();
+                file = null;
+            }
+        }
+    }
+
+    /**
+     * LRU cache of contents of small files. Used only by server thread.
+     */
+    private static class FileCache {
+        private final long capacity;
+        private final LinkedHashMap<Path, CachedFile> files = new LinkedHashMap<>(16, 0.75f, true);
+        private long size = 0;
+
+        private FileCache(long capacity) {
+            this.capacity = capacity;
+        }
+
+        private ByteBuffer get(Path path, long fileSize, long lastModified) throws IOException {
+            if (fileSize > capacity) {
+                return null;
+            }
+
+            CachedFile cached = files.get(path);
+            if (cached != null && cached.lastModified == lastModified && cached.contents.capacity() == fileSize) {
+                return cached.contents;
+            }
+
+            if (cached != null) {
+                files.remove(path);
+                size -= cached.contents.capacity();
+            }
+
+            ByteBuffer contents = ByteBuffer.wrap(Files.readAllBytes(path)).asReadOnlyBuffer();
+            if (contents.capacity() != fileSize) {
+                // File is being changed, do not cache it.
+                return null;
+            }
+            files.put(path, new CachedFile(contents, lastModified));
+            size += fileSize;
+
+            Iterator<CachedFile> eldest = files.values().iterator();
+            while (size > capacity && eldest.hasNext()) {
+                size -= eldest.next().contents.capacity();
+                eldest.remove();
+            }
+            return contents;
+        }
+    }
+
+    private static class CachedFile {
+        private final ByteBuffer contents;
+        private final long lastModified;
+
+        private CachedFile(ByteBuffer contents, long lastModified) {
+            this.contents = contents;
+            this.lastModified = lastModified;
+        }
+    }
+
+    /**
+     * Listener of served requests.
+     */
+    @FunctionalInterface
+    public interface Listener {
+        /**
+         * @param path     requested path
+         * @param status   status of response
+         * @param bytes    number of bytes of body sent
+         * @param duration time from receiving request to sending whole response (in nanoseconds)
+         */
+        void served(String path, int status, long bytes, long duration);
+    }
+
+    /**
+     * Settings of static file server.
+     */
+    public static class Settings {
+        private boolean enabled = false;
+        private String bindAddress = "0.0.0.0";
+        private int port = 8080;
+        // Size of cache of small files and maximal size of cached file (in bytes).
+        private long cacheSize = 4 * 1024 * 1024;
+        private long cacheMaxFileSize = 256 * 1024;
+
+        public Settings() {
+        }
+
+        public static Settings fromProperties(Properties properties) {
+            Settings settings = new Settings();
+            settings.enabled = Boolean.parseBoolean(properties.getProperty("server.enabled",
+                    String.valueOf(settings.enabled)));
+            settings.bindAddress = properties.getProperty("server.bindAddress", settings.bindAddress);
+            settings.port = Integer.parseInt(properties.getProperty("server.port",
+                    String.valueOf(settings.port)));
+            settings.cacheSize = Long.parseLong(properties.getProperty("server.cacheSize",
+                    String.valueOf(settings.cacheSize)));
+            settings.cacheMaxFileSize = Long.parseLong(properties.getProperty("server.cacheMaxFileSize",
+                    String.valueOf(settings.cacheMaxFileSize)));
+            return settings;
+        }
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public String getBindAddress() {
+            return bindAddress;
+        }
+
+        public int getPort() {
+            return port;
+        }
+
+        public long getCacheSize() {
+            return cacheSize;
+        }
+
+        public long getCacheMaxFileSize() {
+            return cacheMaxFileSize;
+        }
+    }
+}
@@ -27,73 +27,215 @@
 package eu.matejkormuth.fbrepostbot;
 
 import com.google.common.eventbus.EventBus;
-import com.google.common.eventbus.Subscribe;
-import eu.matejkormuth.fbrepostbot.events.IncomingPostEvent;
 import eu.matejkormuth.fbrepostbot.events.OutgoingPostEvent;
 import eu.matejkormuth.fbrepostbot.facebook.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
 
 public class TargetPage {
 
     private static final Logger log = LoggerFactory.getLogger(TargetPage.class);
 
+    // Number of recent posts of page searched for posts published before crash.
+    private static final int RECOVERY_FEED_SIZE = 25;
+
     private final EventBus eventBus;
     private final FacebookPage page;
     private final FeedPublisher feedPublisher;
     private final PageCache cache;
     private final PostFilter filter;
+    private final DuplicateDetector duplicateDetector;
+    private final PhotoIndex photoIndex;
+    private final PublishOutbox outbox;
     private final FacebookPostFactory facebookPostFactory;
-    private final PathHelper pathHelper;
+    private final PublishQueue publishQueue;
 
     public TargetPage(FacebookAPI api, EventBus eventBus, FacebookPage page, PageCache cache, PostFilter filter,
-                      PathHelper pathHelper, AccessToken pageAccessToken) {
+                      DuplicateDetector duplicateDetector, PhotoIndex photoIndex, PublishOutbox outbox,
+                      AttachmentStore attachmentStore, FeedPublisher.PublishMode publishMode,
+                      AccessToken pageAccessToken, Executor publishExecutor,
+                      PublishQueue.Settings publishQueueSettings) {
         this.eventBus = eventBus;
         this.page = page;
         this.cache = cache;
         this.filter = filter;
-        this.pathHelper = pathHelper;
-        this.feedPublisher = new FeedPublisher(api, page, pageAccessToken);
+        this.duplicateDetector = duplicateDetector;
+        this.photoIndex = photoIndex;
+        this.outbox = outbox;
+        this.feedPublisher = new FeedPublisher(api, page, pageAccessToken, attachmentStore, publishMode);
         // TODO: Add more configuration to PostFactory.
         this.facebookPostFactory = new FacebookPostFactory();
+        this.publishQueue = new PublishQueue("page " + page.getUsername(), publishQueueSettings, publishExecutor,
+                this::publish, post -> abortOutboxEntry(post.getOriginalPost().getId()));
+
+    }
+
+    /**
+     * Offers post of subscribed source page for publishing.
+     *
+     * @param post post of source page
+     * @return false if publish queue is full and source page should slow down
+     */
+    public boolean offer(CachedPost post) {
+        // Near-duplicates of posts delivered to this page are checked together with filter.
+        if (!duplicateDetector.deliver(post, getId(), filter)) {
+            return true;
+        }
 
-        // Register listener.
-        log.info("Registering events for target page {}...", this.getId());
-        this.eventBus.register(this);
+        // Post is recorded before it is queued, so crash does not lose queued posts.
+        // Download workers offering posts at once share one fsync.
+        try {
+            outbox.begin(post);
+        } catch (IOException e) {
+            // Deliberately published anyway, broken outbox should not stop publishing.
+            log.error("Can't write post " + post.getOriginalPost().getId() + " to outbox of page "
+                    + this.page.getUsername() + ", it will not be recovered after crash.", e);
+        }
+
+        // Post is published by worker of publish queue, source page only
+        // gets to know when the queue is full.
+        return publishQueue.offer(post);
     }
 
-    @Subscribe
-    public void incomingPostListener(final IncomingPostEvent event) {
-        // Filter out posts from source pages we do not subscribe.
-        if (filter.isRelevant(event.getPost())) {
-            log.info("Publishing post {} to page {}...", event.getPost().getOriginalPost().getId(), this.page.getUsername());
-            FacebookPost facebookPost = facebookPostFactory.create(event.getPost());
-            try {
-                feedPublisher.publish(pathHelper, facebookPost);
-                log.info("Published post {} to page {}",
-                        event.getPost().getOriginalPost().getId(),
+    /**
+     * Finishes posts interrupted by crash. Posts published before crash are cached,
+     * posts which were not published yet are enqueued again.
+     * <p>
+     * Crash between publishing of post and recording it leaves the post pending, so pending
+     * posts are looked up in recent feed of this page first. Post without message can't be
+     * found there and is published again, as well as any post when the feed can't be fetched.
+     */
+    public void recoverOutbox() {
+        List<PublishOutbox.Entry> unpublished = new ArrayList<>();
+        for (PublishOutbox.Entry entry : outbox.getRecovered()) {
+            if (cache.contains(entry.getKey())) {
+                // Post was published and cached, only the outbox record is missing.
+                finishOutboxEntry(entry.getKey(), entry.getPublishedPostId());
+            } else if (entry.isDone()) {
+                log.info("Caching post {} published to page {} before crash.", entry.getKey(),
                         this.page.getUsername());
+                addToCache(facebookPostFactory.create(entry.getPost()), entry.getPublishedPostId());
+            } else {
+                unpublished.add(entry);
+            }
+        }
+
+        if (unpublished.isEmpty()) {
+            return;
+        }
 
-                // Create new cached post in local cache.
-                try {
-                    CachedPost cachedPost = this.cache.add(facebookPost, this);
-                    cachedPost.setTargetPage(this);
-
-                    // Dispatch new OutgoingPostEvent
-                    eventBus.post(new OutgoingPostEvent(cachedPost));
-                } catch (IOException e) {
-                    log.error("Can't save (cache) post " + event.getPost().getOriginalPost().getId(), e);
-                }
-            } catch (FacebookException e) {
-                log.info("Can't publish post " + event.getPost().getOriginalPost().getId() + " from page " +
-                        event.getPost().getSourcePageId() + " to page " + this.page.getUsername(), e);
+        Map<String, String> published = findPublished(unpublished);
+        for (PublishOutbox.Entry entry : unpublished) {
+            String publishedPostId = published.get(entry.getKey());
+            if (publishedPostId != null) {
+                log.info("Post {} was published to page {} as {} before crash, caching it.", entry.getKey(),
+                        this.page.getUsername(), publishedPostId);
+                finishOutboxEntry(entry.getKey(), publishedPostId);
+                addToCache(facebookPostFactory.create(entry.getPost()), publishedPostId);
+            } else {
+                log.info("Publishing post {} to page {} again after crash.", entry.getKey(),
+                        this.page.getUsername());
+                publishQueue.offer(entry.getPost());
             }
         }
     }
 
+    private Map<String, String> findPublished(List<PublishOutbox.Entry> entries) {
+        List<FacebookPost> facebookPosts = new ArrayList<>();
+        for (PublishOutbox.Entry entry : entries) {
+            facebookPosts.add(facebookPostFactory.create(entry.getPost()));
+        }
+
+        try {
+            // Worker of publish queue publishes one post at a time, so at most one pending post
+            // was published and it is among the newest posts of this page.
+            return feedPublisher.findPublished(facebookPosts, RECOVERY_FEED_SIZE);
+        } catch (FacebookException e) {
+            log.error("Can't check feed of page " + this.page.getUsername()
+                    + " for posts published before crash, pending posts will be published again.", e);
+            return Collections.emptyMap();
+        }
+    }
+
+    private void publish(CachedPost post) {
+        // Source post id is idempotency key, post in cache was already published.
+        String key = post.getOriginalPost().getId();
+        if (cache.contains(key)) {
+            log.info("Post {} was already published to page {}, skipping.", key, this.page.getUsername());
+            finishOutboxEntry(key, null);
+            return;
+        }
+
+        // Same photo may come from several source pages under different object ids.
+        String similarPostId = photoIndex.findSimilar(post.getOriginalPost());
+        if (similarPostId != null) {
+            log.info("Photo of post {} was already published to page {} with post {}, skipping.",
+                    key, this.page.getUsername(), similarPostId);
+            abortOutboxEntry(key);
+            return;
+        }
+
+        log.info("Publishing post {} to page {}...", key, this.page.getUsername());
+        FacebookPost facebookPost = facebookPostFactory.create(post);
+        try {
+            String publishedPostId = feedPublisher.publish(facebookPost);
+            finishOutboxEntry(key, publishedPostId);
+            photoIndex.add(facebookPost);
+            log.info("Published post {} to page {} as {}", key, this.page.getUsername(), publishedPostId);
+
+            addToCache(facebookPost, publishedPostId);
+        } catch (FacebookException e) {
+            abortOutboxEntry(key);
+            log.info("Can't publish post " + key + " from page " +
+                    post.getSourcePageId() + " to page " + this.page.getUsername(), e);
+        }
+    }
+
+    private void addToCache(FacebookPost facebookPost, String publishedPostId) {
+        // Create new cached post in local cache.
+        try {
+            CachedPost cachedPost = this.cache.add(facebookPost, this, publishedPostId);
+
+            // Dispatch new OutgoingPostEvent
+            eventBus.post(new OutgoingPostEvent(cachedPost));
+        } catch (IOException e) {
+            log.error("Can't save (cache) post " + facebookPost.getId(), e);
+        }
+    }
+
+    private void finishOutboxEntry(String key, String publishedPostId) {
+        try {
+            outbox.complete(key, publishedPostId);
+        } catch (IOException e) {
+            // Post will be found in cache when it is replayed.
+            log.error("Can't mark post " + key + " as published in outbox of page " + this.page.getUsername(), e);
+        }
+    }
+
+    private void abortOutboxEntry(String key) {
+        try {
+            outbox.abort(key);
+        } catch (IOException e) {
+            log.error("Can't mark post " + key + " as failed in outbox of page " + this.page.getUsername(), e);
+        }
+    }
+
+    public String getUsername() {
+        return this.page.getUsername();
+    }
+
     public long getId() {
         return this.page.getId();
     }
+
+    public PageCache getCache() {
+        return cache;
+    }
 }
@@ -30,6 +30,8 @@ import eu.matejkormuth.fbrepostbot.CachedPost;
 
 public class IncomingPostEvent extends Event {
     private CachedPost post;
+    // Set by listeners that could not keep up with incoming posts.
+    private volatile boolean backpressure = false;
 
     public IncomingPostEvent(CachedPost post) {
         this.post = post;
@@ -38,4 +40,12 @@ public class IncomingPostEvent extends Event {
     public CachedPost getPost() {
         return post;
     }
+
+    public void reportBackpressure() {
+        this.backpressure = true;
+    }
+
+    public boolean isBackpressure() {
+        return backpressure;
+    }
 }
@@ -26,11 +26,11 @@
  */
 package eu.matejkormuth.fbrepostbot.facebook;
 
-import org.json.JSONArray;
-import org.json.JSONObject;
+import com.fasterxml.jackson.core.JsonParser;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
@@ -60,13 +60,20 @@ public class AccessToken {
         }
     }
 
-    public void fetchDetails(AccessToken token) throws FacebookException {
+    public void fetchDetails(FacebookAPI api, AccessToken token) throws FacebookException {
         log.info("Fetching details about access token {}", token.getToken());
-        JSONObject obj = null;
+        boolean[] received = {false};
         try {
-            obj = new Request("GET", token.getToken())
+            api.createGetRequest(token)
                     .url("debug_token?input_token=" + this.token)
-                    .send();
+                    .send((name, parser) -> {
+                        if (!name.equals("data")) {
+                            return false;
+                        }
+                        readDetails(parser);
+                        received[0] = true;
+                        return true;
+                    });
         } catch (FacebookException e) {
             // Session has expired on Tuesday, 02-Jun-15 11:00:00 PDT. The current time is Tuesday, 02-Jun-15 14:13:39
             if (e.getMessage().contains("has expired")) {
@@ -76,34 +83,47 @@ public class AccessToken {
             log.error("An error occurred: ", e);
         }
 
-        if (obj == null) {
+        if (!received[0]) {
             throw new RuntimeException("Response is null!");
         }
 
-        JSONObject data = obj.getJSONObject("data");
-
-        if (data.has("profile_id")) {
+        if (this.profileId != 0) {
             this.type = Type.PAGE_TOKEN;
-            this.profileId = data.getLong("profile_id");
-            this.userId = data.getLong("user_id");
-        } else if (data.has("user_id")) {
+        } else if (this.userId != 0) {
             this.type = Type.USER_TOKEN;
-            this.userId = data.getLong("user_id");
         } else {
             this.type = Type.APPLICATION_TOKEN;
         }
 
-        this.appId = data.getLong("app_id");
-        this.expires = data.getLong("expires_at");
-
         log.info("This access token expires at: {}", new SimpleDateFormat().format(new Date(this.expires * 1000)));
+    }
 
+    private void readDetails(JsonParser parser) throws IOException {
+        this.profileId = 0;
+        this.userId = 0;
         this.scopes = new ArrayList<>();
 
-        JSONArray scopes = data.getJSONArray("scopes");
-        for (int i = 0; i < scopes.length(); i++) {
-            this.scopes.add(scopes.getString(i));
-        }
+        JsonStreams.forEachField(parser, (name, p) -> {
+            switch (name) {
+                case "profile_id":
+                    this.profileId = p.getValueAsLong();
+                    return true;
+                case "user_id":
+                    this.userId = p.getValueAsLong();
+                    return true;
+                case "app_id":
+                    this.appId = p.getValueAsLong();
+                    return true;
+                case "expires_at":
+                    this.expires = p.getValueAsLong();
+                    return true;
+                case "scopes":
+                    JsonStreams.forEachElement(p, scope -> this.scopes.add(scope.getValueAsString()));
+                    return true;
+                default:
+                    return false;
+            }
+        });
     }
 
     public String getToken() {
@@ -0,0 +1,248 @@
+/**
+ * Facebook Re-post Bot - Bot that checks some pages and copies posts to other pages.
+ * Copyright (c) 2015, Matej Kormuth <http://www.github.com/dobrakmato>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.matejkormuth.fbrepostbot.facebook;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Downloads attachments using shared pooled HTTP client. Response body is streamed to
+ * file channel through reused direct buffer, to temporary {@code .part} file which is
+ * atomically moved to its place when download is complete.
+ * <p>
+ * ETag and length of file being downloaded are kept in metadata file, so interrupted
+ * downloads are resumed using Range requests. Callers decide whether file needs to be
+ * downloaded at all (attachment store skips attachments it already stores).
+ * <p>
+ * Downloads reserve their length from shared byte budget before transferring the body,
+ * so concurrent downloads of large files do not exhaust bandwidth and disk buffers.
+ */
+public class AttachmentDownloader {
+
+    private static final Logger log = LoggerFactory.getLogger(AttachmentDownloader.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String PART_SUFFIX = ".part";
+    // Byte budget is counted in kilobytes, so it fits to semaphore permits.
+    private static final int BUDGET_UNIT = 1024;
+
+    // Direct buffers are expensive to allocate, so they are reused by all downloads.
+    private static final Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+
+    private final CloseableHttpClient httpClient;
+    private final long maxSize;
+    private final long timeout;
+    private final Semaphore byteBudget;
+    private final int byteBudgetUnits;
+
+    AttachmentDownloader(CloseableHttpClient httpClient, HttpClientSettings settings) {
+        this.httpClient = httpClient;
+        this.maxSize = settings.getDownloadMaxSize();
+        this.timeout = TimeUnit.SECONDS.toNanos(settings.getDownloadTimeout());
+        this.byteBudgetUnits = (int) Math.min(Integer.MAX_VALUE,
+                Math.max(1, settings.getDownloadMaxInFlightBytes() / BUDGET_UNIT));
+        this.byteBudget = new Semaphore(byteBudgetUnits, true);
+    }
+
+    /**
+     * Downloads file from specified URL, resuming previously interrupted download.
+     *
+     * @param url      URL of file
+     * @param target   path to save file to
+     * @param metaPath path of metadata file of the downloaded file
+     * @throws FacebookException when file can't be downloaded
+     */
+    public void download(String url, Path target, Path metaPath) throws FacebookException {
+        Path part = target.resolveSibling(target.getFileName() + PART_SUFFIX);
+        long deadline = System.nanoTime() + timeout;
+
+        try {
+            Metadata metadata = Metadata.read(metaPath);
+            long partSize = Files.exists(part) ? Files.size(part) : 0;
+            Files.createDirectories(target.getParent());
+
+            HttpGet request = new HttpGet(url);
+            if (partSize > 0 && metadata.etag != null) {
+                // Resume only if file was not changed since download started.
+                request.setHeader("Range", "bytes=" + partSize + "-");
+                request.setHeader("If-Range", metadata.etag);
+            }
+
+            try (CloseableHttpResponse response = httpClient.execute(request)) {
+                int status = response.getStatusLine().getStatusCode();
+                HttpEntity entity = response.getEntity();
+
+                if (status != HttpStatus.SC_OK && status != HttpStatus.SC_PARTIAL_CONTENT) {
+                    throw new FacebookException("Download of " + url + " failed: " + response.getStatusLine());
+                }
+
+                boolean resumed = status == HttpStatus.SC_PARTIAL_CONTENT;
+                long offset = resumed ? partSize : 0;
+                long length = entity.getContentLength() < 0 ? -1 : offset + entity.getContentLength();
+
+                if (length > maxSize) {
+                    request.abort();
+                    throw new FacebookException("File " + url + " is larger than " + maxSize + " bytes.");
+                }
+
+                Header etag = response.getFirstHeader("ETag");
+                metadata.etag = etag == null ? null : etag.getValue();
+                metadata.length = length;
+                metadata.write(metaPath);
+
+                if (resumed) {
+                    log.info("Resuming download of {} from byte {}...", target.getFileName(), offset);
+                }
+
+                // Files of unknown length reserve maximum size.
+                long remaining = length < 0 ? maxSize : length - offset;
+                int units = (int) Math.min(byteBudgetUnits, remaining / BUDGET_UNIT + 1);
+                try {
+                    byteBudget.acquire(units);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    request.abort();
+                    throw new InterruptedIOException("Interrupted while waiting for download budget.");
+                }
+                try {
+                    transfer(entity.getContent(), part, offset, deadline, request);
+                } finally {
+                    byteBudget.release(units);
+                }
+            }
+
+            Files.move(part, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (FacebookException e) {
+            deleteQuietly(part);
+            throw e;
+        } catch (IOException e) {
+            // Partial file is kept, so the download can be resumed.
+            throw new FacebookException("Error during download of " + url + ": ", e);
+        }
+    }
+
+    private void transfer(InputStream content, Path part, long offset, long deadline, HttpGet request)
+            throws IOException, FacebookException {
+        ByteBuffer buffer = buffers.poll();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+
+        try (ReadableByteChannel source = Channels.newChannel(content);
+             FileChannel channel = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            // Discard anything after the resumed part.
+            channel.truncate(offset);
+            long position = offset;
+
+            while (source.read(buffer) >= 0) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    position += channel.write(buffer, position);
+                }
+                buffer.clear();
+
+                if (position > maxSize) {
+                    request.abort();
+                    throw new FacebookException("File " + request.getURI() + " is larger than " + maxSize
+                            + " bytes.");
+                }
+                if (System.nanoTime() > deadline) {
+                    request.abort();
+                    throw new IOException("Download of " + request.getURI() + " timed out.");
+                }
+            }
+            channel.force(false);
+        } finally {
+            buffer.clear();
+            buffers.offer(buffer);
+        }
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("Can't delete {}.", path, e);
+        }
+    }
+
+    // ETag and length of file being downloaded.
+    private static class Metadata {
+        private String etag;
+        private long length = -1;
+
+        private static Metadata read(Path path) throws IOException {
+            Metadata metadata = new Metadata();
+            if (Files.exists(path)) {
+                Properties properties = new Properties();
+                try (InputStream in = Files.newInputStream(path)) {
+                    properties.load(in);
+                }
+                metadata.etag = properties.getProperty("etag");
+                metadata.length = Long.parseLong(properties.getProperty("length", "-1"));
+            }
+            return metadata;
+        }
+
+        private void write(Path path) throws IOException {
+            Properties properties = new Properties();
+            if (etag != null) {
+                properties.setProperty("etag", etag);
+            }
+            properties.setProperty("length", String.valueOf(length));
+
+            Files.createDirectories(path.getParent());
+            try (OutputStream out = Files.newOutputStream(path)) {
+                properties.store(out, null);
+            }
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/**
+ * Facebook Re-post Bot - Bot that checks some pages and copies posts to other pages.
+ * Copyright (c) 2015, Matej Kormuth <http://www.github.com/dobrakmato>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.matejkormuth.fbrepostbot.facebook;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Queues GET requests and sends them to Graph API using batch endpoint. Each queued
+ * request has its own future, which is completed when batch containing the request
+ * is executed.
+ */
+public class BatchRequest {
+
+    private static final Logger log = LoggerFactory.getLogger(BatchRequest.class);
+
+    // Graph API does not allow more sub-requests in one batch.
+    public static final int MAX_BATCH_SIZE = 50;
+
+    private final FacebookAPI api;
+    private final AccessToken accessToken;
+    private final List<Entry> entries = new ArrayList<>();
+    private Throttler.Priority priority = Throttler.Priority.NORMAL;
+
+    BatchRequest(FacebookAPI api, AccessToken accessToken) {
+        this.api = api;
+        this.accessToken = accessToken;
+    }
+
+    /**
+     * Queues GET request using access token of this batch.
+     *
+     * @param relativeUrl url relative to Graph API version root
+     * @return future completed with response of the request
+     */
+    public CompletableFuture<JSONObject> get(String relativeUrl) {
+        return get(this.accessToken, relativeUrl);
+    }
+
+    /**
+     * Queues GET request using specified access token.
+     *
+     * @param token       access token used for this request
+     * @param relativeUrl url relative to Graph API version root
+     * @return future completed with response of the request
+     */
+    public CompletableFuture<JSONObject> get(AccessToken token, String relativeUrl) {
+        // Requests with different token than batch token carry their own.
+        if (!token.getToken().equals(this.accessToken.getToken())) {
+            relativeUrl += (relativeUrl.contains("?") ? "&" : "?") + "access_token=" + token.getToken();
+        }
+
+        Entry entry = new Entry(relativeUrl);
+        entries.add(entry);
+        return entry.future;
+    }
+
+    public BatchRequest priority(Throttler.Priority priority) {
+        this.priority = priority;
+        return this;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Sends all queued requests in batches of at most {@link #MAX_BATCH_SIZE} requests and
+     * completes their futures. Failure of whole batch completes all its futures exceptionally.
+     */
+    public void execute() {
+        List<Entry> pending = new ArrayList<>(entries);
+        entries.clear();
+
+        for (int from = 0; from < pending.size(); from += MAX_BATCH_SIZE) {
+            List<Entry> chunk = pending.subList(from, Math.min(from + MAX_BATCH_SIZE, pending.size()));
+            executeChunk(chunk);
+        }
+    }
+
+    private void executeChunk(List<Entry> chunk) {
+        JSONArray batch = new JSONArray();
+        for (Entry entry : chunk) {
+            JSONObject subRequest = new JSONObject();
+            subRequest.put("method", "GET");
+            subRequest.put("relative_url", entry.relativeUrl);
+            batch.put(subRequest);
+        }
+
+        log.debug("Sending batch of {} requests...", chunk.size());
+        JSONArray responses;
+        try {
+            responses = api.createPostRequest(accessToken)
+                    .url("")
+                    .endpoint(Endpoint.OBJECT)
+                    // Batch contains only GET requests, so it can be repeated.
+                    .idempotent(true)
+                    .priority(priority)
+                    // Each request in batch counts to rate limit.
+                    .cost(chunk.size())
+                    .data("batch", batch.toString())
+                    .data("include_headers", "false")
+                    .sendForArray();
+        } catch (FacebookException e) {
+            for (Entry entry : chunk) {
+                entry.future.completeExceptionally(e);
+            }
+            return;
+        }
+
+        for (int i = 0; i < chunk.size(); i++) {
+            chunk.get(i).complete(responses.isNull(i) ? null : responses.getJSONObject(i));
+        }
+    }
+
+    /**
+     * Waits for result of request queued in batch and unwraps exception thrown by the request.
+     *
+     * @param future future returned by one of get methods
+     * @param <T>    type of result
+     * @return result of request
+     * @throws FacebookException when the request failed
+     */
+    public static <T> T await(CompletableFuture<T> future) throws FacebookException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FacebookException("Interrupted while waiting for batch request.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof FacebookException) {
+                throw (FacebookException) e.getCause();
+            }
+            throw new FacebookException("Nested exception: ", e.getCause());
+        }
+    }
+
+    private static class Entry {
+        private final String relativeUrl;
+        private final CompletableFuture<JSONObject> future = new CompletableFuture<>();
+
+        private Entry(String relativeUrl) {
+            this.relativeUrl = relativeUrl;
+        }
+
+        private void complete(JSONObject response) {
+            // Graph API returns null for sub-requests that were not completed in time.
+            if (response == null) {
+                future.completeExceptionally(new FacebookException("Batch request " + relativeUrl
+                        + " was not completed."));
+                return;
+            }
+
+            try {
+                JSONObject body = new JSONObject(response.getString("body"));
+                if (body.has("error")) {
+                    future.completeExceptionally(Request.createApiException(body.getJSONObject("error"),
+                            response.optInt("code")));
+                } else {
+                    future.complete(body);
+                }
+            } catch (Exception e) {
+                future.completeExceptionally(new FacebookException("Nested exception: ", e));
+            }
+        }
+    }
+}
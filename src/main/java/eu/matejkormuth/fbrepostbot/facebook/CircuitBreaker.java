@@ -0,0 +1,132 @@
+/**
+ * Facebook Re-post Bot - Bot that checks some pages and copies posts to other pages.
+ * Copyright (c) 2015, Matej Kormuth <http://www.github.com/dobrakmato>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.matejkormuth.fbrepostbot.facebook;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Circuit breaker of one class of endpoints. After specified number of consecutive
+ * transient failures the breaker opens and requests fail immediately without being
+ * sent. When open time elapses, one trial request is let through and its result
+ * decides whether the breaker closes or opens again.
+ */
+public class CircuitBreaker {
+
+    private static final Logger log = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    private final Endpoint endpoint;
+    private final int failureThreshold;
+    private final long openTime;
+
+    private State state = State.CLOSED;
+    private int failures = 0;
+    private long openedAt;
+
+    CircuitBreaker(Endpoint endpoint, int failureThreshold, long openTime, TimeUnit unit) {
+        this.endpoint = endpoint;
+        this.failureThreshold = failureThreshold;
+        this.openTime = unit.toNanos(openTime);
+    }
+
+    /**
+     * Checks whether request can be sent. Caller which is allowed to send request must
+     * report its result.
+     *
+     * @return true if request can be sent
+     */
+    synchronized boolean tryAcquire() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.nanoTime() - openedAt >= openTime) {
+                    // Let one trial request through.
+                    state = State.HALF_OPEN;
+                    return true;
+                }
+                return false;
+            default:
+                // Trial request is in flight.
+                return false;
+        }
+    }
+
+    /**
+     * Reports result of request. Only transient failures count, other errors mean the
+     * endpoint is working.
+     *
+     * @param failure exception thrown by request, null if request succeeded
+     */
+    synchronized void record(FacebookException failure) {
+        if (failure != null && failure.getKind() == FacebookException.Kind.REJECTED) {
+            // Request was not sent, other request can be the trial.
+            if (state == State.HALF_OPEN) {
+                state = State.OPEN;
+            }
+            return;
+        }
+
+        if (failure == null || failure.getKind() != FacebookException.Kind.TRANSIENT) {
+            if (state != State.CLOSED) {
+                log.info("Circuit breaker of {} requests closed.", endpoint);
+            }
+            state = State.CLOSED;
+            failures = 0;
+            return;
+        }
+
+        failures++;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && failures >= failureThreshold)) {
+            log.warn("Circuit breaker of {} requests opened after {} failures, last: {}", endpoint, failures,
+                    failure.getMessage());
+            state = State.OPEN;
+            openedAt = System.nanoTime();
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public enum State {
+        /**
+         * Requests are sent.
+         */
+        CLOSED,
+        /**
+         * Requests fail without being sent.
+         */
+        OPEN,
+        /**
+         * One trial request is sent, others fail.
+         */
+        HALF_OPEN
+    }
+}
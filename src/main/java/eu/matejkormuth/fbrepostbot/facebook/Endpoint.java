@@ -0,0 +1,85 @@
+/**
+ * Facebook Re-post Bot - Bot that checks some pages and copies posts to other pages.
+ * Copyright (c) 2015, Matej Kormuth <http://www.github.com/dobrakmato>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.matejkormuth.fbrepostbot.facebook;
+
+/**
+ * Class of Graph API endpoints. Each class has its own circuit breaker and metrics, so
+ * outage of one endpoint (for example photo uploads) does not stop requests to others.
+ */
+public enum Endpoint {
+    /**
+     * Feeds of pages.
+     */
+    FEED,
+    /**
+     * Single objects (posts, pages) and batches of them.
+     */
+    OBJECT,
+    /**
+     * Photos (publishing).
+     */
+    PHOTOS,
+    /**
+     * Everything else (access tokens, accounts).
+     */
+    OTHER;
+
+    /**
+     * Finds class of endpoint from URL of request.
+     *
+     * @param url absolute or relative url of request
+     * @return class of endpoint
+     */
+    public static Endpoint classify(String url) {
+        String path = url;
+        if (path.startsWith(FacebookAPI.API_URL)) {
+            path = path.substring(FacebookAPI.API_URL.length());
+        } else if (path.contains("://")) {
+            // Paging urls are absolute and may have different version.
+            path = path.substring(path.indexOf('/', path.indexOf("://") + 3) + 1);
+            if (path.startsWith("v") && path.indexOf('/') > 0) {
+                path = path.substring(path.indexOf('/') + 1);
+            }
+        }
+
+        int query = path.indexOf('?');
+        if (query >= 0) {
+            path = path.substring(0, query);
+        }
+
+        String[] segments = path.split("/");
+        String last = segments[segments.length - 1];
+        if (last.equals("feed") || last.equals("posts")) {
+            return FEED;
+        } else if (last.equals("photos")) {
+            return PHOTOS;
+        } else if (segments.length == 1 && !last.isEmpty() && Character.isDigit(last.charAt(0))) {
+            return OBJECT;
+        }
+        return OTHER;
+    }
+}
@@ -26,14 +26,27 @@
  */
 package eu.matejkormuth.fbrepostbot.facebook;
 
-import org.json.JSONArray;
-import org.json.JSONObject;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.client.IdleConnectionEvictor;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.protocol.HttpContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 public class FacebookAPI {
     private static final Logger log = LoggerFactory.getLogger(FacebookAPI.class);
@@ -41,18 +54,49 @@ public class FacebookAPI {
     // This is built on Graph API 2.3, using other version may break the application
     // so that's why we stick with explicitly specified API version.
     public static final String API_URL = "https://graph.facebook.com/v2.3/";
+    private static final String API_HOST_URL = "https://graph.facebook.com/";
 
     // Main access token.
     private AccessToken mainAccessToken;
     // Access tokens of pages.
     private Map<Long, AccessToken> pageAccessTokens;
 
+    // Pooled keep-alive client shared by all requests.
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final CloseableHttpClient httpClient;
+    private final IdleConnectionEvictor connectionEvictor;
+    private final AttachmentDownloader attachmentDownloader;
+    private final Throttler throttler;
+    private final RetryPolicy retryPolicy;
+    private final GraphMetrics metrics;
+
     public FacebookAPI(String accessToken) throws FacebookException {
+        this(accessToken, new HttpClientSettings());
+    }
+
+    public FacebookAPI(String accessToken, HttpClientSettings settings) throws FacebookException {
         this.pageAccessTokens = new HashMap<>();
+
+        // Create connection pool before first request is sent.
+        this.connectionManager = new PoolingHttpClientConnectionManager();
+        this.connectionManager.setMaxTotal(settings.getMaxConnections());
+        this.connectionManager.setDefaultMaxPerRoute(settings.getMaxConnectionsPerRoute());
+        // Check connections that were idle for a while before reusing them.
+        this.connectionManager.setValidateAfterInactivity(2000);
+
+        this.httpClient = createHttpClient(settings);
+        this.connectionEvictor = new IdleConnectionEvictor(connectionManager,
+                settings.getMaxIdleTime(), TimeUnit.SECONDS);
+        this.connectionEvictor.start();
+        this.attachmentDownloader = new AttachmentDownloader(httpClient, settings);
+        this.throttler = new Throttler(settings);
+        this.retryPolicy = new RetryPolicy(settings);
+        this.metrics = new GraphMetrics(settings);
+
         this.mainAccessToken = new AccessToken(accessToken);
 
         // Fetch access token details using itself.
-        this.mainAccessToken.fetchDetails(mainAccessToken);
+        this.mainAccessToken.fetchDetails(this, mainAccessToken);
 
         if (this.mainAccessToken.getType() == AccessToken.Type.APPLICATION_TOKEN) {
             throw new FacebookException("Can't get access to pages with application token." +
@@ -62,17 +106,40 @@ public class FacebookAPI {
 
     public void fetchPageAccessTokens(Set<Long> targetPageIds) throws FacebookException {
         log.info("Fetching page access tokens valid for this user token...");
-        JSONObject obj = createGetRequest(this.mainAccessToken)
+        // Accounts are read first, details of tokens are fetched after the response is closed.
+        List<PageAccount> accounts = createGetRequest(this.mainAccessToken)
                 .url("me/accounts")
-                .send();
+                .send(ArrayList<PageAccount>::new, (result, name, parser) -> {
+                    if (!name.equals("data")) {
+                        return false;
+                    }
 
-        JSONArray data = obj.getJSONArray("data");
-        for (int i = 0; i < data.length(); i++) {
-            JSONObject account = data.getJSONObject(i);
+                    JsonStreams.forEachElement(parser, account -> {
+                        PageAccount pageAccount = new PageAccount();
+                        JsonStreams.forEachField(account, (field, p) -> {
+                            switch (field) {
+                                case "access_token":
+                                    pageAccount.accessToken = p.getValueAsString();
+                                    return true;
+                                case "id":
+                                    pageAccount.id = p.getValueAsLong();
+                                    return true;
+                                case "name":
+                                    pageAccount.name = p.getValueAsString();
+                                    return true;
+                                default:
+                                    return false;
+                            }
+                        });
+                        result.add(pageAccount);
+                    });
+                    return true;
+                });
 
-            String pageAccessToken = account.getString("access_token");
-            long pageId = account.getLong("id");
-            String pageName = account.getString("name");
+        for (PageAccount account : accounts) {
+            String pageAccessToken = account.accessToken;
+            long pageId = account.id;
+            String pageName = account.name;
 
             log.info("Access token for page {} was found!", pageName);
 
@@ -80,7 +147,7 @@ public class FacebookAPI {
             if (targetPageIds.contains(pageId)) {
                 AccessToken accessToken = new AccessToken(pageAccessToken);
                 // Fetch details about this access token.
-                accessToken.fetchDetails(this.mainAccessToken);
+                accessToken.fetchDetails(this, this.mainAccessToken);
                 this.pageAccessTokens.put(pageId, accessToken);
             }
         }
@@ -100,16 +167,113 @@ public class FacebookAPI {
         return this.pageAccessTokens.get(pageId);
     }
 
+    private CloseableHttpClient createHttpClient(HttpClientSettings settings) {
+        // Use keep-alive sent by server, or default one if server does not send any.
+        long defaultKeepAlive = TimeUnit.SECONDS.toMillis(settings.getKeepAlive());
+        ConnectionKeepAliveStrategy keepAliveStrategy = new DefaultConnectionKeepAliveStrategy() {
+            @Override
+            public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+                long duration = super.getKeepAliveDuration(response, context);
+                return duration > 0 ? duration : defaultKeepAlive;
+            }
+        };
+
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(settings.getConnectTimeout())
+                .setConnectionRequestTimeout(settings.getConnectTimeout())
+                .setSocketTimeout(settings.getSocketTimeout())
+                .build();
+
+        return HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setKeepAliveStrategy(keepAliveStrategy)
+                .setDefaultRequestConfig(requestConfig)
+                .build();
+    }
+
+    /**
+     * Opens specified number of connections to Graph API so first page checks
+     * do not have to wait for TCP and TLS handshakes.
+     *
+     * @param connections number of connections to open
+     */
+    public void prewarmConnections(int connections) {
+        log.info("Pre-warming {} connections to Graph API...", connections);
+        // Requests must run concurrently, otherwise the pool would reuse one connection.
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < connections; i++) {
+            Thread thread = new Thread(() -> {
+                try (CloseableHttpResponse response = httpClient.execute(new HttpHead(API_HOST_URL))) {
+                    log.debug("Pre-warm request finished with {}.", response.getStatusLine());
+                } catch (IOException e) {
+                    log.warn("Can't pre-warm connection: {}", e.getMessage());
+                }
+            }, "ConnectionPrewarm-" + i);
+            threads.add(thread);
+            thread.start();
+        }
+
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        log.info("Connection pool stats: {}", connectionManager.getTotalStats());
+    }
+
+    public void shutdown() {
+        log.info("Closing Graph API connections...");
+        connectionEvictor.shutdown();
+        try {
+            httpClient.close();
+        } catch (IOException e) {
+            log.error("Can't close http client.", e);
+        }
+    }
+
     public Request createGetRequest(AccessToken token) {
-        return new Request("GET", token.getToken());
+        return new Request(this, "GET", token);
     }
 
     public Request createPostRequest(AccessToken token) {
-        return new Request("POST", token.getToken());
+        return new Request(this, "POST", token);
     }
 
+    public BatchRequest createBatchRequest(AccessToken token) {
+        return new BatchRequest(this, token);
+    }
 
     public AccessToken getMainAccessToken() {
         return mainAccessToken;
     }
+
+    public AttachmentDownloader getAttachmentDownloader() {
+        return attachmentDownloader;
+    }
+
+    public GraphMetrics getMetrics() {
+        return metrics;
+    }
+
+    CloseableHttpClient getHttpClient() {
+        return httpClient;
+    }
+
+    Throttler getThrottler() {
+        return throttler;
+    }
+
+    RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    // Page from list of accounts of user.
+    private static class PageAccount {
+        private String accessToken;
+        private long id;
+        private String name;
+    }
 }
@@ -29,9 +29,41 @@ package eu.matejkormuth.fbrepostbot.facebook;
 public class FacebookException extends Exception {
     static final long serialVersionUID = 1L;
 
+    // Graph API error codes of rate limit errors.
+    private static final int[] RATE_LIMIT_CODES = {4, 17, 32, 613};
+    // Graph API error codes of temporary errors (unknown error, service unavailable).
+    private static final int[] TRANSIENT_CODES = {1, 2};
+
+    // Error code returned by Graph API, 0 if unknown.
+    private int code = 0;
+    // HTTP status of response, 0 if no response was received.
+    private int httpStatus = 0;
+    private Kind kind = Kind.PERMANENT;
+
     public FacebookException() {
     }
 
+    public FacebookException(String message, Throwable cause, Kind kind) {
+        super(message, cause);
+        this.kind = kind;
+    }
+
+    /**
+     * Creates exception from error returned by Graph API and classifies it by its
+     * error code and HTTP status.
+     *
+     * @param message     message of exception
+     * @param code        Graph API error code, 0 if unknown
+     * @param httpStatus  HTTP status of response
+     * @param isTransient whether Graph API marked the error as transient
+     */
+    public FacebookException(String message, int code, int httpStatus, boolean isTransient) {
+        super(message);
+        this.code = code;
+        this.httpStatus = httpStatus;
+        this.kind = classify(code, httpStatus, isTransient);
+    }
+
     public FacebookException(String message) {
         super(message);
     }
@@ -47,4 +79,49 @@ public class FacebookException extends Exception {
     public FacebookException(String message, Throwable cause, boolean enableSuppression, boolean writableStackTrace) {
         super(message, cause, enableSuppression, writableStackTrace);
     }
+
+    private static Kind classify(int code, int httpStatus, boolean isTransient) {
+        for (int rateLimitCode : RATE_LIMIT_CODES) {
+            if (code == rateLimitCode) {
+                return Kind.RATE_LIMITED;
+            }
+        }
+        for (int transientCode : TRANSIENT_CODES) {
+            if (code == transientCode) {
+                return Kind.TRANSIENT;
+            }
+        }
+        return isTransient || httpStatus >= 500 ? Kind.TRANSIENT : Kind.PERMANENT;
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    public int getHttpStatus() {
+        return httpStatus;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public enum Kind {
+        /**
+         * Request may succeed when repeated (network error, server error).
+         */
+        TRANSIENT,
+        /**
+         * Request was rejected because of rate limit.
+         */
+        RATE_LIMITED,
+        /**
+         * Request will fail again (invalid request, missing permission, expired token).
+         */
+        PERMANENT,
+        /**
+         * Request was not sent because circuit breaker of its endpoint is open.
+         */
+        REJECTED
+    }
 }
@@ -29,6 +29,8 @@ package eu.matejkormuth.fbrepostbot.facebook;
 import eu.matejkormuth.fbrepostbot.JsonSerializable;
 import org.json.JSONObject;
 
+import java.util.concurrent.CompletableFuture;
+
 public class FacebookPage implements JsonSerializable {
     private long id;
     private String username;
@@ -78,10 +80,16 @@ public class FacebookPage implements JsonSerializable {
     }
 
     public void fetchDetails(FacebookAPI api) throws FacebookException {
-        JSONObject details = api.createGetRequest(api.getMainAccessToken())
-                .url(this.id + "?fields=name")
-                .send();
+        // Details of pages are not urgent, publishing goes first.
+        BatchRequest batch = api.createBatchRequest(api.getMainAccessToken())
+                .priority(Throttler.Priority.LOW);
+        CompletableFuture<Void> details = requestDetails(batch);
+        batch.execute();
+        BatchRequest.await(details);
+    }
 
-        this.username = details.getString("name");
+    public CompletableFuture<Void> requestDetails(BatchRequest batch) {
+        return batch.get(this.id + "?fields=name")
+                .thenAccept(details -> this.username = details.getString("name"));
     }
 }
@@ -26,16 +26,12 @@
  */
 package eu.matejkormuth.fbrepostbot.facebook;
 
-import eu.matejkormuth.fbrepostbot.PathHelper;
 import eu.matejkormuth.fbrepostbot.PostType;
 import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.net.URL;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
+import java.util.concurrent.CompletableFuture;
 
 public class FacebookPost {
 
@@ -45,6 +41,14 @@ public class FacebookPost {
     private PostType type;
     private String message;
     private long objectId;
+    // Creation time in seconds since epoch.
+    private long createdTime;
+    // URL of attachment, if it was received together with post details.
+    private String attachmentSource;
+    // SHA-256 hash of stored attachment.
+    private String attachmentHash;
+    // Perceptual hash of photo, null if it was not computed.
+    private Long photoHash;
     private boolean requestedDetails = false;
 
     public String getId() {
@@ -67,6 +71,22 @@ public class FacebookPost {
         return objectId;
     }
 
+    public long getCreatedTime() {
+        return createdTime;
+    }
+
+    public String getAttachmentSource() {
+        return attachmentSource;
+    }
+
+    public String getAttachmentHash() {
+        return attachmentHash;
+    }
+
+    public Long getPhotoHash() {
+        return photoHash;
+    }
+
     public boolean isRequestedDetails() {
         return requestedDetails;
     }
@@ -83,20 +103,43 @@ public class FacebookPost {
         this.objectId = objectId;
     }
 
+    public void setCreatedTime(long createdTime) {
+        this.createdTime = createdTime;
+    }
+
+    public void setAttachmentSource(String attachmentSource) {
+        this.attachmentSource = attachmentSource;
+    }
+
+    public void setAttachmentHash(String attachmentHash) {
+        this.attachmentHash = attachmentHash;
+    }
+
+    public void setPhotoHash(Long photoHash) {
+        this.photoHash = photoHash;
+    }
+
     public void setRequestedDetails(boolean requestedDetails) {
         this.requestedDetails = requestedDetails;
     }
 
     public void fetchDetails(FacebookAPI api, AccessToken pageAccessToken) throws FacebookException {
+        BatchRequest batch = api.createBatchRequest(pageAccessToken);
+        CompletableFuture<Void> details = requestDetails(batch);
+        batch.execute();
+        BatchRequest.await(details);
+    }
+
+    public CompletableFuture<Void> requestDetails(BatchRequest batch) {
         if (this.id.isEmpty()) {
             throw new IllegalStateException("To fetch post details, the post must have its id.");
         }
 
-        JSONObject postDetails = api
-                .createGetRequest(pageAccessToken)
-                .url(this.id + "?fields=type,message,status_type,object_id")
-                .send();
+        return batch.get(this.id + "?fields=type,message,status_type,object_id")
+                .thenAccept(this::applyDetails);
+    }
 
+    private void applyDetails(JSONObject postDetails) {
         if (postDetails.has("message")) {
             this.message = postDetails.getString("message");
         }
@@ -116,8 +159,21 @@ public class FacebookPost {
         return objectId != 0;
     }
 
-    public void fetchAttachment(PathHelper pathHelper, FacebookAPI api, AccessToken pageAccessToken)
-            throws FacebookException {
+    public String fetchAttachmentSource(FacebookAPI api, AccessToken pageAccessToken) throws FacebookException {
+        BatchRequest batch = api.createBatchRequest(pageAccessToken);
+        CompletableFuture<String> attachment = requestAttachment(batch);
+        batch.execute();
+        return BatchRequest.await(attachment);
+    }
+
+    /**
+     * Requests URL of attachment of this post. If URL is already known (it was received
+     * with post details), no request is added to batch.
+     *
+     * @param batch batch to add request to
+     * @return future completed with URL of attachment
+     */
+    public CompletableFuture<String> requestAttachment(BatchRequest batch) {
         if (this.id.isEmpty()) {
             throw new IllegalStateException("To fetch post details, the post must have its id.");
         }
@@ -126,32 +182,12 @@ public class FacebookPost {
             throw new IllegalStateException("To fetch attachment, the post must have attachment.");
         }
 
-        // Fetch details about attachement.
-        JSONObject postAttachment = api
-                .createGetRequest(pageAccessToken)
-                .url(this.objectId + "?fields=source")
-                .send();
-
-        // Process attachment by it's type.
-        switch (this.type) {
-            case PHOTO:
-                downloadPhoto(pathHelper, postAttachment);
-                break;
+        if (this.attachmentSource != null) {
+            return CompletableFuture.completedFuture(this.attachmentSource);
         }
-    }
 
-    private void downloadPhoto(PathHelper pathHelper, JSONObject postAttachment) throws FacebookException {
-        String photoUrl = postAttachment.getString("source");
-        Path targetFile = pathHelper.getPublicPath(PathHelper.NamingConventions.getPhotoName(this.objectId));
-
-        // Download photo.
-        try {
-            log.info("Downloading post attachment to {}.jpg...", this.objectId);
-            URL website = new URL(photoUrl);
-            Files.createDirectories(targetFile.getParent());
-            Files.copy(website.openStream(), targetFile, StandardCopyOption.REPLACE_EXISTING);
-        } catch (Exception e) {
-            throw new FacebookException("Error during photo download: ", e);
-        }
+        // Fetch details about attachement.
+        return batch.get(this.objectId + "?fields=source")
+                .thenApply(postAttachment -> postAttachment.getString("source"));
     }
 }
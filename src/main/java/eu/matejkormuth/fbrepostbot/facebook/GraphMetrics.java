@@ -0,0 +1,119 @@
+/**
+ * Facebook Re-post Bot - Bot that checks some pages and copies posts to other pages.
+ * Copyright (c) 2015, Matej Kormuth <http://www.github.com/dobrakmato>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.matejkormuth.fbrepostbot.facebook;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of Graph API requests and circuit breakers for each class of endpoints.
+ */
+public class GraphMetrics {
+
+    private static final Logger log = LoggerFactory.getLogger(GraphMetrics.class);
+
+    private final Map<Endpoint, Counters> counters = new EnumMap<>(Endpoint.class);
+
+    GraphMetrics(HttpClientSettings settings) {
+        for (Endpoint endpoint : Endpoint.values()) {
+            counters.put(endpoint, new Counters(new CircuitBreaker(endpoint, settings.getBreakerFailureThreshold(),
+                    settings.getBreakerOpenTime(), TimeUnit.SECONDS)));
+        }
+    }
+
+    CircuitBreaker getBreaker(Endpoint endpoint) {
+        return counters.get(endpoint).breaker;
+    }
+
+    void recordRequest(Endpoint endpoint) {
+        counters.get(endpoint).requests.increment();
+    }
+
+    void recordFailure(Endpoint endpoint) {
+        counters.get(endpoint).failures.increment();
+    }
+
+    void recordRetry(Endpoint endpoint) {
+        counters.get(endpoint).retries.increment();
+    }
+
+    void recordRejection(Endpoint endpoint) {
+        counters.get(endpoint).rejections.increment();
+    }
+
+    public long getRequests(Endpoint endpoint) {
+        return counters.get(endpoint).requests.sum();
+    }
+
+    public long getFailures(Endpoint endpoint) {
+        return counters.get(endpoint).failures.sum();
+    }
+
+    public long getRetries(Endpoint endpoint) {
+        return counters.get(endpoint).retries.sum();
+    }
+
+    public long getRejections(Endpoint endpoint) {
+        return counters.get(endpoint).rejections.sum();
+    }
+
+    public CircuitBreaker.State getBreakerState(Endpoint endpoint) {
+        return counters.get(endpoint).breaker.getState();
+    }
+
+    /**
+     * Logs counters (since start) of endpoints which were used.
+     */
+    public void log() {
+        for (Endpoint endpoint : Endpoint.values()) {
+            if (getRequests(endpoint) == 0 && getRejections(endpoint) == 0) {
+                continue;
+            }
+
+            log.info("Graph API {} requests: {} sent, {} failed, {} retried, {} rejected, circuit breaker {}.",
+                    endpoint, getRequests(endpoint), getFailures(endpoint), getRetries(endpoint),
+                    getRejections(endpoint), getBreakerState(endpoint));
+        }
+    }
+
+    private static class Counters {
+        private final CircuitBreaker breaker;
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder retries = new LongAdder();
+        private final LongAdder rejections = new LongAdder();
+
+        private Counters(CircuitBreaker breaker) {
+            this.breaker = breaker;
+        }
+    }
+}
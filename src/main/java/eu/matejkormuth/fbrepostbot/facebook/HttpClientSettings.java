@@ -0,0 +1,183 @@
+/**
+ * Facebook Re-post Bot - Bot that checks some pages and copies posts to other pages.
+ * Copyright (c) 2015, Matej Kormuth <http://www.github.com/dobrakmato>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.matejkormuth.fbrepostbot.facebook;
+
+import java.util.Properties;
+
+/**
+ * Settings of pooled HTTP client shared by all requests to Graph API.
+ */
+public class HttpClientSettings {
+
+    // Maximum number of open connections in pool.
+    private int maxConnections = 64;
+    // Maximum number of open connections to one host (graph.facebook.com).
+    private int maxConnectionsPerRoute = 32;
+    // How long to keep idle connection alive if server does not specify it (in seconds).
+    private long keepAlive = 60;
+    // Idle connections older than this are closed by evictor (in seconds).
+    private long maxIdleTime = 90;
+    // Number of connections opened at boot.
+    private int prewarmConnections = 4;
+    // Timeouts (in milliseconds).
+    private int connectTimeout = 10000;
+    private int socketTimeout = 30000;
+    // Maximum size of downloaded attachment (in bytes).
+    private long downloadMaxSize = 32 * 1024 * 1024;
+    // Maximum duration of one attachment download (in seconds).
+    private long downloadTimeout = 120;
+    // Maximum number of bytes of all attachments being downloaded at once.
+    private long downloadMaxInFlightBytes = 64 * 1024 * 1024;
+    // Rate limits of Graph API calls (calls per second) per access token and per application.
+    private double throttleRate = 5;
+    private double throttleAppRate = 20;
+    // Number of calls which can be made at once per access token.
+    private double throttleBurst = 50;
+    // Maximum number of attempts of one request and delays between them (in milliseconds).
+    private int retryMaxAttempts = 3;
+    private long retryBaseDelay = 500;
+    private long retryMaxDelay = 10000;
+    // Number of consecutive failures which open circuit breaker and how long it stays open (in seconds).
+    private int breakerFailureThreshold = 5;
+    private long breakerOpenTime = 60;
+
+    public HttpClientSettings() {
+    }
+
+    public static HttpClientSettings fromProperties(Properties properties) {
+        HttpClientSettings settings = new HttpClientSettings();
+        settings.maxConnections = Integer.parseInt(properties.getProperty("http.maxConnections",
+                String.valueOf(settings.maxConnections)));
+        settings.maxConnectionsPerRoute = Integer.parseInt(properties.getProperty("http.maxConnectionsPerRoute",
+                String.valueOf(settings.maxConnectionsPerRoute)));
+        settings.keepAlive = Long.parseLong(properties.getProperty("http.keepAlive",
+                String.valueOf(settings.keepAlive)));
+        settings.maxIdleTime = Long.parseLong(properties.getProperty("http.maxIdleTime",
+                String.valueOf(settings.maxIdleTime)));
+        settings.prewarmConnections = Integer.parseInt(properties.getProperty("http.prewarmConnections",
+                String.valueOf(settings.prewarmConnections)));
+        settings.connectTimeout = Integer.parseInt(properties.getProperty("http.connectTimeout",
+                String.valueOf(settings.connectTimeout)));
+        settings.socketTimeout = Integer.parseInt(properties.getProperty("http.socketTimeout",
+                String.valueOf(settings.socketTimeout)));
+        settings.downloadMaxSize = Long.parseLong(properties.getProperty("http.download.maxSize",
+                String.valueOf(settings.downloadMaxSize)));
+        settings.downloadTimeout = Long.parseLong(properties.getProperty("http.download.timeout",
+                String.valueOf(settings.downloadTimeout)));
+        settings.downloadMaxInFlightBytes = Long.parseLong(properties.getProperty("http.download.maxInFlightBytes",
+                String.valueOf(settings.downloadMaxInFlightBytes)));
+        settings.throttleRate = Double.parseDouble(properties.getProperty("http.throttle.rate",
+                String.valueOf(settings.throttleRate)));
+        settings.throttleAppRate = Double.parseDouble(properties.getProperty("http.throttle.appRate",
+                String.valueOf(settings.throttleAppRate)));
+        settings.throttleBurst = Double.parseDouble(properties.getProperty("http.throttle.burst",
+                String.valueOf(settings.throttleBurst)));
+        settings.retryMaxAttempts = Integer.parseInt(properties.getProperty("http.retry.maxAttempts",
+                String.valueOf(settings.retryMaxAttempts)));
+        settings.retryBaseDelay = Long.parseLong(properties.getProperty("http.retry.baseDelay",
+                String.valueOf(settings.retryBaseDelay)));
+        settings.retryMaxDelay = Long.parseLong(properties.getProperty("http.retry.maxDelay",
+                String.valueOf(settings.retryMaxDelay)));
+        settings.breakerFailureThreshold = Integer.parseInt(properties.getProperty("http.breaker.failureThreshold",
+                String.valueOf(settings.breakerFailureThreshold)));
+        settings.breakerOpenTime = Long.parseLong(properties.getProperty("http.breaker.openTime",
+                String.valueOf(settings.breakerOpenTime)));
+        return settings;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public int getMaxConnectionsPerRoute() {
+        return maxConnectionsPerRoute;
+    }
+
+    public long getKeepAlive() {
+        return keepAlive;
+    }
+
+    public long getMaxIdleTime() {
+        return maxIdleTime;
+    }
+
+    public int getPrewarmConnections() {
+        return prewarmConnections;
+    }
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public int getSocketTimeout() {
+        return socketTimeout;
+    }
+
+    public long getDownloadMaxSize() {
+        return downloadMaxSize;
+    }
+
+    public long getDownloadTimeout() {
+        return downloadTimeout;
+    }
+
+    public long getDownloadMaxInFlightBytes() {
+        return downloadMaxInFlightBytes;
+    }
+
+    public double getThrottleRate() {
+        return throttleRate;
+    }
+
+    public double getThrottleAppRate() {
+        return throttleAppRate;
+    }
+
+    public double getThrottleBurst() {
+        return throttleBurst;
+    }
+
+    public int getRetryMaxAttempts() {
+        return retryMaxAttempts;
+    }
+
+    public long getRetryBaseDelay() {
+        return retryBaseDelay;
+    }
+
+    public long getRetryMaxDelay() {
+        return retryMaxDelay;
+    }
+
+    public int getBreakerFailureThreshold() {
+        return breakerFailureThreshold;
+    }
+
+    public long getBreakerOpenTime() {
+        return breakerOpenTime;
+    }
+}
@@ -0,0 +1,186 @@
+/**
+ * Facebook Re-post Bot - Bot that checks some pages and copies posts to other pages.
+ * Copyright (c) 2015, Matej Kormuth <http://www.github.com/dobrakmato>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.matejkormuth.fbrepostbot.facebook;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+
+/**
+ * Helpers for reading Graph API responses from streaming JSON parser, so callers
+ * can pick only fields they need without building tree of whole response.
+ * <p>
+ * Handlers get parser positioned at first token of value. Handler that reads the value
+ * must leave parser at last token of the value (end of object or array, or the scalar
+ * itself).
+ */
+public final class JsonStreams {
+
+    static final JsonFactory FACTORY = new JsonFactory();
+
+    private JsonStreams() {
+    }
+
+    /**
+     * Calls handler for each field of object the parser is positioned at.
+     *
+     * @param parser  parser positioned at start of object
+     * @param handler handler of fields
+     * @throws IOException when response can't be read or parser is not at start of object
+     */
+    public static void forEachField(JsonParser parser, FieldHandler handler) throws IOException {
+        expect(parser, JsonToken.START_OBJECT);
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            parser.nextToken();
+            if (!handler.field(name, parser)) {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    /**
+     * Calls handler for each element of array the parser is positioned at.
+     *
+     * @param parser  parser positioned at start of array
+     * @param handler handler of elements, must read whole element
+     * @throws IOException when response can't be read or parser is not at start of array
+     */
+    public static void forEachElement(JsonParser parser, ElementHandler handler) throws IOException {
+        expect(parser, JsonToken.START_ARRAY);
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            if (parser.currentToken() == null) {
+                throw new IOException("Unexpected end of response.");
+            }
+            handler.element(parser);
+        }
+    }
+
+    /**
+     * Reads text of field nested in object the parser is positioned at, for example
+     * {@code readText(parser, "media", "image", "src")}. Whole object is consumed.
+     *
+     * @param parser parser positioned at start of object
+     * @param path   names of nested fields
+     * @return text of the field or null if it is not present
+     * @throws IOException when response can't be read
+     */
+    public static String readText(JsonParser parser, String... path) throws IOException {
+        return readText(parser, path, 0);
+    }
+
+    private static String readText(JsonParser parser, String[] path, int depth) throws IOException {
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return null;
+        }
+
+        String[] text = {null};
+        forEachField(parser, (name, p) -> {
+            if (!name.equals(path[depth])) {
+                return false;
+            }
+            text[0] = depth == path.length - 1 ? p.getValueAsString() : readText(p, path, depth + 1);
+            // Nested objects were already consumed, objects in place of scalar are skipped.
+            return depth < path.length - 1;
+        });
+        return text[0];
+    }
+
+    /**
+     * Builds JSON object of (small) part of response the parser is positioned at.
+     *
+     * @param parser parser positioned at start of object
+     * @return read object
+     * @throws IOException when response can't be read
+     */
+    public static JSONObject readObject(JsonParser parser) throws IOException {
+        JSONObject object = new JSONObject();
+        forEachField(parser, (name, p) -> {
+            object.put(name, readValue(p));
+            return true;
+        });
+        return object;
+    }
+
+    private static Object readValue(JsonParser parser) throws IOException {
+        switch (parser.currentToken()) {
+            case START_OBJECT:
+                return readObject(parser);
+            case START_ARRAY:
+                JSONArray array = new JSONArray();
+                forEachElement(parser, p -> array.put(readValue(p)));
+                return array;
+            case VALUE_NUMBER_INT:
+                return parser.getLongValue();
+            case VALUE_NUMBER_FLOAT:
+                return parser.getDoubleValue();
+            case VALUE_TRUE:
+                return true;
+            case VALUE_FALSE:
+                return false;
+            case VALUE_NULL:
+                return JSONObject.NULL;
+            default:
+                return parser.getText();
+        }
+    }
+
+    private static void expect(JsonParser parser, JsonToken token) throws IOException {
+        if (parser.currentToken() != token) {
+            throw new IOException("Expected " + token + " but got " + parser.currentToken()
+                    + " at " + parser.getCurrentLocation());
+        }
+    }
+
+    /**
+     * Handler of object fields.
+     */
+    @FunctionalInterface
+    public interface FieldHandler {
+        /**
+         * @param name   name of field
+         * @param parser parser positioned at value of the field
+         * @return true if handler read the value, false if parser was not touched and
+         * the value should be skipped
+         * @throws IOException when response can't be read
+         */
+        boolean field(String name, JsonParser parser) throws IOException;
+    }
+
+    /**
+     * Handler of array elements.
+     */
+    @FunctionalInterface
+    public interface ElementHandler {
+        void element(JsonParser parser) throws IOException;
+    }
+}
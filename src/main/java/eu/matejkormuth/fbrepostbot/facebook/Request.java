@@ -26,8 +26,9 @@
  */
 package eu.matejkormuth.fbrepostbot.facebook;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.google.common.base.Charsets;
-import com.google.common.io.CharStreams;
 import org.apache.http.HttpEntity;
 import org.apache.http.NameValuePair;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
@@ -35,28 +36,53 @@ import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpRequestBase;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.mime.HttpMultipartMode;
+import org.apache.http.entity.mime.MultipartEntityBuilder;
+import org.apache.http.entity.mime.content.FileBody;
 import org.apache.http.message.BasicNameValuePair;
 import org.apache.http.util.EntityUtils;
+import org.json.JSONArray;
 import org.json.JSONObject;
+import org.json.JSONTokener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
 
 public class Request {
     private static final Logger log = LoggerFactory.getLogger(Request.class);
+    private static final ContentType TEXT_UTF_8 = ContentType.create("text/plain", Charsets.UTF_8);
+    private final FacebookAPI api;
     private final String method;
-    private final String accessToken;
+    private final AccessToken accessToken;
     private String url = "";
     private List<NameValuePair> postData;
+    // Files uploaded as parts of multipart request.
+    private Map<String, FileBody> files;
+    // Publishing has priority over reading.
+    private Throttler.Priority priority;
+    // Number of Graph API calls made by this request.
+    private int cost = 1;
+    // Class of endpoint, found from url if not specified.
+    private Endpoint endpoint;
+    // Whether request can be repeated when it might have been already processed.
+    private boolean idempotent;
 
-    Request(String method, String accessToken) {
+    Request(FacebookAPI api, String method, AccessToken accessToken) {
+        this.api = api;
         this.method = method;
         this.accessToken = accessToken;
+        this.priority = method.equals("POST") ? Throttler.Priority.HIGH : Throttler.Priority.NORMAL;
+        this.idempotent = method.equals("GET");
     }
 
     public Request url(String url) {
@@ -64,6 +90,17 @@ public class Request {
         return this;
     }
 
+    /**
+     * Sets absolute URL of request, for example URL of next page received in paging object.
+     *
+     * @param url absolute url
+     * @return this request
+     */
+    public Request absoluteUrl(String url) {
+        this.url = url;
+        return this;
+    }
+
     public Request data(String key, String value) {
         if (this.postData == null) {
             this.postData = new ArrayList<>();
@@ -72,21 +109,194 @@ public class Request {
         return this;
     }
 
+    /**
+     * Adds file to POST request, which is then sent as multipart request. File is streamed
+     * from disk with fixed-size buffer when request is sent, so it is not loaded into memory.
+     *
+     * @param key         name of part
+     * @param file        path to file
+     * @param contentType content type of file
+     * @return this request
+     */
+    public Request file(String key, Path file, String contentType) {
+        if (this.files == null) {
+            this.files = new LinkedHashMap<>();
+        }
+        this.files.put(key, new FileBody(file.toFile(), ContentType.create(contentType),
+                file.getFileName().toString()));
+        return this;
+    }
+
+    public Request priority(Throttler.Priority priority) {
+        this.priority = priority;
+        return this;
+    }
+
+    /**
+     * Sets number of Graph API calls made by this request, for example size of batch.
+     *
+     * @param cost number of calls
+     * @return this request
+     */
+    public Request cost(int cost) {
+        this.cost = cost;
+        return this;
+    }
+
+    public Request endpoint(Endpoint endpoint) {
+        this.endpoint = endpoint;
+        return this;
+    }
+
+    public Request idempotent(boolean idempotent) {
+        this.idempotent = idempotent;
+        return this;
+    }
+
     private void appendAccessToken() {
+        // Paging URLs already contain access token.
+        if (url.contains("access_token=")) {
+            return;
+        }
+
         if (url.contains("?")) {
-            url += "&access_token=" + accessToken;
+            url += "&access_token=" + accessToken.getToken();
         } else {
-            url += "?access_token=" + accessToken;
+            url += "?access_token=" + accessToken.getToken();
         }
     }
 
     public JSONObject send() throws FacebookException {
-        try {
-            // Append access token to URL.
-            this.appendAccessToken();
+        Object value = sendForValue();
+        if (!(value instanceof JSONObject)) {
+            throw new FacebookException("Expected JSON object in response to " + this.method + " request!");
+        }
+        return (JSONObject) value;
+    }
+
+    /**
+     * Sends request and reads response object field by field using streaming parser,
+     * without building tree of whole response. Error response is detected and thrown
+     * as exception.
+     * <p>
+     * Handler is called again when failed request is repeated, so it must not collect
+     * results. Use {@link #send(Supplier, ResultHandler)} for that.
+     *
+     * @param handler handler of top-level fields of response
+     * @throws FacebookException when request fails or response contains error
+     */
+    public void send(JsonStreams.FieldHandler handler) throws FacebookException {
+        send(() -> null, (result, name, parser) -> handler.field(name, parser));
+    }
+
+    /**
+     * Sends request and reads response object field by field into result using streaming
+     * parser. New result is created for each attempt, so fields read before failure of
+     * repeated attempt are discarded.
+     *
+     * @param resultFactory factory of empty result
+     * @param handler       handler of top-level fields of response
+     * @param <T>           type of result
+     * @return result of successful attempt
+     * @throws FacebookException when request fails or response contains error
+     */
+    public <T> T send(Supplier<T> resultFactory, ResultHandler<T> handler) throws FacebookException {
+        return execute((content, status) -> {
+            T result = resultFactory.get();
+            try (JsonParser parser = JsonStreams.FACTORY.createParser(content)) {
+                if (parser.nextToken() != JsonToken.START_OBJECT) {
+                    throw new FacebookException("Expected JSON object in response to " + this.method + " request!");
+                }
+
+                JSONObject[] error = {null};
+                JsonStreams.forEachField(parser, (name, p) -> {
+                    if (name.equals("error") && p.currentToken() == JsonToken.START_OBJECT) {
+                        error[0] = JsonStreams.readObject(p);
+                        return true;
+                    }
+                    return handler.field(result, name, p);
+                });
+
+                if (error[0] != null) {
+                    throw createApiException(error[0], status);
+                }
+            }
+            return result;
+        });
+    }
+
+    // Used by batch requests, which respond with JSON array.
+    JSONArray sendForArray() throws FacebookException {
+        Object value = sendForValue();
+        if (!(value instanceof JSONArray)) {
+            throw new FacebookException("Expected JSON array in response to " + this.method + " request!");
+        }
+        return (JSONArray) value;
+    }
 
-            // Create HttpClient.
-            CloseableHttpClient httpclient = HttpClients.createDefault();
+    private Object sendForValue() throws FacebookException {
+        return execute((content, status) -> {
+            Object value = new JSONTokener(new InputStreamReader(content, Charsets.UTF_8)).nextValue();
+
+            // Check for errors.
+            if (value instanceof JSONObject && ((JSONObject) value).has("error")) {
+                throw createApiException(((JSONObject) value).getJSONObject("error"), status);
+            }
+
+            return value;
+        });
+    }
+
+    /**
+     * Sends request and repeats it when it fails and retry policy allows it. Requests
+     * fail immediately when circuit breaker of their endpoint is open.
+     */
+    private <T> T execute(ResponseReader<T> reader) throws FacebookException {
+        // Append access token to URL.
+        this.appendAccessToken();
+
+        Endpoint endpoint = this.endpoint != null ? this.endpoint : Endpoint.classify(this.url);
+        GraphMetrics metrics = api.getMetrics();
+        CircuitBreaker breaker = metrics.getBreaker(endpoint);
+        for (int attempt = 1; ; attempt++) {
+            if (!breaker.tryAcquire()) {
+                metrics.recordRejection(endpoint);
+                throw new FacebookException("Circuit breaker of " + endpoint + " requests is open.", null,
+                        FacebookException.Kind.REJECTED);
+            }
+
+            try {
+                T result = executeOnce(reader, endpoint);
+                breaker.record(null);
+                return result;
+            } catch (FacebookException e) {
+                breaker.record(e);
+                if (e.getKind() == FacebookException.Kind.REJECTED
+                        || !api.getRetryPolicy().shouldRetry(e, attempt, idempotent)) {
+                    throw e;
+                }
+
+                metrics.recordRetry(endpoint);
+                if (e.getKind() == FacebookException.Kind.RATE_LIMITED) {
+                    api.getThrottler().pause(accessToken, e.getCode());
+                }
+
+                long delay = api.getRetryPolicy().getDelay(attempt);
+                log.debug("{} request to {} failed ({}), retrying in {} ms.", this.method, endpoint,
+                        e.getMessage(), delay);
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private <T> T executeOnce(ResponseReader<T> reader, Endpoint endpoint) throws FacebookException {
+        int status = 0;
+        try {
             HttpRequestBase request;
             CloseableHttpResponse response = null;
             // Create request.
@@ -94,40 +304,92 @@ public class Request {
                 request = new HttpGet(this.url);
             } else if (this.method == "POST") {
                 request = new HttpPost(this.url);
-                ((HttpPost) request).setEntity(new UrlEncodedFormEntity(this.postData, Charsets.UTF_8));
+                ((HttpPost) request).setEntity(createEntity());
             } else {
                 throw new IllegalStateException("Unsupported method " + this.method);
             }
 
-            // Read response.
+            // Read response. Shared client is not closed, connection is
+            // returned to pool when response is closed.
+            HttpEntity entity = null;
             try {
-                response = httpclient.execute(request);
-                HttpEntity entity = response.getEntity();
-
-                String responseString = CharStreams.toString(new InputStreamReader(entity.getContent(),
-                        Charsets.UTF_8));
-                JSONObject obj = new JSONObject(responseString);
-
-                // Check for errors.
-                if (obj.has("error")) {
-                    JSONObject error = obj.getJSONObject("error");
-                    throw new FacebookException("API Exception: " + error.getString("type") + ": "
-                            + error.getString("message"));
-                }
-
-                // Ensure the entity is fully consumed.
-                EntityUtils.consume(entity);
-
-                return obj;
+                // Wait for rate limit instead of failing.
+                api.getThrottler().acquire(accessToken, priority, cost);
+                api.getMetrics().recordRequest(endpoint);
+                response = api.getHttpClient().execute(request);
+                api.getThrottler().update(accessToken, response);
+                status = response.getStatusLine().getStatusCode();
+                entity = response.getEntity();
+                return reader.read(entity.getContent(), status);
             } finally {
-                httpclient.close();
+                // Ensure the entity is fully consumed, so the connection can be reused.
+                EntityUtils.consumeQuietly(entity);
                 if (response != null) {
                     response.close();
                 }
             }
+        } catch (FacebookException e) {
+            if (e.getKind() != FacebookException.Kind.REJECTED) {
+                api.getMetrics().recordFailure(endpoint);
+            }
+            throw e;
         } catch (Exception e) {
-            throw new FacebookException("Nested exception: ", e);
+            api.getMetrics().recordFailure(endpoint);
+            // Network errors and unreadable responses of failing server are worth repeating.
+            boolean isTransient = e instanceof IOException || status >= 500;
+            throw new FacebookException("Nested exception: ", e, isTransient ? FacebookException.Kind.TRANSIENT
+                    : FacebookException.Kind.PERMANENT);
+        }
+    }
+
+    private HttpEntity createEntity() {
+        if (this.files == null) {
+            return new UrlEncodedFormEntity(this.postData, Charsets.UTF_8);
+        }
+
+        // Length of multipart entity is known in advance, so it is not sent chunked.
+        MultipartEntityBuilder builder = MultipartEntityBuilder.create()
+                .setMode(HttpMultipartMode.BROWSER_COMPATIBLE)
+                .setCharset(Charsets.UTF_8);
+        if (this.postData != null) {
+            for (NameValuePair pair : this.postData) {
+                // Form entity sends null value as bare key, multipart part must have a value.
+                if (pair.getValue() != null) {
+                    builder.addTextBody(pair.getName(), pair.getValue(), TEXT_UTF_8);
+                }
+            }
         }
+        for (Map.Entry<String, FileBody> file : this.files.entrySet()) {
+            builder.addPart(file.getKey(), file.getValue());
+        }
+        return builder.build();
     }
 
+    /**
+     * Handler of top-level fields of response, which stores their values to result.
+     *
+     * @param <T> type of result
+     */
+    @FunctionalInterface
+    public interface ResultHandler<T> {
+        /**
+         * @param result result of current attempt
+         * @param name   name of field
+         * @param parser parser positioned at value of the field
+         * @return true if handler read the value, false if parser was not touched and
+         * the value should be skipped
+         * @throws IOException when response can't be read
+         */
+        boolean field(T result, String name, JsonParser parser) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface ResponseReader<T> {
+        T read(InputStream content, int status) throws Exception;
+    }
+
+    static FacebookException createApiException(JSONObject error, int httpStatus) {
+        return new FacebookException("API Exception: " + error.optString("type") + ": "
+                + error.optString("message"), error.optInt("code"), httpStatus, error.optBoolean("is_transient"));
+    }
 }
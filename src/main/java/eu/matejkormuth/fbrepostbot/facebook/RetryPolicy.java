@@ -0,0 +1,92 @@
+/**
+ * Facebook Re-post Bot - Bot that checks some pages and copies posts to other pages.
+ * Copyright (c) 2015, Matej Kormuth <http://www.github.com/dobrakmato>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.matejkormuth.fbrepostbot.facebook;
+
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+
+import java.net.ConnectException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decides which failed requests are repeated and how long to wait before repeating them.
+ * Delays grow exponentially and are randomized (full jitter), so requests failed by one
+ * outage are not repeated all at once.
+ * <p>
+ * Requests that are not idempotent (publishing) are repeated only when they were surely
+ * not processed, that is when connection could not be opened or request was rejected
+ * because of rate limit.
+ */
+public class RetryPolicy {
+
+    private final int maxAttempts;
+    // Delays (in milliseconds).
+    private final long baseDelay;
+    private final long maxDelay;
+
+    public RetryPolicy(HttpClientSettings settings) {
+        this.maxAttempts = settings.getRetryMaxAttempts();
+        this.baseDelay = settings.getRetryBaseDelay();
+        this.maxDelay = settings.getRetryMaxDelay();
+    }
+
+    /**
+     * @param failure    exception thrown by request
+     * @param attempt    number of attempts made so far (starting with 1)
+     * @param idempotent whether request can be repeated when it might have been processed
+     * @return true if request should be repeated
+     */
+    public boolean shouldRetry(FacebookException failure, int attempt, boolean idempotent) {
+        if (attempt >= maxAttempts) {
+            return false;
+        }
+
+        switch (failure.getKind()) {
+            case RATE_LIMITED:
+                return true;
+            case TRANSIENT:
+                return idempotent || wasNotSent(failure);
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @param attempt number of attempts made so far (starting with 1)
+     * @return delay before next attempt (in milliseconds)
+     */
+    public long getDelay(int attempt) {
+        long cap = Math.min(maxDelay, baseDelay << Math.min(attempt - 1, 30));
+        return ThreadLocalRandom.current().nextLong(cap + 1);
+    }
+
+    private static boolean wasNotSent(FacebookException failure) {
+        Throwable cause = failure.getCause();
+        return cause instanceof ConnectException || cause instanceof ConnectTimeoutException
+                || cause instanceof ConnectionPoolTimeoutException;
+    }
+}
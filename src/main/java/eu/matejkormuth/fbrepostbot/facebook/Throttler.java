@@ -0,0 +1,257 @@
+/**
+ * Facebook Re-post Bot - Bot that checks some pages and copies posts to other pages.
+ * Copyright (c) 2015, Matej Kormuth <http://www.github.com/dobrakmato>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.matejkormuth.fbrepostbot.facebook;
+
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits rate of requests to Graph API with token bucket per access token and per
+ * application. Requests wait until their bucket has enough tokens instead of failing
+ * with rate limit error.
+ * <p>
+ * Rate of buckets is lowered when usage reported by Graph API in {@code X-App-Usage} and
+ * {@code X-Page-Usage} headers grows, and requests are paused when usage reaches 100 %.
+ * Low priority requests leave part of each bucket for requests with higher priority.
+ * Rate of zero disables the bucket.
+ */
+public class Throttler {
+
+    private static final Logger log = LoggerFactory.getLogger(Throttler.class);
+
+    // Usage (in percent) from which rate is lowered.
+    private static final double SLOWDOWN_USAGE = 50;
+    // Minimal fraction of configured rate.
+    private static final double MIN_RATE_FACTOR = 0.05;
+    // Requests are paused for this long when usage reaches 100 %.
+    private static final long PAUSE_DURATION = TimeUnit.MINUTES.toNanos(1);
+
+    private final double tokenRate;
+    private final double tokenBurst;
+    private final double appRate;
+    private final Map<String, TokenBucket> tokenBuckets = new ConcurrentHashMap<>();
+    private final Map<Long, TokenBucket> appBuckets = new ConcurrentHashMap<>();
+
+    public Throttler(HttpClientSettings settings) {
+        this.tokenRate = settings.getThrottleRate();
+        this.tokenBurst = settings.getThrottleBurst();
+        this.appRate = settings.getThrottleAppRate();
+    }
+
+    /**
+     * Waits until request with specified access token can be sent.
+     *
+     * @param token    access token of request
+     * @param priority priority of request
+     * @param cost     number of Graph API calls made by the request (size of batch)
+     * @throws FacebookException when interrupted while waiting
+     */
+    public void acquire(AccessToken token, Priority priority, int cost) throws FacebookException {
+        try {
+            // Application bucket is known only after details of token were fetched.
+            if (appRate > 0 && token.getAppId() != 0) {
+                getAppBucket(token.getAppId()).acquire(cost, priority);
+            }
+            if (tokenRate > 0) {
+                getTokenBucket(token).acquire(cost, priority);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FacebookException("Interrupted while waiting for rate limit.", e,
+                    FacebookException.Kind.REJECTED);
+        }
+    }
+
+    /**
+     * Adjusts rate of buckets of access token from usage headers of response.
+     *
+     * @param token    access token of request
+     * @param response response of Graph API
+     */
+    public void update(AccessToken token, HttpResponse response) {
+        double appUsage = parseUsage(response.getFirstHeader("X-App-Usage"));
+        double pageUsage = parseUsage(response.getFirstHeader("X-Page-Usage"));
+
+        boolean hasAppBucket = appRate > 0 && token.getAppId() != 0;
+        if (appUsage >= 0 && hasAppBucket) {
+            getAppBucket(token.getAppId()).setUsage(appUsage);
+        }
+
+        // Without application bucket, token bucket is slowed down by the higher of both usages.
+        double tokenUsage = hasAppBucket ? pageUsage : Math.max(appUsage, pageUsage);
+        if (tokenUsage >= 0 && tokenRate > 0) {
+            getTokenBucket(token).setUsage(tokenUsage);
+        }
+    }
+
+    /**
+     * Pauses requests after Graph API rejected request because of rate limit.
+     *
+     * @param token access token of rejected request
+     * @param code  error code returned by Graph API
+     */
+    public void pause(AccessToken token, int code) {
+        // Code 4 means limit of whole application was reached.
+        if (code == 4 && appRate > 0 && token.getAppId() != 0) {
+            getAppBucket(token.getAppId()).setUsage(100);
+        } else if (tokenRate > 0) {
+            getTokenBucket(token).setUsage(100);
+        }
+    }
+
+    private TokenBucket getTokenBucket(AccessToken token) {
+        return tokenBuckets.computeIfAbsent(token.getToken(), key -> new TokenBucket(tokenRate, tokenBurst));
+    }
+
+    private TokenBucket getAppBucket(long appId) {
+        // Application bucket allows burst of the same duration as token buckets.
+        double burst = tokenRate > 0 ? tokenBurst * appRate / tokenRate : tokenBurst;
+        return appBuckets.computeIfAbsent(appId, key -> new TokenBucket(appRate, burst));
+    }
+
+    // Returns highest of reported percentages, or -1 if header is missing or malformed.
+    private static double parseUsage(Header header) {
+        if (header == null) {
+            return -1;
+        }
+
+        try {
+            JSONObject usage = new JSONObject(header.getValue());
+            return Math.max(usage.optDouble("call_count", 0),
+                    Math.max(usage.optDouble("total_time", 0), usage.optDouble("total_cputime", 0)));
+        } catch (RuntimeException e) {
+            log.debug("Can't parse usage header {}.", header.getValue());
+            return -1;
+        }
+    }
+
+    public enum Priority {
+        /**
+         * Requests that can wait, for example refreshing names of pages.
+         */
+        LOW(0.5),
+        /**
+         * Checking feeds of pages.
+         */
+        NORMAL(0.1),
+        /**
+         * Publishing.
+         */
+        HIGH(0);
+
+        // Fraction of bucket which must be left for higher priorities.
+        private final double reserve;
+
+        Priority(double reserve) {
+            this.reserve = reserve;
+        }
+    }
+
+    private static class TokenBucket {
+        private final double rate;
+        private final double capacity;
+        // Monitors would pin carriers of waiting virtual threads.
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition changed = lock.newCondition();
+
+        private double tokens;
+        private double rateFactor = 1;
+        private long lastRefill = System.nanoTime();
+        private long pausedUntil = lastRefill;
+
+        private TokenBucket(double rate, double capacity) {
+            this.rate = rate;
+            this.capacity = Math.max(1, capacity);
+            this.tokens = this.capacity;
+        }
+
+        private void acquire(int cost, Priority priority) throws InterruptedException {
+            // Batches larger than bucket wait for full bucket.
+            double required = Math.min(capacity, cost + capacity * priority.reserve);
+            lock.lockInterruptibly();
+            try {
+                while (true) {
+                    long now = System.nanoTime();
+                    refill(now);
+
+                    if (now - pausedUntil >= 0 && tokens >= required) {
+                        tokens -= Math.min(cost, tokens);
+                        return;
+                    }
+
+                    long waitNanos = Math.max(pausedUntil - now,
+                            (long) ((required - tokens) / (rate * rateFactor) * TimeUnit.SECONDS.toNanos(1)));
+                    changed.awaitNanos(Math.max(waitNanos, TimeUnit.MILLISECONDS.toNanos(1)));
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void setUsage(double usage) {
+            lock.lock();
+            try {
+                updateUsage(usage);
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void updateUsage(double usage) {
+            refill(System.nanoTime());
+            if (usage >= 100) {
+                if (System.nanoTime() - pausedUntil >= 0) {
+                    log.warn("Graph API usage reached {} %, pausing requests for {} seconds.", usage,
+                            TimeUnit.NANOSECONDS.toSeconds(PAUSE_DURATION));
+                }
+                pausedUntil = System.nanoTime() + PAUSE_DURATION;
+                tokens = 0;
+                rateFactor = MIN_RATE_FACTOR;
+            } else if (usage > SLOWDOWN_USAGE) {
+                // Rate decreases linearly to minimum at 100 %.
+                rateFactor = Math.max(MIN_RATE_FACTOR, (100 - usage) / (100 - SLOWDOWN_USAGE));
+            } else {
+                rateFactor = 1;
+            }
+        }
+
+        private void refill(long now) {
+            tokens = Math.min(capacity, tokens + (now - lastRefill) * rate * rateFactor / TimeUnit.SECONDS.toNanos(1));
+            lastRefill = now;
+        }
+    }
+}
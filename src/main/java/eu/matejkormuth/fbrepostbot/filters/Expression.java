@@ -0,0 +1,311 @@
+/**
+ * Facebook Re-post Bot - Bot that checks some pages and copies posts to other pages.
+ * Copyright (c) 2015, Matej Kormuth <http://www.github.com/dobrakmato>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.matejkormuth.fbrepostbot.filters;
+
+import eu.matejkormuth.fbrepostbot.CachedPost;
+import eu.matejkormuth.fbrepostbot.PostType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Node of compiled filter expression. Each node knows estimated cost of its evaluation and
+ * probability that post passes it (selectivity), which are used to reorder operands of
+ * {@code and} and {@code or}, so cheap and decisive checks run first.
+ */
+public abstract class Expression implements Filter<CachedPost> {
+
+    // Estimated costs of leaf checks, relative to comparing one long.
+    static final double COST_CHEAP = 1;
+    static final double COST_CONTAINS = 20;
+    static final double COST_REGEX = 100;
+
+    abstract double getCost();
+
+    // Probability that post is valid.
+    abstract double getSelectivity();
+
+    /**
+     * Returns equivalent expression with reordered operands.
+     *
+     * @return optimized expression
+     */
+    Expression optimize() {
+        return this;
+    }
+
+    static class And extends Expression {
+        private final Expression[] operands;
+
+        And(List<Expression> operands) {
+            this.operands = operands.toArray(new Expression[operands.size()]);
+        }
+
+        @Override
+        public boolean isValid(CachedPost instance) {
+            for (Expression operand : operands) {
+                if (!operand.isValid(instance)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        double getCost() {
+            // Later operands run only when earlier ones passed.
+            double cost = 0;
+            double reached = 1;
+            for (Expression operand : operands) {
+                cost += reached * operand.getCost();
+                reached *= operand.getSelectivity();
+            }
+            return cost;
+        }
+
+        @Override
+        double getSelectivity() {
+            double selectivity = 1;
+            for (Expression operand : operands) {
+                selectivity *= operand.getSelectivity();
+            }
+            return selectivity;
+        }
+
+        @Override
+        Expression optimize() {
+            List<Expression> optimized = new ArrayList<>();
+            for (Expression operand : operands) {
+                optimized.add(operand.optimize());
+            }
+            // Cheapest operand which most likely fails goes first.
+            optimized.sort(Comparator.comparingDouble(e -> e.getCost() / Math.max(1e-6, 1 - e.getSelectivity())));
+            return new And(optimized);
+        }
+    }
+
+    static class Or extends Expression {
+        private final Expression[] operands;
+
+        Or(List<Expression> operands) {
+            this.operands = operands.toArray(new Expression[operands.size()]);
+        }
+
+        @Override
+        public boolean isValid(CachedPost instance) {
+            for (Expression operand : operands) {
+                if (operand.isValid(instance)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        double getCost() {
+            // Later operands run only when earlier ones failed.
+            double cost = 0;
+            double reached = 1;
+            for (Expression operand : operands) {
+                cost += reached * operand.getCost();
+                reached *= 1 - operand.getSelectivity();
+            }
+            return cost;
+        }
+
+        @Override
+        double getSelectivity() {
+            double failure = 1;
+            for (Expression operand : operands) {
+                failure *= 1 - operand.getSelectivity();
+            }
+            return 1 - failure;
+        }
+
+        @Override
+        Expression optimize() {
+            List<Expression> optimized = new ArrayList<>();
+            for (Expression operand : operands) {
+                optimized.add(operand.optimize());
+            }
+            // Cheapest operand which most likely passes goes first.
+            optimized.sort(Comparator.comparingDouble(e -> e.getCost() / Math.max(1e-6, e.getSelectivity())));
+            return new Or(optimized);
+        }
+    }
+
+    static class Not extends Expression {
+        private final Expression operand;
+
+        Not(Expression operand) {
+            this.operand = operand;
+        }
+
+        @Override
+        public boolean isValid(CachedPost instance) {
+            return !operand.isValid(instance);
+        }
+
+        @Override
+        double getCost() {
+            return operand.getCost();
+        }
+
+        @Override
+        double getSelectivity() {
+            return 1 - operand.getSelectivity();
+        }
+
+        @Override
+        Expression optimize() {
+            return new Not(operand.optimize());
+        }
+    }
+
+    static class SourceIn extends Expression {
+        // Sorted ids of source pages.
+        private final long[] sourcePageIds;
+
+        SourceIn(long[] sourcePageIds) {
+            this.sourcePageIds = sourcePageIds.clone();
+            Arrays.sort(this.sourcePageIds);
+        }
+
+        @Override
+        public boolean isValid(CachedPost instance) {
+            return Arrays.binarySearch(sourcePageIds, instance.getSourcePageId()) >= 0;
+        }
+
+        @Override
+        double getCost() {
+            return COST_CHEAP;
+        }
+
+        @Override
+        double getSelectivity() {
+            return 0.5;
+        }
+    }
+
+    static class Duplicate extends Expression {
+
+        @Override
+        public boolean isValid(CachedPost instance) {
+            return instance.isDuplicate();
+        }
+
+        @Override
+        double getCost() {
+            return COST_CHEAP;
+        }
+
+        @Override
+        double getSelectivity() {
+            return 0.1;
+        }
+    }
+
+    static class TypeIn extends Expression {
+        private final EnumSet<PostType> types;
+
+        TypeIn(EnumSet<PostType> types) {
+            this.types = types;
+        }
+
+        @Override
+        public boolean isValid(CachedPost instance) {
+            return types.contains(instance.getOriginalPost().getType());
+        }
+
+        @Override
+        double getCost() {
+            return COST_CHEAP;
+        }
+
+        @Override
+        double getSelectivity() {
+            return (double) types.size() / PostType.values().length;
+        }
+    }
+
+    static class MessageContains extends Expression {
+        // Folded text.
+        private final String text;
+
+        MessageContains(String text) {
+            this.text = TextFolding.fold(text);
+        }
+
+        @Override
+        public boolean isValid(CachedPost instance) {
+            return TextFolding.foldedMessage(instance).contains(text);
+        }
+
+        @Override
+        double getCost() {
+            return COST_CONTAINS;
+        }
+
+        @Override
+        double getSelectivity() {
+            return 0.2;
+        }
+    }
+
+    static class MessageMatches extends Expression {
+        private final Pattern pattern;
+        // Result is memoized in post under this key, so regex used by several target pages runs once.
+        private final String memoKey;
+
+        MessageMatches(Pattern pattern) {
+            this.pattern = pattern;
+            this.memoKey = "regex:" + pattern.flags() + "/" + pattern.pattern();
+        }
+
+        @Override
+        public boolean isValid(CachedPost instance) {
+            return instance.memoize(memoKey, post -> {
+                String message = post.getOriginalPost().getMessage();
+                return pattern.matcher(message != null ? message : "").find();
+            });
+        }
+
+        @Override
+        double getCost() {
+            return COST_REGEX;
+        }
+
+        @Override
+        double getSelectivity() {
+            return 0.2;
+        }
+    }
+}
@@ -0,0 +1,397 @@
+/**
+ * Facebook Re-post Bot - Bot that checks some pages and copies posts to other pages.
+ * Copyright (c) 2015, Matej Kormuth <http://www.github.com/dobrakmato>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.matejkormuth.fbrepostbot.filters;
+
+import eu.matejkormuth.fbrepostbot.CachedPost;
+import eu.matejkormuth.fbrepostbot.PostType;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Parses filter expressions to tree of {@link Expression} filters. Example:
+ * <pre>
+ * source in (123, 456) and type == PHOTO and not message ~ /giveaway/i
+ * </pre>
+ * Supported conditions are {@code source in (...)}, {@code source == id},
+ * {@code type in (...)}, {@code type == TYPE}, {@code message ~ /regex/flags},
+ * {@code message contains "text"} and {@code duplicate} (post was marked as
+ * near-duplicate by {@link eu.matejkormuth.fbrepostbot.DuplicateDetector}). Conditions
+ * can be combined with {@code and}, {@code or}, {@code not} and parentheses;
+ * {@code !=} negates {@code ==}.
+ * <p>
+ * Parsed expression is optimized, so evaluation order of operands may differ from
+ * their order in expression.
+ */
+public class ExpressionParser {
+
+    private final String input;
+    private int position = 0;
+    private Token token;
+
+    private ExpressionParser(String input) {
+        this.input = input;
+    }
+
+    /**
+     * Parses and optimizes expression.
+     *
+     * @param expression expression
+     * @return filter evaluating the expression
+     * @throws IllegalArgumentException when expression is invalid
+     */
+    public static Filter<CachedPost> parse(String expression) {
+        ExpressionParser parser = new ExpressionParser(expression);
+        parser.next(false);
+        Expression result = parser.parseOr();
+        if (parser.token.type != TokenType.END) {
+            throw parser.error("Unexpected " + parser.token.text);
+        }
+        return result.optimize();
+    }
+
+    private Expression parseOr() {
+        List<Expression> operands = new ArrayList<>();
+        operands.add(parseAnd());
+        while (isKeyword("or")) {
+            next(false);
+            operands.add(parseAnd());
+        }
+        return operands.size() == 1 ? operands.get(0) : new Expression.Or(operands);
+    }
+
+    private Expression parseAnd() {
+        List<Expression> operands = new ArrayList<>();
+        operands.add(parseUnary());
+        while (isKeyword("and")) {
+            next(false);
+            operands.add(parseUnary());
+        }
+        return operands.size() == 1 ? operands.get(0) : new Expression.And(operands);
+    }
+
+    private Expression parseUnary() {
+        if (isKeyword("not")) {
+            next(false);
+            return new Expression.Not(parseUnary());
+        }
+
+        if (token.type == TokenType.LEFT_PARENTHESIS) {
+            next(false);
+            Expression expression = parseOr();
+            expect(TokenType.RIGHT_PARENTHESIS);
+            return expression;
+        }
+
+        return parseCondition();
+    }
+
+    private Expression parseCondition() {
+        if (token.type != TokenType.IDENTIFIER) {
+            throw error("Expected condition but found " + token.text);
+        }
+        String identifier = token.text.toLowerCase();
+        next(false);
+
+        switch (identifier) {
+            case "source":
+                return parseSet(this::parseSourceIds, ids -> new Expression.SourceIn(toArray(ids)));
+            case "type":
+                return parseSet(this::parseType, types -> new Expression.TypeIn(EnumSet.copyOf(types)));
+            case "message":
+                return parseMessage();
+            case "duplicate":
+                return new Expression.Duplicate();
+            default:
+                throw error("Unknown identifier " + identifier);
+        }
+    }
+
+    // Parses "== value", "!= value" or "in (value, ...)".
+    private <V> Expression parseSet(ValueParser<V> valueParser, SetFactory<V> factory) {
+        List<V> values = new ArrayList<>();
+        if (token.type == TokenType.EQUALS || token.type == TokenType.NOT_EQUALS) {
+            boolean negate = token.type == TokenType.NOT_EQUALS;
+            next(false);
+            values.add(valueParser.parse());
+            Expression expression = factory.create(values);
+            return negate ? new Expression.Not(expression) : expression;
+        }
+
+        if (!isKeyword("in")) {
+            throw error("Expected ==, != or in but found " + token.text);
+        }
+        next(false);
+        expect(TokenType.LEFT_PARENTHESIS);
+        values.add(valueParser.parse());
+        while (token.type == TokenType.COMMA) {
+            next(false);
+            values.add(valueParser.parse());
+        }
+        expect(TokenType.RIGHT_PARENTHESIS);
+        return factory.create(values);
+    }
+
+    private Long parseSourceIds() {
+        if (token.type != TokenType.NUMBER) {
+            throw error("Expected page id but found " + token.text);
+        }
+        long id;
+        try {
+            id = Long.parseLong(token.text);
+        } catch (NumberFormatException e) {
+            throw error("Page id " + token.text + " is too large");
+        }
+        next(false);
+        return id;
+    }
+
+    private PostType parseType() {
+        if (token.type != TokenType.IDENTIFIER) {
+            throw error("Expected post type but found " + token.text);
+        }
+        try {
+            PostType type = PostType.valueOf(token.text.toUpperCase());
+            next(false);
+            return type;
+        } catch (IllegalArgumentException e) {
+            throw error("Unknown post type " + token.text);
+        }
+    }
+
+    private Expression parseMessage() {
+        if (token.type == TokenType.MATCHES) {
+            // Regex literal follows.
+            next(true);
+            if (token.type != TokenType.REGEX) {
+                throw error("Expected /regex/ but found " + token.text);
+            }
+            Pattern pattern = token.pattern;
+            next(false);
+            return new Expression.MessageMatches(pattern);
+        }
+
+        if (isKeyword("contains")) {
+            next(false);
+            if (token.type != TokenType.STRING) {
+                throw error("Expected \"text\" but found " + token.text);
+            }
+            String text = token.text;
+            next(false);
+            return new Expression.MessageContains(text);
+        }
+
+        throw error("Expected ~ or contains but found " + token.text);
+    }
+
+    private static long[] toArray(List<Long> list) {
+        long[] array = new long[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+
+    private boolean isKeyword(String keyword) {
+        return token.type == TokenType.IDENTIFIER && token.text.equalsIgnoreCase(keyword);
+    }
+
+    private void expect(TokenType type) {
+        if (token.type != type) {
+            throw error("Expected " + type.text + " but found " + token.text);
+        }
+        next(false);
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " at position " + token.start + " of expression: " + input);
+    }
+
+    // Reads next token, regex literal is allowed only after ~ operator.
+    private void next(boolean regex) {
+        while (position < input.length() && Character.isWhitespace(input.charAt(position))) {
+            position++;
+        }
+
+        int start = position;
+        if (position >= input.length()) {
+            token = new Token(TokenType.END, "end of expression", start);
+            return;
+        }
+
+        char c = input.charAt(position);
+        if (regex && c == '/') {
+            token = readRegex(start);
+        } else if (c == '"') {
+            token = readString(start);
+        } else if (Character.isDigit(c)) {
+            while (position < input.length() && Character.isDigit(input.charAt(position))) {
+                position++;
+            }
+            token = new Token(TokenType.NUMBER, input.substring(start, position), start);
+        } else if (Character.isLetter(c) || c == '_') {
+            while (position < input.length()
+                    && (Character.isLetterOrDigit(input.charAt(position)) || input.charAt(position) == '_')) {
+                position++;
+            }
+            token = new Token(TokenType.IDENTIFIER, input.substring(start, position), start);
+        } else if (input.startsWith("==", position)) {
+            position += 2;
+            token = new Token(TokenType.EQUALS, "==", start);
+        } else if (input.startsWith("!=", position)) {
+            position += 2;
+            token = new Token(TokenType.NOT_EQUALS, "!=", start);
+        } else {
+            position++;
+            switch (c) {
+                case '(':
+                    token = new Token(TokenType.LEFT_PARENTHESIS, "(", start);
+                    break;
+                case ')':
+                    token = new Token(TokenType.RIGHT_PARENTHESIS, ")", start);
+                    break;
+                case ',':
+                    token = new Token(TokenType.COMMA, ",", start);
+                    break;
+                case '~':
+                    token = new Token(TokenType.MATCHES, "~", start);
+                    break;
+                default:
+                    token = new Token(TokenType.END, String.valueOf(c), start);
+                    throw error("Unexpected character " + c);
+            }
+        }
+    }
+
+    private Token readRegex(int start) {
+        StringBuilder regex = new StringBuilder();
+        position++;
+        while (position < input.length() && input.charAt(position) != '/') {
+            // Escaped slash is part of regex.
+            if (input.charAt(position) == '\\' && position + 1 < input.length() && input.charAt(position + 1) == '/') {
+                position++;
+            }
+            regex.append(input.charAt(position++));
+        }
+        if (position >= input.length()) {
+            token = new Token(TokenType.END, "/", start);
+            throw error("Unterminated regex");
+        }
+        position++;
+
+        int flags = 0;
+        while (position < input.length() && Character.isLetter(input.charAt(position))) {
+            char flag = input.charAt(position++);
+            switch (flag) {
+                case 'i':
+                    flags |= Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE;
+                    break;
+                case 's':
+                    flags |= Pattern.DOTALL;
+                    break;
+                case 'm':
+                    flags |= Pattern.MULTILINE;
+                    break;
+                default:
+                    token = new Token(TokenType.END, String.valueOf(flag), start);
+                    throw error("Unknown regex flag " + flag);
+            }
+        }
+
+        Token regexToken = new Token(TokenType.REGEX, input.substring(start, position), start);
+        try {
+            regexToken.pattern = Pattern.compile(regex.toString(), flags);
+        } catch (PatternSyntaxException e) {
+            token = regexToken;
+            throw error("Invalid regex: " + e.getDescription());
+        }
+        return regexToken;
+    }
+
+    private Token readString(int start) {
+        StringBuilder text = new StringBuilder();
+        position++;
+        while (position < input.length() && input.charAt(position) != '"') {
+            if (input.charAt(position) == '\\' && position + 1 < input.length()) {
+                position++;
+            }
+            text.append(input.charAt(position++));
+        }
+        if (position >= input.length()) {
+            token = new Token(TokenType.END, "\"", start);
+            throw error("Unterminated string");
+        }
+        position++;
+        return new Token(TokenType.STRING, text.toString(), start);
+    }
+
+    private enum TokenType {
+        IDENTIFIER("identifier"),
+        NUMBER("number"),
+        STRING("string"),
+        REGEX("regex"),
+        EQUALS("=="),
+        NOT_EQUALS("!="),
+        MATCHES("~"),
+        LEFT_PARENTHESIS("("),
+        RIGHT_PARENTHESIS(")"),
+        COMMA(","),
+        END("end of expression");
+
+        private final String text;
+
+        TokenType(String text) {
+            this.text = text;
+        }
+    }
+
+    private static class Token {
+        private final TokenType type;
+        private final String text;
+        private final int start;
+        private Pattern pattern;
+
+        private Token(TokenType type, String text, int start) {
+            this.type = type;
+            this.text = text;
+            this.start = start;
+        }
+    }
+
+    @FunctionalInterface
+    private interface ValueParser<V> {
+        V parse();
+    }
+
+    @FunctionalInterface
+    private interface SetFactory<V> {
+        Expression create(List<V> values);
+    }
+}
@@ -0,0 +1,129 @@
+/**
+ * Facebook Re-post Bot - Bot that checks some pages and copies posts to other pages.
+ * Copyright (c) 2015, Matej Kormuth <http://www.github.com/dobrakmato>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.matejkormuth.fbrepostbot.filters;
+
+import eu.matejkormuth.fbrepostbot.CachedPost;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Filter of posts by keywords in their message. All allow and deny keywords are compiled
+ * to one {@link KeywordMatcher}, so message is scanned once regardless of number of
+ * keywords. Matching is case and diacritic insensitive.
+ * <p>
+ * Post is valid when its message contains no deny keyword and at least one allow keyword
+ * (or there are no allow keywords).
+ */
+public class KeywordFilter implements Filter<CachedPost> {
+
+    private final KeywordMatcher matcher;
+    // Whether keyword with given id is deny keyword.
+    private final boolean[] deny;
+    private final boolean hasAllowKeywords;
+    private final boolean hasDenyKeywords;
+
+    private KeywordFilter(List<String> keywords, boolean[] deny) {
+        this.matcher = new KeywordMatcher(keywords);
+        this.deny = deny;
+        boolean allow = false;
+        boolean denied = false;
+        for (boolean d : deny) {
+            allow |= !d;
+            denied |= d;
+        }
+        this.hasAllowKeywords = allow;
+        this.hasDenyKeywords = denied;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public boolean isValid(CachedPost instance) {
+        if (!hasAllowKeywords && !hasDenyKeywords) {
+            return true;
+        }
+
+        String message = TextFolding.foldedMessage(instance);
+        boolean[] result = {!hasAllowKeywords, false};
+        matcher.match(message, keyword -> {
+            if (deny[keyword]) {
+                result[1] = true;
+                return false;
+            }
+            result[0] = true;
+            // Without deny keywords first allow keyword decides.
+            return hasDenyKeywords;
+        });
+        return result[0] && !result[1];
+    }
+
+    /**
+     * Collects keywords of filter.
+     */
+    public static class Builder {
+        private final List<String> keywords = new ArrayList<>();
+        private final List<Boolean> deny = new ArrayList<>();
+
+        private Builder() {
+        }
+
+        public Builder allow(Collection<String> keywords) {
+            return add(keywords, false);
+        }
+
+        public Builder deny(Collection<String> keywords) {
+            return add(keywords, true);
+        }
+
+        private Builder add(Collection<String> keywords, boolean deny) {
+            for (String keyword : keywords) {
+                String folded = TextFolding.fold(keyword.trim());
+                if (!folded.isEmpty()) {
+                    this.keywords.add(folded);
+                    this.deny.add(deny);
+                }
+            }
+            return this;
+        }
+
+        public boolean isEmpty() {
+            return keywords.isEmpty();
+        }
+
+        public KeywordFilter build() {
+            boolean[] denyArray = new boolean[deny.size()];
+            for (int i = 0; i < denyArray.length; i++) {
+                denyArray[i] = deny.get(i);
+            }
+            return new KeywordFilter(new ArrayList<>(keywords), denyArray);
+        }
+    }
+}
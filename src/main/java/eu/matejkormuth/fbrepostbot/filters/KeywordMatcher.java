@@ -0,0 +1,193 @@
+/**
+ * Facebook Re-post Bot - Bot that checks some pages and copies posts to other pages.
+ * Copyright (c) 2015, Matej Kormuth <http://www.github.com/dobrakmato>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.matejkormuth.fbrepostbot.filters;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+
+/**
+ * Aho-Corasick automaton matching many keywords in one pass over text. Time of matching
+ * depends on length of text and number of matches, not on number of keywords.
+ * <p>
+ * Automaton is immutable and can be used by many threads at once.
+ */
+public class KeywordMatcher {
+
+    private static final char[] NO_LABELS = new char[0];
+    private static final int[] NO_INTS = new int[0];
+
+    // Transitions of each state, labels are sorted for binary search.
+    private final char[][] labels;
+    private final int[][] targets;
+    private final int[] fail;
+    // Ids of keywords ending in each state, including keywords ending in its suffixes.
+    private final int[][] outputs;
+    private final int keywordCount;
+
+    /**
+     * Builds automaton. Id of keyword is its index in list, empty keywords never match.
+     *
+     * @param keywords keywords to match
+     */
+    public KeywordMatcher(List<String> keywords) {
+        this.keywordCount = keywords.size();
+
+        // Build trie.
+        List<TreeMap<Character, Integer>> trie = new ArrayList<>();
+        List<List<Integer>> ends = new ArrayList<>();
+        trie.add(new TreeMap<>());
+        ends.add(new ArrayList<>());
+        for (int id = 0; id < keywords.size(); id++) {
+            String keyword = keywords.get(id);
+            if (keyword.isEmpty()) {
+                continue;
+            }
+
+            int state = 0;
+            for (int i = 0; i < keyword.length(); i++) {
+                Integer next = trie.get(state).get(keyword.charAt(i));
+                if (next == null) {
+                    next = trie.size();
+                    trie.add(new TreeMap<>());
+                    ends.add(new ArrayList<>());
+                    trie.get(state).put(keyword.charAt(i), next);
+                }
+                state = next;
+            }
+            ends.get(state).add(id);
+        }
+
+        int stateCount = trie.size();
+        this.labels = new char[stateCount][];
+        this.targets = new int[stateCount][];
+        this.fail = new int[stateCount];
+        this.outputs = new int[stateCount][];
+        for (int state = 0; state < stateCount; state++) {
+            TreeMap<Character, Integer> transitions = trie.get(state);
+            labels[state] = transitions.isEmpty() ? NO_LABELS : new char[transitions.size()];
+            targets[state] = transitions.isEmpty() ? NO_INTS : new int[transitions.size()];
+            int i = 0;
+            for (Map.Entry<Character, Integer> transition : transitions.entrySet()) {
+                labels[state][i] = transition.getKey();
+                targets[state][i] = transition.getValue();
+                i++;
+            }
+        }
+
+        // Compute failure links in breadth-first order, so links of shorter prefixes are known.
+        outputs[0] = NO_INTS;
+        Queue<Integer> queue = new ArrayDeque<>();
+        for (int child : targets[0]) {
+            fail[child] = 0;
+            outputs[child] = toArray(ends.get(child));
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            for (int i = 0; i < labels[state].length; i++) {
+                char label = labels[state][i];
+                int child = targets[state][i];
+
+                int link = fail[state];
+                while (link != 0 && next(link, label) < 0) {
+                    link = fail[link];
+                }
+                int linkTarget = next(link, label);
+                fail[child] = linkTarget >= 0 ? linkTarget : 0;
+
+                int[] own = toArray(ends.get(child));
+                int[] inherited = outputs[fail[child]];
+                outputs[child] = inherited.length == 0 ? own : concat(own, inherited);
+                queue.add(child);
+            }
+        }
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        if (list.isEmpty()) {
+            return NO_INTS;
+        }
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+
+    private static int[] concat(int[] first, int[] second) {
+        int[] result = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+
+    private int next(int state, char c) {
+        int index = Arrays.binarySearch(labels[state], c);
+        return index >= 0 ? targets[state][index] : -1;
+    }
+
+    /**
+     * Finds keywords in text. Keyword is reported each time it occurs.
+     *
+     * @param text    text to search
+     * @param handler handler of matches, returns false to stop matching
+     */
+    public void match(CharSequence text, MatchHandler handler) {
+        int state = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            int next;
+            while ((next = next(state, c)) < 0 && state != 0) {
+                state = fail[state];
+            }
+            state = next >= 0 ? next : 0;
+
+            for (int keyword : outputs[state]) {
+                if (!handler.matched(keyword)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    public int getKeywordCount() {
+        return keywordCount;
+    }
+
+    @FunctionalInterface
+    public interface MatchHandler {
+        /**
+         * @param keyword id of matched keyword
+         * @return true to continue matching
+         */
+        boolean matched(int keyword);
+    }
+}
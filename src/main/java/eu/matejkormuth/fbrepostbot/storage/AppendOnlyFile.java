@@ -0,0 +1,188 @@
+/**
+ * Facebook Re-post Bot - Bot that checks some pages and copies posts to other pages.
+ * Copyright (c) 2015, Matej Kormuth <http://www.github.com/dobrakmato>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.matejkormuth.fbrepostbot.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * File that is only appended to, with group commit of appended data.
+ * <p>
+ * Threads that want their appends to be durable call {@link #sync(long)}. Only one
+ * thread forces file to disk at a time, threads that arrive meanwhile wait and the
+ * next force covers all their appends, so concurrent writers share one fsync instead
+ * of each doing their own.
+ */
+public class AppendOnlyFile implements Closeable {
+
+    private final Path path;
+    private final FileChannel channel;
+    // Guarded by this.
+    private long size;
+
+    private final Object syncLock = new Object();
+    // Guarded by syncLock.
+    private long syncedSize;
+    private boolean syncing = false;
+
+    public AppendOnlyFile(Path path) throws IOException {
+        this.path = path;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        this.size = channel.size();
+        this.syncedSize = size;
+    }
+
+    /**
+     * Appends contents of buffer to end of file. Appended data are not durable until
+     * {@link #sync(long)} is called.
+     *
+     * @param buffer data to append
+     * @return size of file after append
+     * @throws IOException when data can't be written
+     */
+    public synchronized long append(ByteBuffer buffer) throws IOException {
+        long start = size;
+        try {
+            while (buffer.hasRemaining()) {
+                size += channel.write(buffer, size);
+            }
+        } catch (IOException e) {
+            // Do not leave partially written data in front of following appends.
+            size = start;
+            channel.truncate(start);
+            throw e;
+        }
+        return size;
+    }
+
+    /**
+     * Waits until file is durably stored at least up to specified size. Returns
+     * immediately when the data were discarded by {@link #truncate(long)} meanwhile.
+     *
+     * @param position size of file returned by {@link #append(ByteBuffer)}
+     * @throws IOException when file can't be forced to disk
+     */
+    public void sync(long position) throws IOException {
+        while (true) {
+            long target;
+            synchronized (syncLock) {
+                while (syncing && syncedSize < position) {
+                    try {
+                        syncLock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while waiting for sync of " + path);
+                    }
+                }
+
+                if (syncedSize >= position) {
+                    return;
+                }
+
+                target = size();
+                if (target < position) {
+                    // File was truncated after the append and truncation forced it to disk,
+                    // the position would not be reached until unrelated data are appended.
+                    return;
+                }
+
+                // This thread becomes leader and syncs everything appended so far.
+                syncing = true;
+            }
+
+            boolean synced = false;
+            try {
+                channel.force(false);
+                synced = true;
+            } finally {
+                synchronized (syncLock) {
+                    syncing = false;
+                    if (synced) {
+                        syncedSize = Math.max(syncedSize, target);
+                    }
+                    syncLock.notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads from file until buffer is full or end of file is reached.
+     *
+     * @param buffer   buffer to read to
+     * @param position position in file to read from
+     * @return number of read bytes
+     * @throws IOException when file can't be read
+     */
+    public int read(ByteBuffer buffer, long position) throws IOException {
+        int total = 0;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + total);
+            if (read < 0) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+
+    /**
+     * Discards end of file, for example incomplete record written before crash.
+     *
+     * @param newSize new size of file
+     * @throws IOException when file can't be truncated
+     */
+    public void truncate(long newSize) throws IOException {
+        synchronized (this) {
+            channel.truncate(newSize);
+            channel.force(true);
+            size = Math.min(size, newSize);
+        }
+        synchronized (syncLock) {
+            syncedSize = Math.min(syncedSize, newSize);
+        }
+    }
+
+    public synchronized long size() {
+        return size;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
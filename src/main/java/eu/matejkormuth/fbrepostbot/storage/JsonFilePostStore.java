@@ -0,0 +1,119 @@
+/**
+ * Facebook Re-post Bot - Bot that checks some pages and copies posts to other pages.
+ * Copyright (c) 2015, Matej Kormuth <http://www.github.com/dobrakmato>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.matejkormuth.fbrepostbot.storage;
+
+import com.google.common.base.Charsets;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.Consumer;
+
+/**
+ * Stores each post in its own JSON file named by id of the post.
+ */
+public class JsonFilePostStore implements PostStore {
+
+    static final String DIRECTORY = "posts";
+    private static final String EXTENSION = ".json";
+
+    private final Path directory;
+    private volatile boolean directoryCreated = false;
+
+    public JsonFilePostStore(Path directory) {
+        this.directory = directory;
+    }
+
+    public Path getPostPath(String postId) {
+        return directory.resolve(postId + EXTENSION);
+    }
+
+    @Override
+    public boolean contains(String postId) {
+        return Files.exists(getPostPath(postId));
+    }
+
+    @Override
+    public void put(String postId, String contents) throws IOException {
+        if (!directoryCreated) {
+            Files.createDirectories(directory);
+            directoryCreated = true;
+        }
+        Files.write(getPostPath(postId), contents.getBytes(Charsets.UTF_8));
+    }
+
+    @Override
+    public String get(String postId) throws IOException {
+        Path path = getPostPath(postId);
+        if (!Files.exists(path)) {
+            return null;
+        }
+        return new String(Files.readAllBytes(path), Charsets.UTF_8);
+    }
+
+    @Override
+    public void forEachId(Consumer<String> consumer) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + EXTENSION)) {
+            for (Path path : stream) {
+                consumer.accept(getPostId(path));
+            }
+        }
+    }
+
+    @Override
+    public void forEach(RecordConsumer consumer) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + EXTENSION)) {
+            for (Path path : stream) {
+                consumer.accept(getPostId(path), new String(Files.readAllBytes(path), Charsets.UTF_8),
+                        Files.getLastModifiedTime(path).toMillis());
+            }
+        }
+    }
+
+    private static String getPostId(Path path) {
+        String fileName = path.getFileName().toString();
+        return fileName.substring(0, fileName.length() - EXTENSION.length());
+    }
+
+    @Override
+    public void compact() {
+        // Files of overwritten posts are replaced, there is nothing to reclaim.
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,467 @@
+/**
+ * Facebook Re-post Bot - Bot that checks some pages and copies posts to other pages.
+ * Copyright (c) 2015, Matej Kormuth <http://www.github.com/dobrakmato>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.matejkormuth.fbrepostbot.storage;
+
+import com.google.common.base.Charsets;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * Stores posts of one page in segmented append-only log. Each record contains whole
+ * post, storing post again appends new record and makes the old one garbage. Offsets of
+ * live records are kept in memory and rebuilt by scanning the log when store is opened.
+ * <p>
+ * Record format: payload length (int), CRC32 of payload (int) and payload consisting
+ * of time of storing (long), length of post id (unsigned short), post id and post
+ * (both UTF-8). Incomplete or corrupted record at end of log (after crash) is discarded.
+ * <p>
+ * When log grows over maximum segment size, new segment is started. Sealed segments
+ * with little live data are rewritten by {@link #compact()}.
+ */
+public class LogPostStore implements PostStore {
+
+    private static final Logger log = LoggerFactory.getLogger(LogPostStore.class);
+
+    static final String DIRECTORY = "log";
+    private static final String EXTENSION = ".log";
+    // Segments are numbered from 1, number fits to int.
+    private static final Pattern SEGMENT_NAME = Pattern.compile("0*[1-9][0-9]{0,8}");
+    public static final long DEFAULT_MAX_SEGMENT_SIZE = 8 * 1024 * 1024;
+    // Sealed segments with lower ratio of live data are compacted.
+    private static final double COMPACTION_LIVE_RATIO = 0.5;
+
+    private static final int HEADER_SIZE = 8;
+    // Time of storing and length of post id.
+    private static final int PAYLOAD_PREFIX_SIZE = 10;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final Path directory;
+    private final long maxSegmentSize;
+
+    // All fields below are guarded by this.
+    private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+    private final Map<String, Location> index = new HashMap<>();
+    private Segment active;
+    private AppendOnlyFile activeFile;
+    private boolean opened = false;
+
+    public LogPostStore(Path directory) {
+        this(directory, DEFAULT_MAX_SEGMENT_SIZE);
+    }
+
+    public LogPostStore(Path directory, long maxSegmentSize) {
+        this.directory = directory;
+        this.maxSegmentSize = maxSegmentSize;
+    }
+
+    @Override
+    public synchronized boolean contains(String postId) throws IOException {
+        ensureOpen();
+        return index.containsKey(postId);
+    }
+
+    @Override
+    public void put(String postId, String contents) throws IOException {
+        AppendOnlyFile file;
+        long end;
+        synchronized (this) {
+            ensureOpen();
+            end = append(postId, contents, System.currentTimeMillis());
+            file = activeFile;
+        }
+
+        // Sync outside of lock, so concurrent writers share one fsync.
+        file.sync(end);
+    }
+
+    /**
+     * Appends post without waiting for it to be durably stored. Used for bulk imports
+     * which call {@link #flush()} at the end.
+     *
+     * @param postId     id of post
+     * @param contents   serialized post
+     * @param storedTime time post was originally stored at (in milliseconds)
+     * @throws IOException when post can't be stored
+     */
+    public synchronized void importRecord(String postId, String contents, long storedTime) throws IOException {
+        ensureOpen();
+        append(postId, contents, storedTime);
+    }
+
+    /**
+     * Waits until all appended posts are durably stored.
+     *
+     * @throws IOException when log can't be forced to disk
+     */
+    public void flush() throws IOException {
+        AppendOnlyFile file;
+        synchronized (this) {
+            if (!opened) {
+                return;
+            }
+            file = activeFile;
+        }
+        file.sync(file.size());
+    }
+
+    @Override
+    public synchronized String get(String postId) throws IOException {
+        ensureOpen();
+        Location location = index.get(postId);
+        if (location == null) {
+            return null;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(location.size);
+        if (location.segment == active) {
+            activeFile.read(buffer, location.offset);
+        } else {
+            try (FileChannel channel = FileChannel.open(location.segment.path, StandardOpenOption.READ)) {
+                while (buffer.hasRemaining() && channel.read(buffer, location.offset + buffer.position()) >= 0) {
+                    // Read whole record.
+                }
+            }
+        }
+
+        if (buffer.hasRemaining()) {
+            throw new IOException("Record of post " + postId + " in " + location.segment.path + " is incomplete.");
+        }
+        Record record = Record.decode(buffer.array(), HEADER_SIZE, location.size - HEADER_SIZE, location.offset);
+        if (record == null) {
+            throw new IOException("Record of post " + postId + " in " + location.segment.path + " is damaged.");
+        }
+        return record.getContents();
+    }
+
+    @Override
+    public synchronized void forEachId(Consumer<String> consumer) throws IOException {
+        ensureOpen();
+        index.keySet().forEach(consumer);
+    }
+
+    @Override
+    public synchronized void forEach(RecordConsumer consumer) throws IOException {
+        ensureOpen();
+        // Segments are read sequentially, only records referenced by index are live.
+        for (Segment segment : segments.values()) {
+            scan(segment.path, segment.totalBytes, record -> {
+                if (isLive(segment, record)) {
+                    consumer.accept(record.postId, record.getContents(), record.storedTime);
+                }
+            });
+        }
+    }
+
+    @Override
+    public synchronized void compact() throws IOException {
+        // Store that was not used yet does not need compaction.
+        if (!opened) {
+            return;
+        }
+
+        List<Segment> candidates = new ArrayList<>();
+        for (Segment segment : segments.values()) {
+            if (segment != active && segment.liveBytes < segment.totalBytes * COMPACTION_LIVE_RATIO) {
+                candidates.add(segment);
+            }
+        }
+
+        for (Segment segment : candidates) {
+            // Copy live records to end of log, old records become garbage.
+            if (segment.liveBytes > 0) {
+                scan(segment.path, segment.totalBytes, record -> {
+                    if (isLive(segment, record)) {
+                        append(record.postId, record.getContents(), record.storedTime);
+                    }
+                });
+                activeFile.sync(activeFile.size());
+            }
+
+            segments.remove(segment.number);
+            Files.delete(segment.path);
+            log.info("Compacted segment {}, reclaimed {} bytes.", segment.path,
+                    segment.totalBytes - segment.liveBytes);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (opened) {
+            activeFile.sync(activeFile.size());
+            activeFile.close();
+            opened = false;
+            segments.clear();
+            index.clear();
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (opened) {
+            return;
+        }
+
+        try {
+            load();
+        } catch (IOException | RuntimeException e) {
+            segments.clear();
+            index.clear();
+            throw e;
+        }
+        opened = true;
+
+        log.debug("Opened {} with {} segments and {} posts.", directory, segments.size(), index.size());
+    }
+
+    private void load() throws IOException {
+        Files.createDirectories(directory);
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + EXTENSION)) {
+            for (Path path : stream) {
+                String fileName = path.getFileName().toString();
+                String name = fileName.substring(0, fileName.length() - EXTENSION.length());
+                if (!SEGMENT_NAME.matcher(name).matches()) {
+                    log.warn("Ignoring file {}, it is not a segment of log.", path);
+                    continue;
+                }
+                int number = Integer.parseInt(name);
+                segments.put(number, new Segment(number, path));
+            }
+        }
+
+        for (Segment segment : segments.values()) {
+            long fileSize = Files.size(segment.path);
+            long validSize = scan(segment.path, fileSize, record -> {
+                Location previous = index.put(record.postId, new Location(segment, record.offset, record.size));
+                if (previous != null) {
+                    previous.segment.liveBytes -= previous.size;
+                }
+                segment.liveBytes += record.size;
+            });
+            // Damaged part of sealed segment counts as garbage.
+            segment.totalBytes = fileSize;
+
+            if (validSize < fileSize) {
+                log.warn("Segment {} contains {} bytes of incomplete or damaged records.", segment.path,
+                        fileSize - validSize);
+                if (segment.number == segments.lastKey()) {
+                    // End of active segment is overwritten by following appends.
+                    try (AppendOnlyFile file = new AppendOnlyFile(segment.path)) {
+                        file.truncate(validSize);
+                    }
+                    segment.totalBytes = validSize;
+                }
+            }
+        }
+
+        if (segments.isEmpty()) {
+            segments.put(1, new Segment(1, segmentPath(1)));
+        }
+        active = segments.lastEntry().getValue();
+        activeFile = new AppendOnlyFile(active.path);
+    }
+
+    private boolean isLive(Segment segment, Record record) {
+        Location location = index.get(record.postId);
+        return location != null && location.segment == segment && location.offset == record.offset;
+    }
+
+    private long append(String postId, String contents, long storedTime) throws IOException {
+        ByteBuffer record = Record.encode(postId, contents, storedTime);
+        int size = record.remaining();
+
+        if (activeFile.size() > 0 && activeFile.size() + size > maxSegmentSize) {
+            roll();
+        }
+
+        long end = activeFile.append(record);
+        Location previous = index.put(postId, new Location(active, end - size, size));
+        if (previous != null) {
+            previous.segment.liveBytes -= previous.size;
+        }
+        active.liveBytes += size;
+        active.totalBytes = end;
+        return end;
+    }
+
+    private void roll() throws IOException {
+        // Sealed segment must be durable, writers waiting for sync of it return immediately.
+        activeFile.sync(activeFile.size());
+        activeFile.close();
+
+        int number = active.number + 1;
+        active = new Segment(number, segmentPath(number));
+        segments.put(number, active);
+        activeFile = new AppendOnlyFile(active.path);
+        log.debug("Started new segment {}.", active.path);
+    }
+
+    private Path segmentPath(int number) {
+        return directory.resolve(String.format("%010d", number) + EXTENSION);
+    }
+
+    // Reads valid records from start of segment, returns end of last valid record.
+    private static long scan(Path path, long limit, RecordVisitor visitor) throws IOException {
+        long position = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path),
+                READ_BUFFER_SIZE))) {
+            while (position + HEADER_SIZE <= limit) {
+                int length = in.readInt();
+                int checksum = in.readInt();
+                if (length < PAYLOAD_PREFIX_SIZE || position + HEADER_SIZE + length > limit) {
+                    break;
+                }
+
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                CRC32 crc = new CRC32();
+                crc.update(payload);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+
+                Record record = Record.decode(payload, 0, length, position);
+                if (record == null) {
+                    break;
+                }
+                visitor.visit(record);
+                position += record.size;
+            }
+        }
+        return position;
+    }
+
+    @FunctionalInterface
+    private interface RecordVisitor {
+        void visit(Record record) throws IOException;
+    }
+
+    private static class Segment {
+        private final int number;
+        private final Path path;
+        // Size of segment and size of records referenced by index.
+        private long totalBytes;
+        private long liveBytes;
+
+        private Segment(int number, Path path) {
+            this.number = number;
+            this.path = path;
+        }
+    }
+
+    private static class Location {
+        private final Segment segment;
+        private final long offset;
+        private final int size;
+
+        private Location(Segment segment, long offset, int size) {
+            this.segment = segment;
+            this.offset = offset;
+            this.size = size;
+        }
+    }
+
+    private static class Record {
+        private final String postId;
+        private final long storedTime;
+        private final long offset;
+        private final int size;
+        // Post is decoded only when needed.
+        private final byte[] payload;
+        private final int contentsOffset;
+        private final int contentsLength;
+
+        private Record(String postId, long storedTime, long offset, int size, byte[] payload,
+                       int contentsOffset, int contentsLength) {
+            this.postId = postId;
+            this.storedTime = storedTime;
+            this.offset = offset;
+            this.size = size;
+            this.payload = payload;
+            this.contentsOffset = contentsOffset;
+            this.contentsLength = contentsLength;
+        }
+
+        private String getContents() {
+            return new String(payload, contentsOffset, contentsLength, Charsets.UTF_8);
+        }
+
+        private static ByteBuffer encode(String postId, String contents, long storedTime) {
+            byte[] id = postId.getBytes(Charsets.UTF_8);
+            byte[] data = contents.getBytes(Charsets.UTF_8);
+            if (id.length > 0xFFFF) {
+                throw new IllegalArgumentException("Post id is too long: " + postId);
+            }
+
+            int length = PAYLOAD_PREFIX_SIZE + id.length + data.length;
+            ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + length);
+            buffer.putInt(length);
+            buffer.putInt(0);
+            buffer.putLong(storedTime);
+            buffer.putShort((short) id.length);
+            buffer.put(id);
+            buffer.put(data);
+
+            CRC32 crc = new CRC32();
+            crc.update(buffer.array(), HEADER_SIZE, length);
+            buffer.putInt(4, (int) crc.getValue());
+            buffer.flip();
+            return buffer;
+        }
+
+        // Decodes payload of record, returns null if it is malformed.
+        private static Record decode(byte[] payload, int from, int length, long offset) {
+            ByteBuffer buffer = ByteBuffer.wrap(payload, from, length);
+            long storedTime = buffer.getLong();
+            int idLength = buffer.getShort() & 0xFFFF;
+            if (PAYLOAD_PREFIX_SIZE + idLength > length) {
+                return null;
+            }
+
+            String postId = new String(payload, from + PAYLOAD_PREFIX_SIZE, idLength, Charsets.UTF_8);
+            int contentsOffset = from + PAYLOAD_PREFIX_SIZE + idLength;
+            return new Record(postId, storedTime, offset, HEADER_SIZE + length, payload, contentsOffset,
+                    length - PAYLOAD_PREFIX_SIZE - idLength);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/**
+ * Facebook Re-post Bot - Bot that checks some pages and copies posts to other pages.
+ * Copyright (c) 2015, Matej Kormuth <http://www.github.com/dobrakmato>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.matejkormuth.fbrepostbot.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Properties;
+
+/**
+ * Imports posts stored as JSON files ({@code pages/<id>/posts/*.json}) to log storage.
+ * Imported posts directory is renamed to {@code posts.migrated}, so it is not imported
+ * again and can be deleted after checking the result.
+ * <p>
+ * Usage: {@code MigrationTool [dataPath]}, data path defaults to data path in main.conf.
+ */
+public final class MigrationTool {
+
+    private static final Logger log = LoggerFactory.getLogger(MigrationTool.class);
+
+    private static final String MIGRATED_SUFFIX = ".migrated";
+
+    private MigrationTool() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path dataPath;
+        if (args.length > 0) {
+            dataPath = Paths.get(args[0]);
+        } else {
+            Properties mainConf = new Properties();
+            try (FileInputStream in = new FileInputStream("./main.conf")) {
+                mainConf.load(in);
+            }
+            dataPath = Paths.get(mainConf.getProperty("dataPath", "./data/"));
+        }
+
+        Path pagesPath = dataPath.resolve("pages");
+        if (!Files.isDirectory(pagesPath)) {
+            log.error("Directory {} does not exist!", pagesPath);
+            System.exit(1);
+        }
+
+        int pages = 0;
+        long posts = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(pagesPath)) {
+            for (Path pageCachePath : stream) {
+                if (needsMigration(pageCachePath)) {
+                    try (LogPostStore store = (LogPostStore) StorageEngine.LOG.open(pageCachePath)) {
+                        posts += migrate(pageCachePath, store);
+                    }
+                    pages++;
+                }
+            }
+        }
+
+        log.info("Migrated {} posts of {} pages.", posts, pages);
+    }
+
+    /**
+     * @param pageCachePath directory of page cache
+     * @return whether page cache contains posts stored as JSON files
+     */
+    public static boolean needsMigration(Path pageCachePath) {
+        return Files.isDirectory(pageCachePath.resolve(JsonFilePostStore.DIRECTORY));
+    }
+
+    /**
+     * Imports posts stored as JSON files of specified page cache to log store.
+     *
+     * @param pageCachePath directory of page cache
+     * @param store         log store of the page cache
+     * @return number of imported posts
+     * @throws IOException when posts can't be read or stored
+     */
+    public static long migrate(Path pageCachePath, LogPostStore store) throws IOException {
+        Path postsPath = pageCachePath.resolve(JsonFilePostStore.DIRECTORY);
+        log.info("Migrating {}...", postsPath);
+
+        long[] count = {0};
+        try {
+            // Posts are synced once at the end, not one by one.
+            new JsonFilePostStore(postsPath).forEach((postId, contents, storedTime) -> {
+                try {
+                    store.importRecord(postId, contents, storedTime);
+                    count[0]++;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        store.flush();
+
+        Path migratedPath = getMigratedPath(postsPath);
+        Files.move(postsPath, migratedPath);
+        log.info("Migrated {} posts from {}, original files were moved to {}.", count[0], postsPath, migratedPath);
+        return count[0];
+    }
+
+    // Directory left by earlier partial run is not overwritten, numbered name is used instead.
+    private static Path getMigratedPath(Path postsPath) {
+        Path migratedPath = postsPath.resolveSibling(JsonFilePostStore.DIRECTORY + MIGRATED_SUFFIX);
+        for (int i = 2; Files.exists(migratedPath); i++) {
+            migratedPath = postsPath.resolveSibling(JsonFilePostStore.DIRECTORY + MIGRATED_SUFFIX + "." + i);
+        }
+        return migratedPath;
+    }
+}
@@ -0,0 +1,83 @@
+/**
+ * Facebook Re-post Bot - Bot that checks some pages and copies posts to other pages.
+ * Copyright (c) 2015, Matej Kormuth <http://www.github.com/dobrakmato>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.matejkormuth.fbrepostbot.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.function.Consumer;
+
+/**
+ * Storage of serialized posts of one page cache. Posts are identified by their id and
+ * stored as strings, so storage does not depend on format of cached posts.
+ * <p>
+ * Implementations must be thread-safe.
+ */
+public interface PostStore extends Closeable {
+
+    boolean contains(String postId) throws IOException;
+
+    /**
+     * Stores post. When this method returns, post is durably stored.
+     *
+     * @param postId   id of post
+     * @param contents serialized post
+     * @throws IOException when post can't be stored
+     */
+    void put(String postId, String contents) throws IOException;
+
+    /**
+     * @param postId id of post
+     * @return serialized post or null if post is not stored
+     * @throws IOException when storage can't be read
+     */
+    String get(String postId) throws IOException;
+
+    void forEachId(Consumer<String> consumer) throws IOException;
+
+    void forEach(RecordConsumer consumer) throws IOException;
+
+    /**
+     * Reclaims space taken by overwritten posts. Stores that do not need compaction
+     * do nothing.
+     *
+     * @throws IOException when storage can't be compacted
+     */
+    void compact() throws IOException;
+
+    /**
+     * Consumer of stored posts.
+     */
+    @FunctionalInterface
+    interface RecordConsumer {
+        /**
+         * @param postId     id of post
+         * @param contents   serialized post
+         * @param storedTime time post was stored at (in milliseconds)
+         */
+        void accept(String postId, String contents, long storedTime);
+    }
+}
@@ -0,0 +1,62 @@
+/**
+ * Facebook Re-post Bot - Bot that checks some pages and copies posts to other pages.
+ * Copyright (c) 2015, Matej Kormuth <http://www.github.com/dobrakmato>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.matejkormuth.fbrepostbot.storage;
+
+import java.nio.file.Path;
+
+/**
+ * Available implementations of {@link PostStore}.
+ */
+public enum StorageEngine {
+    /**
+     * One JSON file per post in posts directory of page cache.
+     */
+    JSON {
+        @Override
+        public PostStore open(Path pageCachePath) {
+            return new JsonFilePostStore(pageCachePath.resolve(JsonFilePostStore.DIRECTORY));
+        }
+    },
+    /**
+     * Segmented append-only log in log directory of page cache.
+     */
+    LOG {
+        @Override
+        public PostStore open(Path pageCachePath) {
+            return new LogPostStore(pageCachePath.resolve(LogPostStore.DIRECTORY));
+        }
+    };
+
+    /**
+     * Creates store of specified page cache. Storage is not touched until the store
+     * is used.
+     *
+     * @param pageCachePath directory of page cache
+     * @return store of page cache
+     */
+    public abstract PostStore open(Path pageCachePath);
+}
@@ -0,0 +1,159 @@
+/**
+ * Facebook Re-post Bot - Bot that checks some pages and copies posts to other pages.
+ * Copyright (c) 2015, Matej Kormuth <http://www.github.com/dobrakmato>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.matejkormuth.fbrepostbot.util;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.function.Predicate;
+
+/**
+ * BK-tree of 64-bit hashes in Hamming space. Children of node are indexed by their
+ * distance from the node, so search for hashes within distance {@code d} from query
+ * visits only children whose distance differs from distance of the node by at most
+ * {@code d} (triangle inequality).
+ *
+ * @param <V> type of values associated with hashes
+ */
+public class BKTree<V> {
+
+    private Node<V> root;
+    private int size;
+
+    /**
+     * Adds hash to tree. Value of hash already present in tree is replaced.
+     *
+     * @param hash  hash
+     * @param value value associated with hash
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public void put(long hash, V value) {
+        if (root == null) {
+            root = new Node<>(hash, value);
+            size++;
+            return;
+        }
+
+        Node<V> node = root;
+        while (true) {
+            int distance = Long.bitCount(node.hash ^ hash);
+            if (distance == 0) {
+                node.value = value;
+                return;
+            }
+
+            if (node.children == null) {
+                node.children = new Node[65];
+            }
+            Node<V> child = node.children[distance];
+            if (child == null) {
+                node.children[distance] = new Node<>(hash, value);
+                size++;
+                return;
+            }
+            node = child;
+        }
+    }
+
+    /**
+     * Finds value of some hash within specified distance that matches the filter.
+     *
+     * @param hash        query hash
+     * @param maxDistance maximum Hamming distance
+     * @param filter      filter of values
+     * @return found value or null
+     */
+    public V find(long hash, int maxDistance, Predicate<V> filter) {
+        if (root == null) {
+            return null;
+        }
+
+        Deque<Node<V>> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            Node<V> node = stack.pop();
+            int distance = Long.bitCount(node.hash ^ hash);
+            if (distance <= maxDistance && filter.test(node.value)) {
+                return node.value;
+            }
+
+            if (node.children != null) {
+                int to = Math.min(64, distance + maxDistance);
+                for (int i = Math.max(1, distance - maxDistance); i <= to; i++) {
+                    if (node.children[i] != null) {
+                        stack.push(node.children[i]);
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Calls consumer for each hash in tree.
+     *
+     * @param consumer consumer of hashes and their values
+     */
+    public void forEach(EntryConsumer<V> consumer) {
+        if (root == null) {
+            return;
+        }
+
+        Deque<Node<V>> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            Node<V> node = stack.pop();
+            consumer.accept(node.hash, node.value);
+            if (node.children != null) {
+                for (Node<V> child : node.children) {
+                    if (child != null) {
+                        stack.push(child);
+                    }
+                }
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    @FunctionalInterface
+    public interface EntryConsumer<V> {
+        void accept(long hash, V value);
+    }
+
+    private static class Node<V> {
+        private final long hash;
+        private V value;
+        private Node<V>[] children;
+
+        private Node(long hash, V value) {
+            this.hash = hash;
+            this.value = value;
+        }
+    }
+}
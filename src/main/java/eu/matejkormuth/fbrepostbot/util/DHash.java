@@ -0,0 +1,130 @@
+/**
+ * Facebook Re-post Bot - Bot that checks some pages and copies posts to other pages.
+ * Copyright (c) 2015, Matej Kormuth <http://www.github.com/dobrakmato>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.matejkormuth.fbrepostbot.util;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Iterator;
+
+/**
+ * Computes 64-bit difference hash (dHash) of images. Image is reduced to 9x8 grayscale
+ * pixels and each bit tells whether pixel is brighter than its right neighbour, so
+ * re-encoded, resized or slightly edited copies of the same photo have hashes differing
+ * only in few bits.
+ */
+public final class DHash {
+
+    private static final int COLUMNS = 9;
+    private static final int ROWS = 8;
+    // Images are decoded with subsampling to about this width, hash needs only 9x8 pixels.
+    private static final int DECODE_SIZE = 256;
+
+    private DHash() {
+    }
+
+    /**
+     * Decodes image stored in specified file and computes its hash.
+     *
+     * @param path path to image
+     * @return hash of image
+     * @throws IOException when image can't be read or its format is not supported
+     */
+    public static long compute(Path path) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(path.toFile())) {
+            Iterator<ImageReader> readers = in == null ? null : ImageIO.getImageReaders(in);
+            if (readers == null || !readers.hasNext()) {
+                throw new IOException("Unsupported image format of " + path);
+            }
+
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                int step = Math.max(1, Math.min(Math.min(width / COLUMNS, height / ROWS),
+                        Math.max(width, height) / DECODE_SIZE));
+
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(step, step, 0, 0);
+                return compute(reader.read(0, param));
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Computes hash of specified image.
+     *
+     * @param image image
+     * @return hash of image
+     */
+    public static long compute(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        if (width < COLUMNS || height < ROWS) {
+            // Each cell needs at least one pixel.
+            BufferedImage scaled = new BufferedImage(Math.max(width, COLUMNS), Math.max(height, ROWS),
+                    BufferedImage.TYPE_INT_RGB);
+            scaled.getGraphics().drawImage(image, 0, 0, scaled.getWidth(), scaled.getHeight(), null);
+            return compute(scaled);
+        }
+
+        // Average luminance of each cell.
+        long[] sums = new long[COLUMNS * ROWS];
+        int[] counts = new int[COLUMNS * ROWS];
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            int cellRow = y * ROWS / height * COLUMNS;
+            for (int x = 0; x < width; x++) {
+                int rgb = row[x];
+                int luminance = (299 * ((rgb >> 16) & 0xFF) + 587 * ((rgb >> 8) & 0xFF) + 114 * (rgb & 0xFF)) / 1000;
+                int cell = cellRow + x * COLUMNS / width;
+                sums[cell] += luminance;
+                counts[cell]++;
+            }
+        }
+
+        long hash = 0;
+        for (int y = 0; y < ROWS; y++) {
+            for (int x = 0; x < COLUMNS - 1; x++) {
+                int cell = y * COLUMNS + x;
+                // Compares averages without division: a / ca > b / cb.
+                if (sums[cell] * counts[cell + 1] > sums[cell + 1] * counts[cell]) {
+                    hash |= 1L << (y * (COLUMNS - 1) + x);
+                }
+            }
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,133 @@
+/**
+ * Facebook Re-post Bot - Bot that checks some pages and copies posts to other pages.
+ * Copyright (c) 2015, Matej Kormuth <http://www.github.com/dobrakmato>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.matejkormuth.fbrepostbot.util;
+
+/**
+ * Open-addressing hash set of pairs of primitive longs. Pairs are stored in two parallel
+ * long arrays, so one stored pair takes 16 bytes (32 bytes with default load factor)
+ * and no objects are allocated per pair. Pair (0, 0) can't be stored.
+ * <p>
+ * This class is not thread-safe.
+ */
+public class LongPairHashSet {
+
+    private static final int DEFAULT_CAPACITY = 16;
+    private static final double LOAD_FACTOR = 0.5;
+
+    private long[] high;
+    private long[] low;
+    private int size = 0;
+    private int mask;
+    private int resizeThreshold;
+
+    public LongPairHashSet() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public LongPairHashSet(int expectedSize) {
+        allocate(tableSizeFor((int) Math.ceil(Math.max(expectedSize, DEFAULT_CAPACITY) / LOAD_FACTOR)));
+    }
+
+    private static int tableSizeFor(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        if (size <= 0) {
+            throw new IllegalStateException("Set is too large.");
+        }
+        return size;
+    }
+
+    private void allocate(int tableSize) {
+        this.high = new long[tableSize];
+        this.low = new long[tableSize];
+        this.mask = tableSize - 1;
+        this.resizeThreshold = (int) (tableSize * LOAD_FACTOR);
+    }
+
+    private static int hash(long high, long low) {
+        // Finalizer of MurmurHash3 spreads bits of both longs over whole int.
+        long h = high * 0x9E3779B97F4A7C15L + low;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+
+    /**
+     * Adds pair to set.
+     *
+     * @return true if pair was not present in set
+     */
+    public boolean add(long high, long low) {
+        if (high == 0 && low == 0) {
+            throw new IllegalArgumentException("Pair (0, 0) can't be stored.");
+        }
+
+        int index = hash(high, low) & mask;
+        while (this.high[index] != 0 || this.low[index] != 0) {
+            if (this.high[index] == high && this.low[index] == low) {
+                return false;
+            }
+            index = (index + 1) & mask;
+        }
+
+        this.high[index] = high;
+        this.low[index] = low;
+        if (++size > resizeThreshold) {
+            resize();
+        }
+        return true;
+    }
+
+    public boolean contains(long high, long low) {
+        int index = hash(high, low) & mask;
+        while (this.high[index] != 0 || this.low[index] != 0) {
+            if (this.high[index] == high && this.low[index] == low) {
+                return true;
+            }
+            index = (index + 1) & mask;
+        }
+        return false;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void resize() {
+        long[] oldHigh = this.high;
+        long[] oldLow = this.low;
+        allocate(oldHigh.length * 2);
+        size = 0;
+        for (int i = 0; i < oldHigh.length; i++) {
+            if (oldHigh[i] != 0 || oldLow[i] != 0) {
+                add(oldHigh[i], oldLow[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/**
+ * Facebook Re-post Bot - Bot that checks some pages and copies posts to other pages.
+ * Copyright (c) 2015, Matej Kormuth <http://www.github.com/dobrakmato>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.matejkormuth.fbrepostbot;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class HashedTimingWheelTest {
+
+    private HashedTimingWheel wheel;
+
+    @After
+    public void stop() {
+        if (wheel != null) {
+            wheel.stop();
+        }
+    }
+
+    // Runs expired tasks on ticker thread, tasks of tests are short.
+    private HashedTimingWheel create(int wheelSize) {
+        wheel = new HashedTimingWheel(Runnable::run, 1, TimeUnit.MILLISECONDS, wheelSize);
+        return wheel;
+    }
+
+    @Test(timeout = 10000)
+    public void expiresTimeoutsAfterSeveralRotations() throws InterruptedException {
+        create(16);
+        long[] delays = {70, 5, 50, 17, 33};
+        List<Long> expired = new CopyOnWriteArrayList<>();
+        Map<Long, Long> elapsed = new ConcurrentHashMap<>();
+        CountDownLatch latch = new CountDownLatch(delays.length);
+        long start = System.nanoTime();
+        for (long delay : delays) {
+            wheel.schedule(() -> {
+                elapsed.put(delay, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                expired.add(delay);
+                latch.countDown();
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+
+        latch.await();
+        assertEquals(Arrays.asList(5L, 17L, 33L, 50L, 70L), expired);
+        for (long delay : delays) {
+            assertTrue("Timeout of " + delay + " ms expired after " + elapsed.get(delay) + " ms.",
+                    elapsed.get(delay) >= delay);
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void expiresTimeoutLongerThanWholeWheel() throws InterruptedException {
+        // 1500 ticks of wheel with 1024 buckets.
+        create(1024);
+        long[] elapsed = {0};
+        CountDownLatch latch = new CountDownLatch(1);
+        long start = System.nanoTime();
+        wheel.schedule(() -> {
+            elapsed[0] = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            latch.countDown();
+        }, 1500, TimeUnit.MILLISECONDS);
+
+        latch.await();
+        assertTrue("Expired after " + elapsed[0] + " ms.", elapsed[0] >= 1500);
+        assertTrue("Expired after " + elapsed[0] + " ms.", elapsed[0] < 2500);
+    }
+
+    @Test(timeout = 10000)
+    public void doesNotRunCancelledTimeout() throws InterruptedException {
+        create(16);
+        boolean[] cancelledRan = {false};
+        CountDownLatch latch = new CountDownLatch(1);
+        HashedTimingWheel.Timeout timeout = wheel.schedule(() -> cancelledRan[0] = true, 20, TimeUnit.MILLISECONDS);
+        timeout.cancel();
+        wheel.schedule(latch::countDown, 40, TimeUnit.MILLISECONDS);
+
+        latch.await();
+        assertTrue(timeout.isCancelled());
+        assertFalse(cancelledRan[0]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsWheelSizeThatIsNotPowerOfTwo() {
+        create(1000);
+    }
+}
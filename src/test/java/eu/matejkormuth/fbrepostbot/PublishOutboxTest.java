@@ -0,0 +1,170 @@
+/**
+ * Facebook Re-post Bot - Bot that checks some pages and copies posts to other pages.
+ * Copyright (c) 2015, Matej Kormuth <http://www.github.com/dobrakmato>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.matejkormuth.fbrepostbot;
+
+import eu.matejkormuth.fbrepostbot.facebook.FacebookPost;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PublishOutboxTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static CachedPost post(String id) {
+        FacebookPost post = new FacebookPost();
+        post.setId(id);
+        post.setType(PostType.PHOTO);
+        post.setMessage("Message of " + id + "\nwith two lines");
+        post.setObjectId(42);
+        return new CachedPost(post, null, null, false);
+    }
+
+    private Path outboxPath() {
+        return folder.getRoot().toPath().resolve("pages").resolve("1").resolve("outbox.log");
+    }
+
+    @Test
+    public void replaysPendingAndDoneEntries() throws IOException {
+        try (PublishOutbox outbox = new PublishOutbox(outboxPath())) {
+            outbox.begin(post("1_1"));
+            outbox.begin(post("1_2"));
+            outbox.begin(post("1_3"));
+            outbox.complete("1_1", "2_100");
+            outbox.abort("1_3");
+        }
+
+        try (PublishOutbox outbox = new PublishOutbox(outboxPath())) {
+            List<PublishOutbox.Entry> entries = outbox.getRecovered();
+            assertEquals(2, entries.size());
+
+            assertEquals("1_1", entries.get(0).getKey());
+            assertTrue(entries.get(0).isDone());
+            assertEquals("2_100", entries.get(0).getPublishedPostId());
+
+            PublishOutbox.Entry pending = entries.get(1);
+            assertEquals("1_2", pending.getKey());
+            assertFalse(pending.isDone());
+            assertEquals("Message of 1_2\nwith two lines", pending.getPost().getOriginalPost().getMessage());
+            assertEquals(42, pending.getPost().getOriginalPost().getObjectId());
+            assertEquals(1, outbox.getPendingCount());
+        }
+    }
+
+    @Test
+    public void beginOfPendingPostIsNotRecordedAgain() throws IOException {
+        try (PublishOutbox outbox = new PublishOutbox(outboxPath())) {
+            outbox.begin(post("1_1"));
+            long size = Files.size(outboxPath());
+            outbox.begin(post("1_1"));
+            assertEquals(size, Files.size(outboxPath()));
+        }
+
+        // Recovered pending post is not recorded again when it is queued at boot.
+        try (PublishOutbox outbox = new PublishOutbox(outboxPath())) {
+            long size = Files.size(outboxPath());
+            outbox.begin(outbox.getRecovered().get(0).getPost());
+            assertEquals(size, Files.size(outboxPath()));
+        }
+    }
+
+    @Test
+    public void truncatesTornTail() throws IOException {
+        long size;
+        try (PublishOutbox outbox = new PublishOutbox(outboxPath())) {
+            outbox.begin(post("1_1"));
+            outbox.begin(post("1_2"));
+            size = Files.size(outboxPath());
+        }
+
+        // Header of record whose payload was not written before crash.
+        Files.write(outboxPath(), new byte[]{0, 0, 0, 100, 1, 2, 3}, StandardOpenOption.APPEND);
+
+        try (PublishOutbox outbox = new PublishOutbox(outboxPath())) {
+            assertEquals(size, Files.size(outboxPath()));
+            assertEquals(2, outbox.getPendingCount());
+            outbox.complete("1_1", "2_100");
+        }
+
+        // Records appended after truncation are readable.
+        try (PublishOutbox outbox = new PublishOutbox(outboxPath())) {
+            List<PublishOutbox.Entry> entries = outbox.getRecovered();
+            assertEquals(2, entries.size());
+            assertTrue(entries.get(0).isDone());
+            assertFalse(entries.get(1).isDone());
+        }
+    }
+
+    @Test
+    public void discardsRecordWithWrongChecksum() throws IOException {
+        long size;
+        try (PublishOutbox outbox = new PublishOutbox(outboxPath())) {
+            outbox.begin(post("1_1"));
+            size = Files.size(outboxPath());
+            outbox.complete("1_1", "2_100");
+        }
+
+        byte[] bytes = Files.readAllBytes(outboxPath());
+        bytes[bytes.length - 1] ^= 1;
+        Files.write(outboxPath(), bytes);
+
+        try (PublishOutbox outbox = new PublishOutbox(outboxPath())) {
+            assertEquals(size, Files.size(outboxPath()));
+            assertEquals(1, outbox.getPendingCount());
+            assertFalse(outbox.getRecovered().get(0).isDone());
+        }
+    }
+
+    @Test
+    public void truncatesWhenNothingIsPending() throws IOException {
+        try (PublishOutbox outbox = new PublishOutbox(outboxPath())) {
+            int i = 0;
+            while (Files.size(outboxPath()) <= PublishOutbox.COMPACTION_SIZE) {
+                outbox.begin(post("1_" + i));
+                outbox.complete("1_" + i, "2_" + i);
+                i++;
+            }
+
+            outbox.begin(post("1_" + i));
+            assertTrue(Files.size(outboxPath()) < PublishOutbox.COMPACTION_SIZE);
+            assertTrue(outbox.getRecovered().isEmpty());
+        }
+
+        try (PublishOutbox outbox = new PublishOutbox(outboxPath())) {
+            assertEquals(1, outbox.getPendingCount());
+        }
+    }
+}
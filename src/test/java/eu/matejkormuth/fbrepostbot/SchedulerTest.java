@@ -0,0 +1,103 @@
+/**
+ * Facebook Re-post Bot - Bot that checks some pages and copies posts to other pages.
+ * Copyright (c) 2015, Matej Kormuth <http://www.github.com/dobrakmato>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.matejkormuth.fbrepostbot;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class SchedulerTest {
+
+    private final Scheduler scheduler = new Scheduler(Scheduler.ExecutionMode.PLATFORM, 2, 0);
+
+    @After
+    public void shutdown() {
+        scheduler.shutdown();
+    }
+
+    @Test(timeout = 10000)
+    public void runsDelayedTaskAfterDelay() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+        long start = System.nanoTime();
+        scheduler.delay(latch::countDown, 300, TimeUnit.MILLISECONDS);
+
+        latch.await();
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 300);
+    }
+
+    @Test(timeout = 10000)
+    public void reschedulesPeriodicTask() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(3);
+        long start = System.nanoTime();
+        Scheduler.Task task = scheduler.periodic(latch::countDown, 200, TimeUnit.MILLISECONDS);
+
+        latch.await();
+        task.cancel();
+        // First run is somewhere in first period, next ones follow after whole period.
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 400);
+        assertTrue(task.isCancelled());
+    }
+
+    @Test(timeout = 10000)
+    public void cancelledPeriodicTaskStopsRunning() throws InterruptedException {
+        AtomicInteger runs = new AtomicInteger();
+        Scheduler.Task task = scheduler.periodic(runs::incrementAndGet, 100, TimeUnit.MILLISECONDS);
+        task.cancel();
+
+        Thread.sleep(500);
+        assertEquals(0, runs.get());
+    }
+
+    @Test(timeout = 10000)
+    public void reportsFailureAndKeepsPeriodicTask() throws InterruptedException {
+        AtomicReference<String> failedTask = new AtomicReference<>();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        CountDownLatch latch = new CountDownLatch(2);
+        scheduler.setFailureHandler((name, cause) -> {
+            failedTask.set(name);
+            failure.set(cause);
+            latch.countDown();
+        });
+
+        RuntimeException exception = new IllegalStateException("Task failed.");
+        Scheduler.Task task = scheduler.periodic("Failing", () -> {
+            throw exception;
+        }, 100, TimeUnit.MILLISECONDS);
+
+        // Failed periodic task is scheduled again.
+        latch.await();
+        task.cancel();
+        assertEquals("Failing", failedTask.get());
+        assertSame(exception, failure.get());
+    }
+}
@@ -0,0 +1,218 @@
+/**
+ * Facebook Re-post Bot - Bot that checks some pages and copies posts to other pages.
+ * Copyright (c) 2015, Matej Kormuth <http://www.github.com/dobrakmato>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.matejkormuth.fbrepostbot;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+
+import static org.junit.Assert.*;
+
+public class StaticFileServerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private StaticFileServer server;
+
+    @Before
+    public void start() throws IOException {
+        Path root = folder.newFolder("public").toPath();
+        Files.write(root.resolve("small.txt"), "0123456789".getBytes(Charsets.US_ASCII));
+        StringBuilder large = new StringBuilder();
+        for (int i = 0; i < 10; i++) {
+            large.append("abcdefghi").append(i);
+        }
+        Files.write(root.resolve("large.txt"), large.toString().getBytes(Charsets.US_ASCII));
+        Files.createDirectories(root.resolve("sub"));
+        Files.createDirectories(root.resolve("tmp"));
+        Files.write(root.resolve("tmp").resolve("part.txt"), "part".getBytes(Charsets.US_ASCII));
+        Files.write(folder.getRoot().toPath().resolve("secret.txt"), "secret".getBytes(Charsets.US_ASCII));
+
+        Properties properties = new Properties();
+        properties.setProperty("server.bindAddress", "127.0.0.1");
+        properties.setProperty("server.port", "0");
+        // Files larger than 16 bytes are sent from disk, smaller from cache.
+        properties.setProperty("server.cacheMaxFileSize", "16");
+        server = new StaticFileServer(root, StaticFileServer.Settings.fromProperties(properties));
+        server.exclude(root.resolve("tmp"));
+        server.start();
+    }
+
+    @After
+    public void stop() {
+        server.stop();
+    }
+
+    // Sends raw requests and reads responses until server closes connection.
+    private String send(String requests) throws IOException {
+        try (Socket socket = new Socket("127.0.0.1", server.getPort())) {
+            socket.setSoTimeout(5000);
+            socket.getOutputStream().write(requests.getBytes(Charsets.US_ASCII));
+            try (InputStream in = socket.getInputStream()) {
+                return new String(ByteStreams.toByteArray(in), Charsets.US_ASCII);
+            }
+        }
+    }
+
+    private String get(String target, String... headers) throws IOException {
+        StringBuilder request = new StringBuilder("GET " + target + " HTTP/1.1\r\nHost: localhost\r\n");
+        for (String header : headers) {
+            request.append(header).append("\r\n");
+        }
+        request.append("Connection: close\r\n\r\n");
+        return send(request.toString());
+    }
+
+    private static String status(String response) {
+        return response.substring(0, response.indexOf("\r\n"));
+    }
+
+    private static String body(String response) {
+        return response.substring(response.indexOf("\r\n\r\n") + 4);
+    }
+
+    private static String header(String response, String name) {
+        for (String line : response.substring(0, response.indexOf("\r\n\r\n")).split("\r\n")) {
+            if (line.toLowerCase().startsWith(name.toLowerCase() + ":")) {
+                return line.substring(name.length() + 1).trim();
+            }
+        }
+        return null;
+    }
+
+    @Test(timeout = 10000)
+    public void servesWholeFile() throws IOException {
+        String response = get("/small.txt");
+        assertEquals("HTTP/1.1 200 OK", status(response));
+        assertEquals("10", header(response, "Content-Length"));
+        assertEquals("0123456789", body(response));
+    }
+
+    @Test(timeout = 10000)
+    public void servesByteRanges() throws IOException {
+        String response = get("/small.txt", "Range: bytes=2-5");
+        assertEquals("HTTP/1.1 206 Partial Content", status(response));
+        assertEquals("bytes 2-5/10", header(response, "Content-Range"));
+        assertEquals("4", header(response, "Content-Length"));
+        assertEquals("2345", body(response));
+
+        response = get("/large.txt", "Range: bytes=2-5");
+        assertEquals("HTTP/1.1 206 Partial Content", status(response));
+        assertEquals("cdef", body(response));
+
+        response = get("/large.txt", "Range: bytes=95-");
+        assertEquals("bytes 95-99/100", header(response, "Content-Range"));
+        assertEquals("fghi9", body(response));
+
+        response = get("/small.txt", "Range: bytes=-3");
+        assertEquals("bytes 7-9/10", header(response, "Content-Range"));
+        assertEquals("789", body(response));
+
+        // End behind end of file is shortened.
+        response = get("/small.txt", "Range: bytes=8-100");
+        assertEquals("bytes 8-9/10", header(response, "Content-Range"));
+        assertEquals("89", body(response));
+    }
+
+    @Test(timeout = 10000)
+    public void rejectsUnsatisfiableRange() throws IOException {
+        String response = get("/small.txt", "Range: bytes=10-20");
+        assertEquals("HTTP/1.1 416 Range Not Satisfiable", status(response));
+        assertEquals("bytes */10", header(response, "Content-Range"));
+    }
+
+    @Test(timeout = 10000)
+    public void servesWholeFileForUnsupportedRanges() throws IOException {
+        for (String range : new String[]{"bytes=0-1,4-5", "bytes=5-2", "bytes=x-y", "lines=1-2"}) {
+            String response = get("/small.txt", "Range: " + range);
+            assertEquals(range, "HTTP/1.1 200 OK", status(response));
+            assertEquals(range, "0123456789", body(response));
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void appliesRangeOnlyForCurrentValidator() throws IOException {
+        String eTag = header(get("/small.txt"), "ETag");
+        String lastModified = header(get("/small.txt"), "Last-Modified");
+
+        assertEquals("2345", body(get("/small.txt", "Range: bytes=2-5", "If-Range: " + eTag)));
+        assertEquals("2345", body(get("/small.txt", "Range: bytes=2-5", "If-Range: " + lastModified)));
+
+        String response = get("/small.txt", "Range: bytes=2-5", "If-Range: \"other\"");
+        assertEquals("HTTP/1.1 200 OK", status(response));
+        assertEquals("0123456789", body(response));
+    }
+
+    @Test(timeout = 10000)
+    public void respondsNotModifiedForMatchingETag() throws IOException {
+        String eTag = header(get("/small.txt"), "ETag");
+
+        assertEquals("HTTP/1.1 304 Not Modified", status(get("/small.txt", "If-None-Match: " + eTag)));
+        assertEquals("HTTP/1.1 304 Not Modified", status(get("/small.txt", "If-None-Match: \"a\", W/" + eTag)));
+        assertEquals("HTTP/1.1 200 OK", status(get("/small.txt", "If-None-Match: \"other\"")));
+    }
+
+    @Test(timeout = 10000)
+    public void doesNotServeFilesOutsideOfRoot() throws IOException {
+        for (String target : new String[]{"/../secret.txt", "/sub/../../secret.txt", "/%2e%2e/secret.txt",
+                "/sub/%2E%2E/%2E%2E/secret.txt", "/..%2fsecret.txt", "/tmp/part.txt", "/tmp/../tmp/part.txt",
+                "/%00", "/sub", "secret.txt"}) {
+            String response = get(target);
+            assertTrue(target + ": " + status(response), status(response).startsWith("HTTP/1.1 404")
+                    || status(response).startsWith("HTTP/1.1 400"));
+            assertFalse(target, response.contains("secret") || response.contains("part"));
+        }
+
+        // Server is still alive after malformed paths.
+        assertEquals("HTTP/1.1 200 OK", status(get("/sub/../small.txt")));
+    }
+
+    @Test(timeout = 10000)
+    public void answersPipelinedRequestsInOrder() throws IOException {
+        String response = send("GET /small.txt HTTP/1.1\r\nHost: localhost\r\nRange: bytes=0-1\r\n\r\n"
+                + "GET /missing.txt HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                + "GET /small.txt HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n");
+
+        int first = response.indexOf("HTTP/1.1 206");
+        int second = response.indexOf("HTTP/1.1 404");
+        int third = response.indexOf("HTTP/1.1 200");
+        assertTrue(response, first == 0 && second > first && third > second);
+        assertTrue(response.endsWith("0123456789"));
+    }
+}
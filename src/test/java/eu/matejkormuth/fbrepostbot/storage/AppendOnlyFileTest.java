@@ -0,0 +1,127 @@
+/**
+ * Facebook Re-post Bot - Bot that checks some pages and copies posts to other pages.
+ * Copyright (c) 2015, Matej Kormuth <http://www.github.com/dobrakmato>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.matejkormuth.fbrepostbot.storage;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class AppendOnlyFileTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private AppendOnlyFile open() throws IOException {
+        return new AppendOnlyFile(folder.getRoot().toPath().resolve("test.log"));
+    }
+
+    @Test(timeout = 5000)
+    public void syncOfTruncatedDataReturns() throws IOException {
+        try (AppendOnlyFile file = open()) {
+            long end = file.append(ByteBuffer.wrap(new byte[100]));
+            file.truncate(0);
+            file.append(ByteBuffer.wrap(new byte[10]));
+
+            file.sync(end);
+            assertEquals(10, file.size());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void concurrentAppendsAreSyncedAndKeptWhole() throws Exception {
+        int threads = 8;
+        int appends = 100;
+        int recordSize = 16;
+        try (AppendOnlyFile file = open()) {
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                List<Future<?>> futures = new ArrayList<>();
+                for (int t = 0; t < threads; t++) {
+                    byte fill = (byte) (t + 1);
+                    futures.add(executor.submit(() -> {
+                        for (int i = 0; i < appends; i++) {
+                            byte[] record = new byte[recordSize];
+                            Arrays.fill(record, fill);
+                            long end = file.append(ByteBuffer.wrap(record));
+                            file.sync(end);
+                        }
+                        return null;
+                    }));
+                }
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+            } finally {
+                executor.shutdown();
+            }
+
+            assertEquals(threads * appends * recordSize, file.size());
+        }
+
+        // Records of different threads are not interleaved.
+        byte[] bytes = Files.readAllBytes(folder.getRoot().toPath().resolve("test.log"));
+        int[] counts = new int[threads + 1];
+        for (int offset = 0; offset < bytes.length; offset += recordSize) {
+            for (int i = 1; i < recordSize; i++) {
+                assertEquals(bytes[offset], bytes[offset + i]);
+            }
+            counts[bytes[offset]]++;
+        }
+        for (int t = 1; t <= threads; t++) {
+            assertEquals(appends, counts[t]);
+        }
+    }
+
+    @Test
+    public void readsAppendedDataAfterReopen() throws IOException {
+        try (AppendOnlyFile file = open()) {
+            assertEquals(3, file.append(ByteBuffer.wrap(new byte[]{1, 2, 3})));
+            long end = file.append(ByteBuffer.wrap(new byte[]{4, 5}));
+            assertEquals(5, end);
+            file.sync(end);
+        }
+
+        try (AppendOnlyFile file = open()) {
+            assertEquals(5, file.size());
+            ByteBuffer buffer = ByteBuffer.allocate(8);
+            assertEquals(5, file.read(buffer, 0));
+            assertArrayEquals(new byte[]{1, 2, 3, 4, 5}, Arrays.copyOf(buffer.array(), 5));
+        }
+    }
+}
@@ -0,0 +1,192 @@
+/**
+ * Facebook Re-post Bot - Bot that checks some pages and copies posts to other pages.
+ * Copyright (c) 2015, Matej Kormuth <http://www.github.com/dobrakmato>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.matejkormuth.fbrepostbot.storage;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class LogPostStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path directory() {
+        return folder.getRoot().toPath().resolve(LogPostStore.DIRECTORY);
+    }
+
+    private Path segment(int number) {
+        return directory().resolve(String.format("%010d", number) + ".log");
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> stream = Files.list(directory())) {
+            return stream.sorted().collect(Collectors.toList());
+        }
+    }
+
+    private long totalSize() throws IOException {
+        long size = 0;
+        for (Path segment : segments()) {
+            size += Files.size(segment);
+        }
+        return size;
+    }
+
+    @Test
+    public void readsLatestPostsAfterReopen() throws IOException {
+        try (LogPostStore store = new LogPostStore(directory())) {
+            store.put("1_1", "first");
+            store.put("1_2", "second");
+            store.put("1_1", "first updated");
+        }
+
+        try (LogPostStore store = new LogPostStore(directory())) {
+            assertEquals("first updated", store.get("1_1"));
+            assertEquals("second", store.get("1_2"));
+            assertNull(store.get("1_3"));
+
+            List<String> contents = new ArrayList<>();
+            store.forEach((postId, post, storedTime) -> contents.add(post));
+            assertEquals(2, contents.size());
+        }
+    }
+
+    @Test
+    public void truncatesIncompleteRecordAtEndOfLog() throws IOException {
+        long size;
+        try (LogPostStore store = new LogPostStore(directory())) {
+            store.put("1_1", "first");
+            store.put("1_2", "second");
+            size = Files.size(segment(1));
+        }
+
+        // Header of record whose payload was not written before crash.
+        Files.write(segment(1), new byte[]{0, 0, 1, 0, 7, 7}, StandardOpenOption.APPEND);
+
+        try (LogPostStore store = new LogPostStore(directory())) {
+            assertEquals("second", store.get("1_2"));
+            assertEquals(size, Files.size(segment(1)));
+            store.put("1_3", "third");
+        }
+
+        // Records appended after truncation are readable.
+        try (LogPostStore store = new LogPostStore(directory())) {
+            assertEquals("first", store.get("1_1"));
+            assertEquals("third", store.get("1_3"));
+        }
+    }
+
+    @Test
+    public void discardsRecordWithWrongChecksum() throws IOException {
+        try (LogPostStore store = new LogPostStore(directory())) {
+            store.put("1_1", "first");
+            store.put("1_2", "second");
+        }
+
+        byte[] bytes = Files.readAllBytes(segment(1));
+        bytes[bytes.length - 1] ^= 1;
+        Files.write(segment(1), bytes);
+
+        try (LogPostStore store = new LogPostStore(directory())) {
+            assertEquals("first", store.get("1_1"));
+            assertFalse(store.contains("1_2"));
+        }
+    }
+
+    @Test
+    public void compactsSegmentsWithOverwrittenPosts() throws IOException {
+        try (LogPostStore store = new LogPostStore(directory(), 256)) {
+            for (int i = 0; i < 20; i++) {
+                store.put("1_" + (i % 3), "post " + i);
+            }
+            store.put("1_kept", "kept");
+            assertTrue(segments().size() > 1);
+            long before = totalSize();
+
+            store.compact();
+            // Only four live records are left, they fit to one segment and the active one.
+            assertTrue(segments().size() <= 2);
+            assertTrue(totalSize() < before);
+            assertEquals("post 18", store.get("1_0"));
+        }
+
+        try (LogPostStore store = new LogPostStore(directory(), 256)) {
+            assertEquals("post 18", store.get("1_0"));
+            assertEquals("post 19", store.get("1_1"));
+            assertEquals("post 17", store.get("1_2"));
+            assertEquals("kept", store.get("1_kept"));
+
+            List<String> ids = new ArrayList<>();
+            store.forEachId(ids::add);
+            assertEquals(4, ids.size());
+        }
+    }
+
+    @Test
+    public void ignoresFilesThatAreNotSegments() throws IOException {
+        try (LogPostStore store = new LogPostStore(directory())) {
+            store.put("1_1", "first");
+        }
+        Files.write(directory().resolve("notes.log"), new byte[]{1, 2, 3});
+        Files.write(directory().resolve("99999999999.log"), new byte[]{1, 2, 3});
+
+        try (LogPostStore store = new LogPostStore(directory())) {
+            assertEquals("first", store.get("1_1"));
+            store.put("1_2", "second");
+        }
+        assertArrayEquals(new byte[]{1, 2, 3}, Files.readAllBytes(directory().resolve("notes.log")));
+    }
+
+    @Test(expected = IOException.class)
+    public void getOfDamagedRecordThrowsIOException() throws IOException {
+        try (LogPostStore store = new LogPostStore(directory(), 16)) {
+            store.put("1_1", "first");
+            // Second post does not fit to first segment.
+            store.put("1_2", "second");
+
+            // Length of post id points behind end of record of sealed segment.
+            try (RandomAccessFile file = new RandomAccessFile(segment(1).toFile(), "rw")) {
+                file.seek(16);
+                file.writeShort(0xFFFF);
+            }
+            store.get("1_1");
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/**
+ * Facebook Re-post Bot - Bot that checks some pages and copies posts to other pages.
+ * Copyright (c) 2015, Matej Kormuth <http://www.github.com/dobrakmato>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.matejkormuth.fbrepostbot.storage;
+
+import com.google.common.base.Charsets;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+public class MigrationToolTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void keepsDirectoryOfEarlierMigration() throws IOException {
+        Path pageCachePath = folder.getRoot().toPath();
+        Path postsPath = pageCachePath.resolve(JsonFilePostStore.DIRECTORY);
+        Files.createDirectories(postsPath);
+        Files.write(postsPath.resolve("1_1.json"), "first".getBytes(Charsets.UTF_8));
+        // Left by earlier partial run.
+        Path earlierPath = pageCachePath.resolve("posts.migrated");
+        Files.createDirectories(earlierPath);
+        Files.write(earlierPath.resolve("1_0.json"), "zeroth".getBytes(Charsets.UTF_8));
+
+        try (LogPostStore store = new LogPostStore(pageCachePath.resolve(LogPostStore.DIRECTORY))) {
+            assertTrue(MigrationTool.needsMigration(pageCachePath));
+            assertEquals(1, MigrationTool.migrate(pageCachePath, store));
+            assertEquals("first", store.get("1_1"));
+        }
+
+        assertFalse(MigrationTool.needsMigration(pageCachePath));
+        assertTrue(Files.exists(earlierPath.resolve("1_0.json")));
+        assertTrue(Files.exists(pageCachePath.resolve("posts.migrated.2").resolve("1_1.json")));
+    }
+}